@@ -0,0 +1,192 @@
+package k.core.util.arrays;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link ResizableArray} against {@link ArrayList} and a raw <tt>int[]</tt>.
+ * The <tt>reflective</tt> cases use the plain {@link ResizableArray}
+ * constructor, which goes through {@link java.lang.reflect.Array}; the
+ * <tt>specialized</tt> cases use {@link IntResizableArray}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResizableArrayBenchmark {
+    @Param({ "100", "10000" })
+    public int size;
+
+    private ResizableArray<int[]> reflective;
+    private IntResizableArray specialized;
+    private ArrayList<Integer> list;
+    private int[] raw;
+
+    @Setup
+    public void setup() {
+        reflective = new ResizableArray<int[]>(int[].class, size);
+        specialized = new IntResizableArray(size);
+        list = new ArrayList<Integer>(size);
+        raw = new int[size];
+        for (int i = 0; i < size; i++) {
+            reflective.add(i);
+            specialized.addInt(i);
+            list.add(i);
+            raw[i] = i;
+        }
+    }
+
+    /* add */
+
+    @Benchmark
+    public ResizableArray<int[]> addReflective() {
+        ResizableArray<int[]> a = new ResizableArray<int[]>(int[].class);
+        for (int i = 0; i < size; i++) {
+            a.add(i);
+        }
+        return a;
+    }
+
+    @Benchmark
+    public IntResizableArray addSpecialized() {
+        IntResizableArray a = new IntResizableArray();
+        for (int i = 0; i < size; i++) {
+            a.addInt(i);
+        }
+        return a;
+    }
+
+    @Benchmark
+    public ArrayList<Integer> addArrayList() {
+        ArrayList<Integer> a = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            a.add(i);
+        }
+        return a;
+    }
+
+    @Benchmark
+    public int[] addRawArray() {
+        int[] a = new int[10];
+        for (int i = 0; i < size; i++) {
+            if (i == a.length) {
+                int[] grown = new int[a.length + (a.length >> 1)];
+                System.arraycopy(a, 0, grown, 0, a.length);
+                a = grown;
+            }
+            a[i] = i;
+        }
+        return a;
+    }
+
+    /* get */
+
+    @Benchmark
+    public long getReflective() {
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += (Integer) reflective.get(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long getSpecialized() {
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += specialized.getInt(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long getArrayList() {
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += list.get(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long getRawArray() {
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += raw[i];
+        }
+        return sum;
+    }
+
+    /* remove, from the end so each op is the same amount of work */
+
+    @Benchmark
+    public void removeReflective(Blackhole bh) {
+        ResizableArray<int[]> a = reflective.clone();
+        while (!a.isEmpty()) {
+            bh.consume(a.remove(a.size() - 1));
+        }
+    }
+
+    @Benchmark
+    public void removeSpecialized(Blackhole bh) {
+        IntResizableArray a = specialized.clone();
+        while (!a.isEmpty()) {
+            bh.consume(a.remove(a.size() - 1));
+        }
+    }
+
+    @Benchmark
+    public void removeArrayList(Blackhole bh) {
+        ArrayList<Integer> a = new ArrayList<Integer>(list);
+        while (!a.isEmpty()) {
+            bh.consume(a.remove(a.size() - 1));
+        }
+    }
+
+    /* reverse */
+
+    @Benchmark
+    public ResizableArray<int[]> reverseReflective() {
+        reflective.reverse();
+        return reflective;
+    }
+
+    @Benchmark
+    public IntResizableArray reverseSpecialized() {
+        specialized.reverse();
+        return specialized;
+    }
+
+    @Benchmark
+    public ArrayList<Integer> reverseArrayList() {
+        Collections.reverse(list);
+        return list;
+    }
+
+    @Benchmark
+    public int[] reverseRawArray() {
+        int[] a = raw;
+        for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+            int tmp = a[i];
+            a[i] = a[j];
+            a[j] = tmp;
+        }
+        return a;
+    }
+}
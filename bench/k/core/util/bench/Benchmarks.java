@@ -0,0 +1,43 @@
+package k.core.util.bench;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the KCore JMH benchmarks. Always attaches the GC profiler so that
+ * <tt>gc.alloc.rate.norm</tt> (bytes/op) lands in the results next to the
+ * timings, and writes the results as JSON.<br>
+ * <br>
+ * Usage: <tt>Benchmarks [results file] [include regex...]</tt>
+ * 
+ * @author Kenzie Togami
+ */
+public class Benchmarks {
+    public static final String DEFAULT_RESULTS = "bench-results.json";
+
+    public static void main(String[] args) throws RunnerException {
+        String results = args.length > 0 ? args[0] : DEFAULT_RESULTS;
+        File parent = new File(results).getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        ChainedOptionsBuilder opts = new OptionsBuilder()
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON).result(results);
+        if (args.length > 1) {
+            for (int i = 1; i < args.length; i++) {
+                opts.include(args[i]);
+            }
+        } else {
+            opts.include("k\\.core\\.util\\..*Benchmark.*");
+        }
+        new Runner(opts.build()).run();
+        System.err.println("Results written to " + results);
+    }
+}
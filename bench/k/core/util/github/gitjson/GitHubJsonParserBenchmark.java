@@ -0,0 +1,83 @@
+package k.core.util.github.gitjson;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * {@link GitHubJsonParser#data(String)} lookups against a GitHub-like object
+ * with <tt>fields</tt> top level keys, each holding a small nested object.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GitHubJsonParserBenchmark {
+    @Param({ "10", "100", "1000" })
+    public int fields;
+
+    private String json;
+    private GitHubJsonParser parser;
+    private String shallowPath, deepPath;
+
+    static String payload(int fields) {
+        JsonObject root = new JsonObject();
+        root.add("login", new JsonPrimitive("TechShroom"));
+        root.add("id", new JsonPrimitive(1234));
+        for (int i = 0; i < fields; i++) {
+            JsonObject owner = new JsonObject();
+            owner.add("login", new JsonPrimitive("user" + i));
+            owner.add("id", new JsonPrimitive(i));
+            JsonObject permissions = new JsonObject();
+            permissions.add("admin", new JsonPrimitive(i % 2 == 0));
+            permissions.add("push", new JsonPrimitive(true));
+            owner.add("permissions", permissions);
+            JsonObject field = new JsonObject();
+            field.add("name", new JsonPrimitive("repo" + i));
+            field.add("url", new JsonPrimitive(
+                    "https://api.github.com/repos/TechShroom/repo" + i));
+            field.add("owner", owner);
+            root.add("field" + i, field);
+        }
+        return root.toString();
+    }
+
+    @Setup
+    public void setup() {
+        json = payload(fields);
+        parser = GitHubJsonParser.begin(json);
+        shallowPath = "login";
+        deepPath = "field" + (fields - 1) + "/owner/permissions/admin";
+    }
+
+    @Benchmark
+    public JsonElement lookupShallow() {
+        return parser.data(shallowPath);
+    }
+
+    @Benchmark
+    public JsonElement lookupDeep() {
+        return parser.data(deepPath);
+    }
+
+    @Benchmark
+    public JsonElement beginAndLookup() {
+        return GitHubJsonParser.begin(json).data(deepPath);
+    }
+}
@@ -0,0 +1,64 @@
+package k.core.util.math;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing on every call with {@link ExtraMath#evalExpression(String)} versus
+ * evaluating a {@link CompiledExpression} that was parsed once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExpressionBenchmark {
+    private static final String EXPR = "(4.01 - 60) * 2.5 + 3^4 - 12.75 * 8";
+
+    private CompiledExpression compiled, withVariables;
+    private UnlimitedDouble x, y;
+
+    @Setup
+    public void setup() {
+        compiled = CompiledExpression.compile(EXPR);
+        withVariables = CompiledExpression.compile("(x - 60) * 2.5 + y^4");
+        x = UnlimitedDouble.newInstance("4.01");
+        y = UnlimitedDouble.newInstance("3");
+    }
+
+    @Benchmark
+    public String evalExpression() {
+        return ExtraMath.evalExpression(EXPR);
+    }
+
+    @Benchmark
+    public CompiledExpression compile() {
+        return CompiledExpression.compile(EXPR);
+    }
+
+    @Benchmark
+    public UnlimitedDouble evaluateCompiled() {
+        return compiled.evaluate();
+    }
+
+    @Benchmark
+    public UnlimitedDouble evaluateVariables() {
+        return withVariables.evaluate(x, y);
+    }
+
+    @Benchmark
+    public double evaluateDouble() {
+        return withVariables.evaluateDouble(4.01, 3);
+    }
+}
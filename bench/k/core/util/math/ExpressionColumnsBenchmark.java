@@ -0,0 +1,79 @@
+package k.core.util.math;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluating a {@link CompiledExpression} over <tt>rows</tt> rows: one call
+ * per row, the block-at-a-time column method, and the parallel one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExpressionColumnsBenchmark {
+    @Param({ "1000", "1000000" })
+    public int rows;
+
+    private CompiledExpression expr;
+    private double[][] columns;
+    private double[] out;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        expr = CompiledExpression.compile("(x - 60) * 2.5 + y * y / x - 3");
+        Random r = new Random(42);
+        columns = new double[2][rows];
+        for (int i = 0; i < rows; i++) {
+            columns[0][i] = r.nextDouble() * 100;
+            columns[1][i] = r.nextDouble() * 10;
+        }
+        out = new double[rows];
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime()
+                .availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public double[] perRow() {
+        double[] x = columns[0], y = columns[1];
+        for (int i = 0; i < rows; i++) {
+            out[i] = expr.evaluateDouble(x[i], y[i]);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public double[] columns() {
+        expr.evaluateDouble(columns, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] columnsParallel() throws InterruptedException {
+        expr.evaluateDouble(columns, out, executor);
+        return out;
+    }
+}
@@ -0,0 +1,72 @@
+package k.core.util.math;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Each multiplication algorithm in {@link Limbs} forced at the top level over
+ * two operands of <tt>limbs</tt> limbs (nine digits each). Recursive calls
+ * still go through {@link Limbs#multiply(int[], int[])}, so the crossover is
+ * where a forced algorithm starts beating the one below it. This is what
+ * {@link Limbs#KARATSUBA_THRESHOLD} and {@link Limbs#TOOM3_THRESHOLD} are
+ * tuned from.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LimbsMultiplyBenchmark {
+    @Param({ "16", "32", "48", "64", "96", "128", "192", "256", "384", "512",
+            "1024" })
+    public int limbs;
+
+    private int[] a, b;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(limbs);
+        a = new int[limbs];
+        b = new int[limbs];
+        for (int i = 0; i < limbs; i++) {
+            a[i] = r.nextInt(Limbs.BASE);
+            b[i] = r.nextInt(Limbs.BASE);
+        }
+        // keep the limb count exact
+        a[limbs - 1] |= 1;
+        b[limbs - 1] |= 1;
+    }
+
+    @Benchmark
+    public int[] schoolbook() {
+        return Limbs.multiplySchoolbook(a, limbs, b, limbs);
+    }
+
+    @Benchmark
+    public int[] karatsuba() {
+        return Limbs.multiplyKaratsuba(a, limbs, b, limbs);
+    }
+
+    @Benchmark
+    public int[] toom3() {
+        return Limbs.multiplyToom3(a, limbs, b, limbs);
+    }
+
+    @Benchmark
+    public int[] dispatch() {
+        return Limbs.multiply(a, b);
+    }
+}
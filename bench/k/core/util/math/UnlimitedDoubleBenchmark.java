@@ -0,0 +1,118 @@
+package k.core.util.math;
+
+import java.math.RoundingMode;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Basic {@link UnlimitedDouble} operations over operands with
+ * <tt>digits</tt> digits (half of them after the decimal point).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UnlimitedDoubleBenchmark {
+    @Param({ "10", "100", "1000" })
+    public int digits;
+
+    private String aString;
+    private UnlimitedDouble a, b, aCopy, small;
+
+    static String randomNumber(Random r, int digits, boolean decimal) {
+        StringBuilder sb = new StringBuilder(digits + 1);
+        // no leading zero, so the digit count is exact
+        sb.append((char) ('1' + r.nextInt(9)));
+        for (int i = 1; i < digits; i++) {
+            if (decimal && i == digits / 2) {
+                sb.append('.');
+            }
+            sb.append((char) ('0' + r.nextInt(10)));
+        }
+        // no trailing zero either
+        if (decimal && digits > 1) {
+            sb.setCharAt(sb.length() - 1, (char) ('1' + r.nextInt(9)));
+        }
+        return sb.toString();
+    }
+
+    @Setup
+    public void setup() {
+        Random r = new Random(digits);
+        aString = randomNumber(r, digits, true);
+        a = UnlimitedDouble.newInstance(aString);
+        aCopy = UnlimitedDouble.newInstance(aString);
+        b = UnlimitedDouble.newInstance(randomNumber(r, digits, true));
+        small = UnlimitedDouble.newInstance("7");
+    }
+
+    @Benchmark
+    public UnlimitedDouble add() {
+        return a.add(b);
+    }
+
+    @Benchmark
+    public UnlimitedDouble multiply() {
+        return a.multiply(b);
+    }
+
+    /**
+     * Multiplies by a single digit integer.
+     */
+    @Benchmark
+    public UnlimitedDouble multiplySmall() {
+        return a.multiply(small);
+    }
+
+    /**
+     * Divides to as many digits after the decimal place as the operands have.
+     */
+    @Benchmark
+    public UnlimitedDouble divide() {
+        return a.divide(b, digits, RoundingMode.HALF_EVEN);
+    }
+
+    @Benchmark
+    public UnlimitedDouble sqrt() {
+        return a.sqrt(digits);
+    }
+
+    @Benchmark
+    public int compareToDifferent() {
+        return a.compareTo(b);
+    }
+
+    @Benchmark
+    public int compareToEqual() {
+        return a.compareTo(aCopy);
+    }
+
+    @Benchmark
+    public boolean equalsEqual() {
+        return a.equals(aCopy);
+    }
+
+    @Benchmark
+    public int hashCodeCached() {
+        return a.hashCode();
+    }
+
+    @Benchmark
+    public UnlimitedDouble parse() {
+        return UnlimitedDouble.newInstance(aString);
+    }
+}
@@ -0,0 +1,75 @@
+package k.core.util.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compressing and decompressing a {@link PacketFormat#BINARY} frame of
+ * <tt>fields</tt> mixed values, Gson objects included. Reports the ratio as
+ * well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+    @Param({ "SNAPPY", "ZLIB" })
+    public Compression compression;
+
+    @Param({ "64", "1024" })
+    public int fields;
+
+    private Compressor compressor;
+    private ByteBuf frame, compressed, out;
+
+    @Setup
+    public void setup() {
+        compressor = compression.newCompressor();
+        frame = Unpooled.directBuffer();
+        PacketEncoder.write(Packet.newPacket(DataStructBenchmark.PACKET_ID,
+                new DataStruct(DataStructBenchmark.mixedValues(fields))),
+                frame);
+        frame.skipBytes(4);
+        compressed = Unpooled.buffer();
+        compressor.compress(frame.duplicate(), compressed);
+        out = Unpooled.buffer(frame.readableBytes(), frame.readableBytes());
+        System.out.println(compression + ": " + frame.readableBytes()
+                + " -> " + compressed.readableBytes() + " bytes");
+    }
+
+    @TearDown
+    public void tearDown() {
+        compressor.end();
+    }
+
+    @Benchmark
+    public ByteBuf compress() {
+        ByteBuf buf = Unpooled.buffer(frame.readableBytes());
+        compressor.compress(frame.duplicate(), buf);
+        return buf;
+    }
+
+    @Benchmark
+    public ByteBuf decompress() {
+        out.clear();
+        compressor.decompress(compressed.duplicate(), out);
+        return out;
+    }
+}
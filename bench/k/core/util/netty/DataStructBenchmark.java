@@ -0,0 +1,121 @@
+package k.core.util.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link DataStruct} encode/decode round trips and the
+ * {@link Packet#toData(Packet)}/{@link Packet#fromData(String)} pair built on
+ * top of them, for payloads of <tt>fields</tt> mixed-type values. The
+ * <tt>binary*</tt> benchmarks use {@link DataStructCodec#BINARY} instead.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DataStructBenchmark {
+    static final int PACKET_ID = 1;
+
+    static {
+        Packet.registerPacket(TestPacket.class, PACKET_ID);
+    }
+
+    /**
+     * Stands in for the Gson-encoded <tt>KEY_OTHER</tt> values.
+     */
+    public static class Other {
+        String name = "other";
+        int count = 42;
+        double[] values = { 1.5, 2.5, 3.5 };
+    }
+
+    @Param({ "8", "64" })
+    public int fields;
+
+    private Object[] values;
+    private String encoded;
+    private Packet packet;
+    private String packetData;
+    private DataStruct struct;
+    private ByteBuf binary, scratch;
+
+    static Object[] mixedValues(int fields) {
+        Object[] all = { "a string value", 12345, 1234567890123L, 1.25d,
+                2.5f, (byte) 7, 'c', true, new Other() };
+        Object[] out = new Object[fields];
+        for (int i = 0; i < fields; i++) {
+            out[i] = all[i % all.length];
+        }
+        return out;
+    }
+
+    @Setup
+    public void setup() {
+        values = mixedValues(fields);
+        encoded = new DataStruct(values).toString();
+        packet = Packet.newPacket(PACKET_ID, new DataStruct(values));
+        packetData = Packet.toData(packet);
+        struct = new DataStruct(values);
+        binary = Unpooled.buffer();
+        DataStructCodec.BINARY.encode(struct, binary);
+        scratch = Unpooled.buffer(binary.readableBytes());
+    }
+
+    @Benchmark
+    public String encode() {
+        return new DataStruct(values).toString();
+    }
+
+    @Benchmark
+    public DataStruct decode() {
+        return new DataStruct(encoded);
+    }
+
+    @Benchmark
+    public DataStruct roundTrip() {
+        return new DataStruct(new DataStruct(values).toString());
+    }
+
+    @Benchmark
+    public String packetToData() {
+        return Packet.toData(packet);
+    }
+
+    @Benchmark
+    public Packet packetFromData() {
+        return Packet.fromData(packetData);
+    }
+
+    @Benchmark
+    public Packet newPacket() {
+        return Packet.newPacket(PACKET_ID, struct);
+    }
+
+    @Benchmark
+    public ByteBuf binaryEncode() {
+        scratch.clear();
+        DataStructCodec.BINARY.encode(struct, scratch);
+        return scratch;
+    }
+
+    @Benchmark
+    public DataStruct binaryDecode() {
+        return DataStructCodec.BINARY.decode(binary.duplicate());
+    }
+}
@@ -0,0 +1,129 @@
+package k.core.util.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A {@link Packet} going through each {@link PacketFormat}'s pipeline, with
+ * no network in the way. Reports the frame size as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketCodecBenchmark {
+    @Param({ "BINARY", "TEXT" })
+    public PacketFormat format;
+
+    private static final int BATCH = 64;
+
+    @Param({ "8", "64" })
+    public int fields;
+
+    private EmbeddedChannel channel;
+    private Packet packet;
+    private ByteBuf frame;
+    private Object received;
+
+    @Setup
+    public void setup() {
+        channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ChannelPipeline pipeline = channel.pipeline();
+        // the channel's own inbound queue would sit before the codec, so use
+        // our own after it
+        pipeline.removeFirst();
+        pipeline.removeFirst();
+        // counted the same as on a real connection
+        format.addCodec(pipeline, new NetHandler() {
+            @Override
+            public boolean sendPacket(Packet p) {
+                return false;
+            }
+
+            @Override
+            public void shutdown() {
+            }
+        }.getMetrics());
+        pipeline.addLast(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                received = msg;
+            }
+        });
+        // loading DataStructBenchmark registers the packet
+        Object[] values = DataStructBenchmark.mixedValues(fields);
+        packet = Packet.newPacket(DataStructBenchmark.PACKET_ID,
+                new DataStruct(values));
+        frame = Unpooled.buffer();
+        channel.writeOutbound(packet);
+        ByteBuf out;
+        while ((out = (ByteBuf) channel.readOutbound()) != null) {
+            frame.writeBytes(out);
+            out.release();
+        }
+        System.out.println(format + " frame: " + frame.readableBytes()
+                + " bytes");
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.close();
+    }
+
+    @Benchmark
+    public Object encode() {
+        channel.writeOutbound(packet);
+        ByteBuf out = (ByteBuf) channel.readOutbound();
+        out.release();
+        return out;
+    }
+
+    /**
+     * 64 packets between flushes, which {@link PacketFormat#BINARY} sends as
+     * one batch frame.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int encodeBatch() {
+        for (int i = 0; i < BATCH; i++) {
+            channel.write(packet);
+        }
+        channel.flush();
+        int bytes = 0;
+        ByteBuf out;
+        while ((out = (ByteBuf) channel.readOutbound()) != null) {
+            bytes += out.readableBytes();
+            out.release();
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public Object decode() {
+        received = null;
+        channel.writeInbound(frame.retain().duplicate());
+        return received;
+    }
+}
@@ -0,0 +1,271 @@
+package k.core.util.arrays;
+
+import java.util.Arrays;
+
+/**
+ * A {@link ResizableArray} specialized for <tt>boolean</tt> values. Element
+ * access goes straight to the backing <tt>boolean[]</tt> instead of through
+ * {@link java.lang.reflect.Array}, and the <tt>*Boolean</tt> methods never box.
+ * <br>
+ * <br>
+ * All of the primitive <tt>ResizableArray</tt>s are the same code with a
+ * different element type, so keep any changes in sync between them. Use
+ * {@link ResizableArray#create(Class)} to get one by array type.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+public class BooleanResizableArray extends ResizableArray<boolean[]> {
+    private static final long serialVersionUID = 3127088741924030710L;
+
+    /**
+     * Constructs an empty list with the specified initial capacity.
+     * 
+     * @param initialCapacity
+     *            the initial capacity of the list
+     * @throws IllegalArgumentException
+     *             if the specified initial capacity is negative
+     */
+    public BooleanResizableArray(int initialCapacity) {
+        super(boolean[].class, initialCapacity);
+    }
+
+    /**
+     * Constructs an empty list with an initial capacity of ten.
+     */
+    public BooleanResizableArray() {
+        this(10);
+    }
+
+    /**
+     * Constructs a list holding a copy of <tt>array</tt>.
+     * 
+     * @param array
+     *            - the array to create from
+     */
+    public BooleanResizableArray(boolean[] array) {
+        super(array);
+    }
+
+    /**
+     * Returns the element at the specified position in this list, without
+     * boxing it.
+     * 
+     * @param index
+     *            index of the element to return
+     * @return the element at the specified position in this list
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     */
+    public boolean getBoolean(int index) {
+        rangeCheck(index);
+        return elementData[index];
+    }
+
+    /**
+     * Replaces the element at the specified position in this list with the
+     * specified element, without boxing it.
+     * 
+     * @param index
+     *            index of the element to replace
+     * @param value
+     *            element to be stored at the specified position
+     * @return the element previously at the specified position
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     */
+    public boolean setBoolean(int index, boolean value) {
+        rangeCheck(index);
+        boolean oldValue = elementData[index];
+        if (permitUndef || !(!value)) {
+            elementData[index] = value;
+        }
+        return oldValue;
+    }
+
+    /**
+     * Appends the specified element to the end of this list, without boxing
+     * it.
+     * 
+     * @param value
+     *            element to be appended to this list
+     * @return <tt>false</tt> if the value was refused because undefined values
+     *         are not permitted, <tt>true</tt> otherwise
+     */
+    public boolean addBoolean(boolean value) {
+        if (!permitUndef && !value) {
+            return false;
+        }
+        ensureCapacityInternal(size + 1); // Increments modCount!!
+        elementData[size++] = value;
+        return true;
+    }
+
+    /**
+     * Inserts the specified element at the specified position in this list,
+     * without boxing it. Shifts the element currently at that position (if
+     * any) and any subsequent elements to the right.
+     * 
+     * @param index
+     *            index at which the specified element is to be inserted
+     * @param value
+     *            element to be inserted
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     */
+    public void addBoolean(int index, boolean value) {
+        rangeCheck(index);
+        if (!permitUndef && !value) {
+            return;
+        }
+        ensureCapacityInternal(size + 1); // Increments modCount!!
+        System.arraycopy(elementData, index, elementData, index + 1, size
+                - index);
+        elementData[index] = value;
+        size++;
+    }
+
+    /**
+     * Appends all of the values in <tt>a</tt> to the end of this list.
+     * 
+     * @param a
+     *            - the values to add
+     * @return <tt>true</tt> if this list changed as a result of the call
+     */
+    public boolean addAll(boolean[] a) {
+        return addAll(a, 0, a.length);
+    }
+
+    /**
+     * Appends <tt>len</tt> values of <tt>a</tt>, starting at <tt>off</tt>, to
+     * the end of this list.
+     * 
+     * @param a
+     *            - the values to add
+     * @param off
+     *            - the first index of <tt>a</tt> to add
+     * @param len
+     *            - the number of values to add
+     * @return <tt>true</tt> if this list changed as a result of the call
+     */
+    public boolean addAll(boolean[] a, int off, int len) {
+        if (!permitUndef) {
+            boolean changed = false;
+            for (int i = off; i < off + len; i++) {
+                changed |= addBoolean(a[i]);
+            }
+            return changed;
+        }
+        ensureCapacityInternal(size + len); // Increments modCount
+        System.arraycopy(a, off, elementData, size, len);
+        size += len;
+        return len != 0;
+    }
+
+    /**
+     * Returns the index of the first occurrence of <tt>value</tt> in this
+     * list, or -1 if this list does not contain it.
+     */
+    public int indexOfBoolean(boolean value) {
+        boolean[] a = elementData;
+        for (int i = 0; i < size; i++) {
+            boolean b = a[i];
+            if (value == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the elements boxed into an <tt>Object[]</tt>, as the backing
+     * <tt>boolean[]</tt> can't be handed out as one.
+     */
+    @Override
+    public Object[] toArray() {
+        Object[] out = new Object[size];
+        for (int i = 0; i < size; i++) {
+            out[i] = elementData[i];
+        }
+        return out;
+    }
+
+    @Override
+    Object elementData(int index) {
+        return elementData[index];
+    }
+
+    @Override
+    void setElement(int index, Object o) {
+        if (o instanceof Boolean) {
+            elementData[index] = (Boolean) o;
+        } else {
+            // widening conversions and errors are left to reflection
+            super.setElement(index, o);
+        }
+    }
+
+    @Override
+    void clearElement(int index) {
+        // primitives hold no references, nothing to clear
+    }
+
+    @Override
+    int length() {
+        return elementData.length;
+    }
+
+    @Override
+    boolean[] copyOf(int size) {
+        return Arrays.copyOf(elementData, size);
+    }
+
+    /**
+     * Reverses this list in place. This also calls {@link #trimToSize()}.
+     */
+    @Override
+    public void reverse() {
+        boolean[] a = copyOf(size);
+        for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+            boolean tmp = a[i];
+            a[i] = a[j];
+            a[j] = tmp;
+        }
+        elementData = a;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof BooleanResizableArray) {
+            BooleanResizableArray r = (BooleanResizableArray) o;
+            if (r.size != size) {
+                return false;
+            }
+            boolean[] mine = elementData, theirs = r.elementData;
+            for (int i = 0; i < size; i++) {
+                boolean a = mine[i], b = theirs[i];
+                if (a != b) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        // same result as List.hashCode(), without boxing
+        int hashCode = 1;
+        for (int i = 0; i < size; i++) {
+            boolean v = elementData[i];
+            hashCode = 31 * hashCode + (v ? 1231 : 1237);
+        }
+        return hashCode;
+    }
+
+    @Override
+    public BooleanResizableArray clone() {
+        return (BooleanResizableArray) super.clone();
+    }
+}
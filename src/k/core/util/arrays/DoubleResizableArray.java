@@ -0,0 +1,271 @@
+package k.core.util.arrays;
+
+import java.util.Arrays;
+
+/**
+ * A {@link ResizableArray} specialized for <tt>double</tt> values. Element
+ * access goes straight to the backing <tt>double[]</tt> instead of through
+ * {@link java.lang.reflect.Array}, and the <tt>*Double</tt> methods never box.
+ * <br>
+ * <br>
+ * All of the primitive <tt>ResizableArray</tt>s are the same code with a
+ * different element type, so keep any changes in sync between them. Use
+ * {@link ResizableArray#create(Class)} to get one by array type.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+public class DoubleResizableArray extends ResizableArray<double[]> {
+    private static final long serialVersionUID = -2720983794578792279L;
+
+    /**
+     * Constructs an empty list with the specified initial capacity.
+     * 
+     * @param initialCapacity
+     *            the initial capacity of the list
+     * @throws IllegalArgumentException
+     *             if the specified initial capacity is negative
+     */
+    public DoubleResizableArray(int initialCapacity) {
+        super(double[].class, initialCapacity);
+    }
+
+    /**
+     * Constructs an empty list with an initial capacity of ten.
+     */
+    public DoubleResizableArray() {
+        this(10);
+    }
+
+    /**
+     * Constructs a list holding a copy of <tt>array</tt>.
+     * 
+     * @param array
+     *            - the array to create from
+     */
+    public DoubleResizableArray(double[] array) {
+        super(array);
+    }
+
+    /**
+     * Returns the element at the specified position in this list, without
+     * boxing it.
+     * 
+     * @param index
+     *            index of the element to return
+     * @return the element at the specified position in this list
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     */
+    public double getDouble(int index) {
+        rangeCheck(index);
+        return elementData[index];
+    }
+
+    /**
+     * Replaces the element at the specified position in this list with the
+     * specified element, without boxing it.
+     * 
+     * @param index
+     *            index of the element to replace
+     * @param value
+     *            element to be stored at the specified position
+     * @return the element previously at the specified position
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     */
+    public double setDouble(int index, double value) {
+        rangeCheck(index);
+        double oldValue = elementData[index];
+        if (permitUndef || !(Double.compare(0, value) == 0)) {
+            elementData[index] = value;
+        }
+        return oldValue;
+    }
+
+    /**
+     * Appends the specified element to the end of this list, without boxing
+     * it.
+     * 
+     * @param value
+     *            element to be appended to this list
+     * @return <tt>false</tt> if the value was refused because undefined values
+     *         are not permitted, <tt>true</tt> otherwise
+     */
+    public boolean addDouble(double value) {
+        if (!permitUndef && Double.compare(0, value) == 0) {
+            return false;
+        }
+        ensureCapacityInternal(size + 1); // Increments modCount!!
+        elementData[size++] = value;
+        return true;
+    }
+
+    /**
+     * Inserts the specified element at the specified position in this list,
+     * without boxing it. Shifts the element currently at that position (if
+     * any) and any subsequent elements to the right.
+     * 
+     * @param index
+     *            index at which the specified element is to be inserted
+     * @param value
+     *            element to be inserted
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     */
+    public void addDouble(int index, double value) {
+        rangeCheck(index);
+        if (!permitUndef && Double.compare(0, value) == 0) {
+            return;
+        }
+        ensureCapacityInternal(size + 1); // Increments modCount!!
+        System.arraycopy(elementData, index, elementData, index + 1, size
+                - index);
+        elementData[index] = value;
+        size++;
+    }
+
+    /**
+     * Appends all of the values in <tt>a</tt> to the end of this list.
+     * 
+     * @param a
+     *            - the values to add
+     * @return <tt>true</tt> if this list changed as a result of the call
+     */
+    public boolean addAll(double[] a) {
+        return addAll(a, 0, a.length);
+    }
+
+    /**
+     * Appends <tt>len</tt> values of <tt>a</tt>, starting at <tt>off</tt>, to
+     * the end of this list.
+     * 
+     * @param a
+     *            - the values to add
+     * @param off
+     *            - the first index of <tt>a</tt> to add
+     * @param len
+     *            - the number of values to add
+     * @return <tt>true</tt> if this list changed as a result of the call
+     */
+    public boolean addAll(double[] a, int off, int len) {
+        if (!permitUndef) {
+            boolean changed = false;
+            for (int i = off; i < off + len; i++) {
+                changed |= addDouble(a[i]);
+            }
+            return changed;
+        }
+        ensureCapacityInternal(size + len); // Increments modCount
+        System.arraycopy(a, off, elementData, size, len);
+        size += len;
+        return len != 0;
+    }
+
+    /**
+     * Returns the index of the first occurrence of <tt>value</tt> in this
+     * list, or -1 if this list does not contain it.
+     */
+    public int indexOfDouble(double value) {
+        double[] a = elementData;
+        for (int i = 0; i < size; i++) {
+            double b = a[i];
+            if (Double.doubleToLongBits(value) == Double.doubleToLongBits(b)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the elements boxed into an <tt>Object[]</tt>, as the backing
+     * <tt>double[]</tt> can't be handed out as one.
+     */
+    @Override
+    public Object[] toArray() {
+        Object[] out = new Object[size];
+        for (int i = 0; i < size; i++) {
+            out[i] = elementData[i];
+        }
+        return out;
+    }
+
+    @Override
+    Object elementData(int index) {
+        return elementData[index];
+    }
+
+    @Override
+    void setElement(int index, Object o) {
+        if (o instanceof Double) {
+            elementData[index] = (Double) o;
+        } else {
+            // widening conversions and errors are left to reflection
+            super.setElement(index, o);
+        }
+    }
+
+    @Override
+    void clearElement(int index) {
+        // primitives hold no references, nothing to clear
+    }
+
+    @Override
+    int length() {
+        return elementData.length;
+    }
+
+    @Override
+    double[] copyOf(int size) {
+        return Arrays.copyOf(elementData, size);
+    }
+
+    /**
+     * Reverses this list in place. This also calls {@link #trimToSize()}.
+     */
+    @Override
+    public void reverse() {
+        double[] a = copyOf(size);
+        for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+            double tmp = a[i];
+            a[i] = a[j];
+            a[j] = tmp;
+        }
+        elementData = a;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof DoubleResizableArray) {
+            DoubleResizableArray r = (DoubleResizableArray) o;
+            if (r.size != size) {
+                return false;
+            }
+            double[] mine = elementData, theirs = r.elementData;
+            for (int i = 0; i < size; i++) {
+                double a = mine[i], b = theirs[i];
+                if (Double.doubleToLongBits(a) != Double.doubleToLongBits(b)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        // same result as List.hashCode(), without boxing
+        int hashCode = 1;
+        for (int i = 0; i < size; i++) {
+            long bits = Double.doubleToLongBits(elementData[i]);
+            hashCode = 31 * hashCode + (int) (bits ^ (bits >>> 32));
+        }
+        return hashCode;
+    }
+
+    @Override
+    public DoubleResizableArray clone() {
+        return (DoubleResizableArray) super.clone();
+    }
+}
@@ -52,16 +52,17 @@ public class ResizableArray<T> extends AbstractList<Object> implements
     /**
      * The array buffer into which the elements of the ResizableArray are
      * stored. The capacity of the ResizableArray is the length of this array
-     * buffer.
+     * buffer. Package-private so that the primitive specializations can index
+     * it directly.
      */
-    private transient T elementData;
+    transient T elementData;
 
     /**
      * The size of the ResizableArray (the number of elements it contains).
      * 
      * @serial
      */
-    private int size;
+    int size;
 
     /**
      * The type of the internal array. This is NOT the component type.
@@ -71,7 +72,7 @@ public class ResizableArray<T> extends AbstractList<Object> implements
     /**
      * If this <tt>ResiableArray</tt> permits undefined values, eg. null, 0.
      */
-    private boolean permitUndef = true;
+    boolean permitUndef = true;
 
     /**
      * Constructs an empty list with the specified initial capacity.
@@ -162,6 +163,103 @@ public class ResizableArray<T> extends AbstractList<Object> implements
         size = length();
     }
 
+    /**
+     * Creates a <tt>ResizableArray</tt> for the given array type, using the
+     * primitive specialization for its component type if there is one (eg.
+     * {@link IntResizableArray} for <tt>int[].class</tt>). Those skip
+     * {@link Array} for every access, so prefer this over the constructor.
+     *
+     * @param type
+     *            - the array type, eg. <tt>char[].class</tt>
+     * @param initialCapacity
+     *            - the initial capacity of the list
+     * @return a new, empty <tt>ResizableArray</tt>
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ResizableArray<T> create(Class<T> type,
+            int initialCapacity) {
+        Class<?> c = type.getComponentType();
+        if (c == int.class) {
+            return (ResizableArray<T>) new IntResizableArray(initialCapacity);
+        }
+        if (c == char.class) {
+            return (ResizableArray<T>) new CharResizableArray(initialCapacity);
+        }
+        if (c == long.class) {
+            return (ResizableArray<T>) new LongResizableArray(initialCapacity);
+        }
+        if (c == double.class) {
+            return (ResizableArray<T>) new DoubleResizableArray(
+                    initialCapacity);
+        }
+        if (c == byte.class) {
+            return (ResizableArray<T>) new ByteResizableArray(initialCapacity);
+        }
+        if (c == short.class) {
+            return (ResizableArray<T>) new ShortResizableArray(
+                    initialCapacity);
+        }
+        if (c == float.class) {
+            return (ResizableArray<T>) new FloatResizableArray(
+                    initialCapacity);
+        }
+        if (c == boolean.class) {
+            return (ResizableArray<T>) new BooleanResizableArray(
+                    initialCapacity);
+        }
+        return new ResizableArray<T>(type, initialCapacity);
+    }
+
+    /**
+     * Calls {@link #create(Class, int)} with an initial capacity of ten.
+     */
+    public static <T> ResizableArray<T> create(Class<T> type) {
+        return create(type, 10);
+    }
+
+    /**
+     * Like {@link #ResizableArray(Object)}, but picks the primitive
+     * specialization for the component type of <tt>array</tt>, if there is
+     * one.
+     *
+     * @param array
+     *            - the array to create from, it is copied
+     * @return a new <tt>ResizableArray</tt> holding the values of
+     *         <tt>array</tt>
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ResizableArray<T> fromArray(T array) {
+        if (array instanceof int[]) {
+            return (ResizableArray<T>) new IntResizableArray((int[]) array);
+        }
+        if (array instanceof char[]) {
+            return (ResizableArray<T>) new CharResizableArray((char[]) array);
+        }
+        if (array instanceof long[]) {
+            return (ResizableArray<T>) new LongResizableArray((long[]) array);
+        }
+        if (array instanceof double[]) {
+            return (ResizableArray<T>) new DoubleResizableArray(
+                    (double[]) array);
+        }
+        if (array instanceof byte[]) {
+            return (ResizableArray<T>) new ByteResizableArray((byte[]) array);
+        }
+        if (array instanceof short[]) {
+            return (ResizableArray<T>) new ShortResizableArray(
+                    (short[]) array);
+        }
+        if (array instanceof float[]) {
+            return (ResizableArray<T>) new FloatResizableArray(
+                    (float[]) array);
+        }
+        if (array instanceof boolean[]) {
+            return (ResizableArray<T>) new BooleanResizableArray(
+                    (boolean[]) array);
+        }
+        return new ResizableArray<T>(array);
+    }
+
     /**
      * Trims the capacity of this <tt>ResizableArray</tt> instance to be the
      * list's current size. An application can use this operation to minimize
@@ -249,7 +347,7 @@ public class ResizableArray<T> extends AbstractList<Object> implements
         return false;
     }
 
-    private void ensureCapacityInternal(int minCapacity) {
+    void ensureCapacityInternal(int minCapacity) {
         modCount++;
         // overflow-conscious code
         if (minCapacity - length() > 0)
@@ -287,7 +385,7 @@ public class ResizableArray<T> extends AbstractList<Object> implements
     }
 
     @SuppressWarnings("unchecked")
-    private T copyOf(int size) {
+    T copyOf(int size) {
         T temp = (T) Array.newInstance(arrayType.getComponentType(), size);
         System.arraycopy(elementData, 0, temp, 0, Math.min(size, length()));
         return temp;
@@ -310,7 +408,7 @@ public class ResizableArray<T> extends AbstractList<Object> implements
         return size;
     }
 
-    private int length() {
+    int length() {
         return Array.getLength(elementData);
     }
 
@@ -568,9 +666,25 @@ public class ResizableArray<T> extends AbstractList<Object> implements
                 return;
             }
         }
+        setElement(index, o);
+    }
+
+    /**
+     * Stores <tt>o</tt> at <tt>index</tt> with no checks at all. The primitive
+     * specializations override this to skip {@link Array#set}.
+     */
+    void setElement(int index, Object o) {
         Array.set(elementData, index, o);
     }
 
+    /**
+     * Clears the slot at <tt>index</tt> so the gc can do its work. Primitive
+     * arrays hold no references, so their specializations make this a no-op.
+     */
+    void clearElement(int index) {
+        fastSet(index, null);
+    }
+
     /**
      * Appends the specified element to the end of this list.
      * 
@@ -629,7 +743,7 @@ public class ResizableArray<T> extends AbstractList<Object> implements
         if (numMoved > 0)
             System.arraycopy(elementData, index + 1, elementData, index,
                     numMoved);
-        fastSet(size--, null); // Let gc do its work
+        clearElement(size--); // Let gc do its work
 
         return oldValue;
     }
@@ -676,7 +790,7 @@ public class ResizableArray<T> extends AbstractList<Object> implements
         if (numMoved > 0)
             System.arraycopy(elementData, index + 1, elementData, index,
                     numMoved);
-        fastSet(size--, null); // Let gc do its work
+        clearElement(size--); // Let gc do its work
     }
 
     /**
@@ -689,7 +803,7 @@ public class ResizableArray<T> extends AbstractList<Object> implements
 
         // Let gc do its work
         for (int i = 0; i < size; i++)
-            fastSet(i, null);
+            clearElement(i);
 
         size = 0;
     }
@@ -801,13 +915,13 @@ public class ResizableArray<T> extends AbstractList<Object> implements
         // Let gc do its work
         int newSize = size - (toIndex - fromIndex);
         while (size != newSize)
-            fastSet(--size, null);
+            clearElement(--size);
     }
 
     /**
      * Calls betterRangeCheck() for negative checking
      */
-    private void rangeCheck(int index) {
+    void rangeCheck(int index) {
         betterRangeCheck(index);
     }
 
@@ -882,8 +996,8 @@ public class ResizableArray<T> extends AbstractList<Object> implements
         boolean modified = false;
         try {
             for (; r < size; r++)
-                if (c.contains(Array.get(elementData, r)) == complement)
-                    Array.set(elementData, w++, Array.get(elementData, r));
+                if (c.contains(elementData(r)) == complement)
+                    setElement(w++, elementData(r));
         } finally {
             // Preserve behavioral compatibility with AbstractCollection,
             // even if c.contains() throws.
@@ -893,7 +1007,7 @@ public class ResizableArray<T> extends AbstractList<Object> implements
             }
             if (w != size) {
                 for (int i = w; i < size; i++)
-                    fastSet(i, null);
+                    clearElement(i);
                 modCount += size - w;
                 size = w;
                 modified = true;
@@ -952,12 +1066,12 @@ public class ResizableArray<T> extends AbstractList<Object> implements
         // Read in array length and allocate array
         int arrayLength = s.readInt();
         arrayType = (Class<T>) s.readObject();
-        T a = elementData = (T) Array.newInstance(arrayType.getComponentType(),
+        elementData = (T) Array.newInstance(arrayType.getComponentType(),
                 arrayLength);
 
         // Read in all elements in the proper order.
         for (int i = 0; i < size; i++)
-            Array.set(a, i, s.readObject());
+            setElement(i, s.readObject());
 
         permitUndef = s.readBoolean();
     }
@@ -1029,11 +1143,10 @@ public class ResizableArray<T> extends AbstractList<Object> implements
             int i = cursor;
             if (i >= size)
                 throw new NoSuchElementException();
-            Object elementData = ResizableArray.this.elementData;
-            if (i >= Array.getLength(elementData))
+            if (i >= length())
                 throw new ConcurrentModificationException();
             cursor = i + 1;
-            return Array.get(elementData, lastRet = i);
+            return elementData(lastRet = i);
         }
 
         @Override
@@ -1088,11 +1201,10 @@ public class ResizableArray<T> extends AbstractList<Object> implements
             int i = cursor - 1;
             if (i < 0)
                 throw new NoSuchElementException();
-            Object elementData = ResizableArray.this.elementData;
-            if (i >= Array.getLength(elementData))
+            if (i >= length())
                 throw new ConcurrentModificationException();
             cursor = i;
-            return Array.get(elementData, lastRet = i);
+            return elementData(lastRet = i);
         }
 
         @Override
@@ -1301,11 +1413,11 @@ public class ResizableArray<T> extends AbstractList<Object> implements
                     int i = cursor;
                     if (i >= SubList.this.size)
                         throw new NoSuchElementException();
-                    Object elementData = ResizableArray.this.elementData;
-                    if (offset + i >= Array.getLength(elementData))
+                    if (offset + i >= ResizableArray.this.length())
                         throw new ConcurrentModificationException();
                     cursor = i + 1;
-                    return Array.get(elementData, offset + (lastRet = i));
+                    return ResizableArray.this.elementData(offset
+                            + (lastRet = i));
                 }
 
                 @Override
@@ -1319,11 +1431,11 @@ public class ResizableArray<T> extends AbstractList<Object> implements
                     int i = cursor - 1;
                     if (i < 0)
                         throw new NoSuchElementException();
-                    Object elementData = ResizableArray.this.elementData;
-                    if (offset + i >= Array.getLength(elementData))
+                    if (offset + i >= ResizableArray.this.length())
                         throw new ConcurrentModificationException();
                     cursor = i;
-                    return Array.get(elementData, offset + (lastRet = i));
+                    return ResizableArray.this.elementData(offset
+                            + (lastRet = i));
                 }
 
                 @Override
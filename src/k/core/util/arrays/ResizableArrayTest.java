@@ -9,6 +9,7 @@ public class ResizableArrayTest {
 
     public static void main(String[] args) {
         testRA();
+        testSpecialized();
         testAL();
     }
 
@@ -41,6 +42,25 @@ public class ResizableArrayTest {
         System.err.println("Took " + end);
     }
 
+    private static void testSpecialized() {
+        long start = System.currentTimeMillis();
+        DoubleResizableArray array = (DoubleResizableArray) ResizableArray
+                .create(double[].class);
+        System.out.println(array.size());
+        for (int i = 0; i < 10000; i++) {
+            array.addDouble(Math.random());
+        }
+        print(array);
+        double d = array.getDouble(0);
+        System.err.println(d);
+        array.reverse();
+        if (array.getDouble(array.size() - 1) != d) {
+            System.err.println("reverse() is broken!");
+        }
+        long end = System.currentTimeMillis() - start;
+        System.err.println("Took " + end);
+    }
+
     private static void printLength(Object array) {
         try {
             System.out.println(Reflect.invokeMethod(int.class, "size", array));
@@ -0,0 +1,326 @@
+package k.core.util.github;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The responses {@link GNet} keeps to answer <tt>304 Not Modified</tt> with,
+ * by url, with the <tt>ETag</tt> and <tt>Last-Modified</tt> values to ask
+ * for them with. Bounded by the number of entries and by the size of their
+ * data, and the least recently used entries go first when either is too big.
+ * Entries also expire some time after they were stored or last revalidated.
+ * <br>
+ * <br>
+ * Safe to use from any thread. The counts of hits, misses and so on are kept
+ * from the start, for seeing how well the cache does.
+ *
+ * @author Kenzie Togami
+ */
+public final class GCache {
+    /**
+     * The default most entries, set by the <tt>github.cacheEntries</tt>
+     * property.
+     */
+    static final int MAX_ENTRIES = Integer.getInteger("github.cacheEntries",
+            1024);
+    /**
+     * The default most bytes of data, set by the <tt>github.cacheBytes</tt>
+     * property.
+     */
+    static final long MAX_BYTES = Long.getLong("github.cacheBytes",
+            32 << 20);
+    /**
+     * The default time entries are kept for, in seconds, set by the
+     * <tt>github.cacheTtl</tt> property.
+     */
+    static final long TTL_MILLIS = Long.getLong("github.cacheTtl",
+            24 * 60 * 60) * 1000;
+
+    /**
+     * One cached response.
+     */
+    static final class Entry {
+        final GData data;
+        final long lastModified;
+        /**
+         * The <tt>ETag</tt> header of the response, or <tt>null</tt>.
+         */
+        final String etag;
+        final long expires;
+        final long bytes;
+
+        Entry(GData data, long lastModified, long expires) {
+            this.data = data;
+            this.lastModified = lastModified;
+            this.expires = expires;
+            List<String> tags = GData.header(data.getHeaders(), "ETag");
+            etag = tags == null || tags.isEmpty() ? null : tags.get(0);
+            // Strings hold two bytes a char
+            bytes = data.getData().length() * 2L;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttl;
+    // in access order, least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+            16, 0.75f, true);
+    private long bytes;
+    private long hits, misses, evictions, expirations;
+
+    GCache() {
+        this(MAX_ENTRIES, MAX_BYTES, TTL_MILLIS);
+    }
+
+    /**
+     * @param maxEntries
+     *            - the most entries to keep
+     * @param maxBytes
+     *            - the most bytes of data to keep
+     * @param ttl
+     *            - the default time to keep entries for, in milliseconds
+     */
+    GCache(int maxEntries, long maxBytes, long ttl) {
+        if (maxEntries < 0 || maxBytes < 0 || ttl < 0) {
+            throw new IllegalArgumentException("negative bound");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Gets the entry for a url, if it hasn't expired, and counts the hit or
+     * miss.
+     *
+     * @param url
+     *            - the url
+     * @return the entry, or <tt>null</tt> if there is none
+     */
+    synchronized Entry get(String url) {
+        Entry e = entries.get(url);
+        if (e != null && e.expires <= System.currentTimeMillis()) {
+            remove(url, e);
+            expirations++;
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return e;
+    }
+
+    /**
+     * Gets the entry for a url, if it hasn't expired, without counting a hit
+     * or miss.
+     *
+     * @param url
+     *            - the url
+     * @return the entry, or <tt>null</tt> if there is none
+     */
+    synchronized Entry peek(String url) {
+        Entry e = entries.get(url);
+        return e != null && e.expires > System.currentTimeMillis() ? e : null;
+    }
+
+    /**
+     * Stores a response for the default time.
+     *
+     * @param url
+     *            - the url
+     * @param data
+     *            - the response, which must not be errored
+     * @param lastModified
+     *            - the <tt>Last-Modified</tt> time of the response, 0 if
+     *            unknown
+     */
+    void put(String url, GData data, long lastModified) {
+        put(url, data, lastModified, ttl);
+    }
+
+    /**
+     * Stores a response, replacing any for the same url. Entries bigger than
+     * the whole cache aren't kept.
+     *
+     * @param url
+     *            - the url
+     * @param data
+     *            - the response, which must not be errored
+     * @param lastModified
+     *            - the <tt>Last-Modified</tt> time of the response, 0 if
+     *            unknown
+     * @param ttl
+     *            - how long to keep it, in milliseconds
+     */
+    synchronized void put(String url, GData data, long lastModified, long ttl) {
+        long now = System.currentTimeMillis();
+        Entry e = new Entry(data, lastModified, now + ttl);
+        Entry old = entries.get(url);
+        if (old != null) {
+            remove(url, old);
+        }
+        if (e.bytes > maxBytes || maxEntries == 0) {
+            return;
+        }
+        entries.put(url, e);
+        bytes += e.bytes;
+        evict(now);
+    }
+
+    /**
+     * Removes the entry for a url.
+     *
+     * @param url
+     *            - the url
+     */
+    synchronized void remove(String url) {
+        Entry e = entries.get(url);
+        if (e != null) {
+            remove(url, e);
+        }
+    }
+
+    private void remove(String url, Entry e) {
+        entries.remove(url);
+        bytes -= e.bytes;
+    }
+
+    /*
+     * Drops expired entries from the least recently used end, which is where
+     * old ones collect, then whatever is over the bounds.
+     */
+    private void evict(long now) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (e.expires > now) {
+                break;
+            }
+            it.remove();
+            bytes -= e.bytes;
+            expirations++;
+        }
+        it = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes)
+                && it.hasNext()) {
+            Entry e = it.next();
+            it.remove();
+            bytes -= e.bytes;
+            evictions++;
+        }
+    }
+
+    /**
+     * Gets a copy of the entries that haven't expired, for storing, without
+     * counting as use.
+     *
+     * @return the entries, least recently used first
+     */
+    synchronized Map<String, Entry> snapshot() {
+        long now = System.currentTimeMillis();
+        Map<String, Entry> copy = new LinkedHashMap<String, Entry>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getValue().expires > now) {
+                copy.put(e.getKey(), e.getValue());
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Gets the urls with entries, least recently used first.
+     *
+     * @return a copy of the urls
+     */
+    public synchronized List<String> getUrls() {
+        return new ArrayList<String>(entries.keySet());
+    }
+
+    /**
+     * Removes every entry. The counts are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the size of the data held, at two bytes a char.
+     *
+     * @return the bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the number of lookups that found an entry.
+     *
+     * @return the count
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of lookups that found no entry, or an expired one.
+     *
+     * @return the count
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of entries removed to stay in bounds.
+     *
+     * @return the count
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of entries removed because they expired.
+     *
+     * @return the count
+     */
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * Gets the share of lookups that found an entry.
+     *
+     * @return from 0 to 1, 0 if there were none
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return entries.size() + "/" + maxEntries + " entries, " + bytes + "/"
+                + maxBytes + "B, hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", expirations=" + expirations;
+    }
+}
@@ -37,12 +37,57 @@ public class GData {
             BADURL = new GData(GDataError.BADURL), IOERRORS = new GData(
                     GDataError.IOERRORS);
 
+    /**
+     * Finds the key a header is stored under. Header names aren't case
+     * sensitive, and servers don't agree on the case.
+     * 
+     * @param headers
+     *            - the headers
+     * @param name
+     *            - the header name, in any case
+     * @return the key in <tt>headers</tt>, or <tt>null</tt> if there is none
+     */
+    private static String headerKey(Map<String, List<String>> headers, String name) {
+        if (headers.containsKey(name)) {
+            return name;
+        }
+        for (String key : headers.keySet()) {
+            if (name.equalsIgnoreCase(key)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the values of a header, whatever its case.
+     * 
+     * @param headers
+     *            - the headers
+     * @param name
+     *            - the header name, in any case
+     * @return the values, or <tt>null</tt> if there is no such header
+     */
+    static List<String> header(Map<String, List<String>> headers, String name) {
+        String key = headerKey(headers, name);
+        // the null key is the status line
+        return key == null ? null : headers.get(key);
+    }
+
+    private static void removeHeader(Map<String, List<String>> headers,
+            String name) {
+        String key = headerKey(headers, name);
+        if (key != null) {
+            headers.remove(key);
+        }
+    }
+
     private static int getRLL(Map<String, List<String>> headers) {
-        return Integer.parseInt(headers.get(RATELIMIT_KEY).get(0));
+        return Integer.parseInt(header(headers, RATELIMIT_KEY).get(0));
     }
 
     private static int getRLRemaining(Map<String, List<String>> headers) {
-        return Integer.parseInt(headers.get(RATEREMAINING_KEY).get(0));
+        return Integer.parseInt(header(headers, RATEREMAINING_KEY).get(0));
     }
 
     /**
@@ -53,7 +98,7 @@ public class GData {
      *         {@link #getRLL()}.
      */
     private static long getRLReset(Map<String, List<String>> headers) {
-        return Long.parseLong(headers.get(RATERESET_KEY).get(0)) * 1000;
+        return Long.parseLong(header(headers, RATERESET_KEY).get(0)) * 1000;
     }
 
     private final GDataError errstate;
@@ -89,31 +134,87 @@ public class GData {
                 throw new RuntimeException(ioe);
             }
             reader.close();
-            raw = data;
-            Map<String, List<String>> headers = urlc.getHeaderFields();
-            headers = new HashMap<String, List<String>>(headers); // copy out
-            int rlremain = 0;
-            int rllim = 0;
-            long rlreset = 0;
-            try {
-                rlremain = getRLRemaining(headers);
-                rllim = getRLL(headers);
-                rlreset = getRLReset(headers);
-                headers.remove(RATELIMIT_KEY);
-                headers.remove(RATEREMAINING_KEY);
-                headers.remove(RATERESET_KEY);
-            } catch (NullPointerException npe) {
-                // no ratelimits, errored probably
-            }
-            headers = Collections.unmodifiableMap(headers); // protect
-            this.data = new SpecialData(rlremain, rllim, rlreset, headers,
-                    urlc.getResponseCode());
+            content(data, urlc.getHeaderFields(), urlc.getResponseCode());
         } else {
             throw new UnsupportedOperationException("no handler for "
                     + content.getClass());
         }
     }
 
+    void content(String dataRaw, Map<String, List<String>> headers, int code) {
+        raw = dataRaw;
+        data = special(headers, code, null);
+    }
+
+    /**
+     * Makes the data to answer a <tt>304 Not Modified</tt> with: this data's
+     * content and response code, with the headers and rate limits the 304
+     * came with replacing the stored ones.
+     * 
+     * @param notModified
+     *            - the headers of the 304
+     * @return the updated data
+     */
+    GData revalidated(Map<String, List<String>> notModified) {
+        throwIfErrored();
+        Map<String, List<String>> headers = new HashMap<String, List<String>>(
+                data.headers);
+        for (Map.Entry<String, List<String>> e : notModified.entrySet()) {
+            // the null key is the status line, and the length is the 304's,
+            // so both stay the stored ones
+            if (e.getKey() == null
+                    || e.getKey().equalsIgnoreCase("Content-Length")) {
+                continue;
+            }
+            removeHeader(headers, e.getKey());
+            headers.put(e.getKey(), e.getValue());
+        }
+        GData out = new GData();
+        out.raw = raw;
+        out.data = special(headers, data.responseCode, data.limits);
+        return out;
+    }
+
+    /**
+     * Reads the rate limits from headers.
+     * 
+     * @param headers
+     *            - the headers
+     * @return the limits, or <tt>null</tt> if there are none
+     */
+    static RateLimit rateOf(Map<String, List<String>> headers) {
+        RateLimit rate = special(headers, 0, null).limits;
+        return rate.getLimit() == 0 ? null : rate;
+    }
+
+    private static SpecialData special(Map<String, List<String>> headers,
+            int code, RateLimit old) {
+        headers = new HashMap<String, List<String>>(headers); // copy out
+        int rlremain = 0;
+        int rllim = 0;
+        long rlreset = 0;
+        if (old != null) {
+            rlremain = old.getRemaining();
+            rllim = old.getLimit();
+            rlreset = old.getResetTime();
+        }
+        try {
+            int remain = getRLRemaining(headers);
+            int lim = getRLL(headers);
+            long reset = getRLReset(headers);
+            rlremain = remain;
+            rllim = lim;
+            rlreset = reset;
+            removeHeader(headers, RATELIMIT_KEY);
+            removeHeader(headers, RATEREMAINING_KEY);
+            removeHeader(headers, RATERESET_KEY);
+        } catch (NullPointerException npe) {
+            // no ratelimits, errored probably
+        }
+        headers = Collections.unmodifiableMap(headers); // protect
+        return new SpecialData(rlremain, rllim, rlreset, headers, code);
+    }
+
     void contentloaded(String dataRaw, int remain, int limit, long reset,
             Map<String, List<String>> headers, int code) {
         raw = dataRaw;
@@ -0,0 +1,555 @@
+package k.core.util.github;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * HTTP/1.1 connections to the GitHub API, kept open between requests. A
+ * request never blocks, it gets a future for the response instead.
+ * <br>
+ * <br>
+ * At most a fixed number of connections are open at once, and requests wait
+ * for a free one past that. Each connection carries one request at a time.
+ * A GET that finds its kept-open connection closed by the server is sent
+ * again once.
+ *
+ * @author Kenzie Togami
+ */
+final class GHttp {
+    /**
+     * Where the API is, set by the <tt>github.api</tt> property. Point it at
+     * a local server to test against.
+     */
+    static final String API = System.getProperty("github.api",
+            "https://api.github.com");
+    /**
+     * The most connections open at once, set by the
+     * <tt>github.maxConnections</tt> property.
+     */
+    static final int MAX_CONNECTIONS = Integer.getInteger(
+            "github.maxConnections", 8);
+    /**
+     * How long to wait for a response, in seconds, set by the
+     * <tt>github.readTimeout</tt> property.
+     */
+    static final int READ_TIMEOUT = Integer.getInteger("github.readTimeout",
+            30);
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int MAX_BODY = 16 << 20;
+
+    /**
+     * A response, read in full.
+     */
+    static final class Response {
+        final int code;
+        /**
+         * The headers, as {@link java.net.HttpURLConnection} has them: the
+         * status line under the <tt>null</tt> key.
+         */
+        final Map<String, List<String>> headers;
+        final String body;
+
+        Response(FullHttpResponse r) {
+            code = r.getStatus().code();
+            Map<String, List<String>> h = new HashMap<String, List<String>>();
+            for (String name : r.headers().names()) {
+                h.put(name, r.headers().getAll(name));
+            }
+            h.put(null, Collections.singletonList(r.getProtocolVersion()
+                    + " " + r.getStatus()));
+            headers = Collections.unmodifiableMap(h);
+            body = r.content().toString(CharsetUtil.UTF_8);
+        }
+    }
+
+    /*
+     * A request and where its response goes. Rebuilt for each try, because
+     * writing a request releases it.
+     */
+    private static final class Exchange {
+        final HttpMethod method;
+        final String uri;
+        final Map<String, String> headers;
+        final String body;
+        final Promise<Response> promise;
+        boolean retried;
+
+        Exchange(HttpMethod method, String uri, Map<String, String> headers,
+                String body, Promise<Response> promise) {
+            this.method = method;
+            this.uri = uri;
+            this.headers = headers;
+            this.body = body;
+            this.promise = promise;
+        }
+
+        FullHttpRequest toRequest(String host) {
+            FullHttpRequest req = new DefaultFullHttpRequest(
+                    HttpVersion.HTTP_1_1, method, uri, Unpooled.copiedBuffer(
+                            body, CharsetUtil.UTF_8));
+            HttpHeaders h = req.headers();
+            h.set(HttpHeaders.Names.HOST, host);
+            h.set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+            h.set(HttpHeaders.Names.ACCEPT_ENCODING, HttpHeaders.Values.GZIP);
+            // GitHub turns away requests without one
+            h.set(HttpHeaders.Names.USER_AGENT, "KCore");
+            h.set(HttpHeaders.Names.CONTENT_LENGTH, req.content()
+                    .readableBytes());
+            for (Entry<String, String> e : headers.entrySet()) {
+                h.set(e.getKey(), e.getValue());
+            }
+            return req;
+        }
+    }
+
+    private final String host, hostHeader, basePath;
+    private final int port;
+    private final boolean ssl;
+    private final int maxConnections;
+    private final EventLoopGroup group;
+    private final Bootstrap bootstrap;
+    // guarded by this
+    private final ArrayDeque<Channel> idle = new ArrayDeque<Channel>();
+    private final ArrayDeque<Exchange> waiting = new ArrayDeque<Exchange>();
+    private int open;
+
+    /**
+     * @param api
+     *            - the url of the API, <tt>http</tt> or <tt>https</tt>
+     * @param maxConnections
+     *            - the most connections to open at once
+     */
+    GHttp(String api, int maxConnections) {
+        URI uri = URI.create(api);
+        ssl = "https".equalsIgnoreCase(uri.getScheme());
+        host = uri.getHost();
+        port = uri.getPort() < 0 ? (ssl ? 443 : 80) : uri.getPort();
+        hostHeader = uri.getPort() < 0 ? host : host + ":" + port;
+        basePath = uri.getRawPath() == null ? "" : uri.getRawPath()
+                .replaceFirst("/$", "");
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections "
+                    + maxConnections);
+        }
+        this.maxConnections = maxConnections;
+        // daemons, so they don't keep programs running
+        group = new NioEventLoopGroup(1, new DefaultThreadFactory("GitHub",
+                true));
+        bootstrap = new Bootstrap().group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS,
+                        CONNECT_TIMEOUT_MILLIS)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch)
+                            throws Exception {
+                        ChannelPipeline p = ch.pipeline();
+                        if (ssl) {
+                            p.addLast("ssl", new SslHandler(newEngine()));
+                        }
+                        p.addLast("http", new HttpClientCodec());
+                        p.addLast("inflater", new HttpContentDecompressor());
+                        p.addLast("aggregator", new HttpObjectAggregator(
+                                MAX_BODY));
+                        p.addLast("handler", new Handler());
+                    }
+                });
+    }
+
+    private SSLEngine newEngine() throws NoSuchAlgorithmException {
+        SSLEngine engine = SSLContext.getDefault()
+                .createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        return engine;
+    }
+
+    /*
+     * The engine checks the certificate is trusted, but until Java 7 it
+     * can't check it is for the host. So that is done here, once the
+     * handshake is done, the way RFC 2818 says: against the DNS names the
+     * certificate has, or its CN if it has none.
+     */
+    static void checkHost(String host, SSLSession session)
+            throws SSLPeerUnverifiedException {
+        Certificate[] chain = session.getPeerCertificates();
+        if (!(chain[0] instanceof X509Certificate)) {
+            throw new SSLPeerUnverifiedException("not an X.509 certificate");
+        }
+        X509Certificate cert = (X509Certificate) chain[0];
+        List<String> names = new ArrayList<String>();
+        try {
+            Collection<List<?>> alt = cert.getSubjectAlternativeNames();
+            if (alt != null) {
+                for (List<?> name : alt) {
+                    // 2 is a DNS name, 7 an IP address
+                    int type = (Integer) name.get(0);
+                    if (type == 2 || type == 7) {
+                        names.add((String) name.get(1));
+                    }
+                }
+            }
+        } catch (CertificateParsingException e) {
+            throw new SSLPeerUnverifiedException(e.toString());
+        }
+        if (names.isEmpty()) {
+            String dn = cert.getSubjectX500Principal().getName(
+                    X500Principal.RFC2253);
+            for (String part : dn.split("(?<!\\\\),")) {
+                if (part.regionMatches(true, 0, "CN=", 0, 3)) {
+                    names.add(part.substring(3));
+                }
+            }
+        }
+        for (String name : names) {
+            if (hostMatches(host, name)) {
+                return;
+            }
+        }
+        throw new SSLPeerUnverifiedException("certificate for " + names
+                + " doesn't match " + host);
+    }
+
+    static boolean hostMatches(String host, String name) {
+        host = host.toLowerCase(Locale.ENGLISH);
+        name = name.toLowerCase(Locale.ENGLISH);
+        if (!name.startsWith("*.")) {
+            return host.equals(name);
+        }
+        // a wildcard is one whole label, and only the leftmost
+        int dot = host.indexOf('.');
+        return dot > 0 && host.substring(dot).equals(name.substring(1));
+    }
+
+    /**
+     * Gets the connections' thread, for short tasks that must never block.
+     *
+     * @return the thread's executor
+     */
+    EventExecutor executor() {
+        return group.next();
+    }
+
+    /**
+     * Makes a promise whose listeners run on the connections' thread, which
+     * must never block.
+     *
+     * @return a new promise
+     */
+    <V> Promise<V> newPromise() {
+        return group.next().newPromise();
+    }
+
+    /**
+     * Sends a request.
+     *
+     * @param method
+     *            - the method
+     * @param path
+     *            - the path and query, after the API url
+     * @param headers
+     *            - headers to send, replacing any defaults
+     * @param body
+     *            - the body, empty for none
+     * @return the response, or the exception that stopped it. Listeners run
+     *         on the connections' thread, and must not block.
+     */
+    Future<Response> request(HttpMethod method, String path,
+            Map<String, String> headers, String body) {
+        Promise<Response> promise = newPromise();
+        dispatch(new Exchange(method, basePath + path,
+                new HashMap<String, String>(headers), body, promise));
+        return promise;
+    }
+
+    private void dispatch(Exchange x) {
+        Channel ch;
+        synchronized (this) {
+            // the most recently used one is the least likely to be closed
+            ch = idle.pollLast();
+            if (ch == null) {
+                if (open >= maxConnections) {
+                    waiting.add(x);
+                    return;
+                }
+                open++;
+            }
+        }
+        if (ch != null) {
+            send(ch, x);
+        } else {
+            connect(x);
+        }
+    }
+
+    private void connect(final Exchange x) {
+        bootstrap.connect(host, port).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                if (!future.isSuccess()) {
+                    x.promise.tryFailure(future.cause());
+                    closed(null);
+                    return;
+                }
+                final Channel ch = future.channel();
+                ch.closeFuture().addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture f) {
+                        closed(f.channel());
+                    }
+                });
+                if (!ssl) {
+                    send(ch, x);
+                    return;
+                }
+                final SslHandler handler = ch.pipeline().get(SslHandler.class);
+                handler.handshakeFuture().addListener(
+                        new FutureListener<Channel>() {
+                            @Override
+                            public void operationComplete(
+                                    Future<Channel> f) {
+                                try {
+                                    if (!f.isSuccess()) {
+                                        throw f.cause();
+                                    }
+                                    checkHost(host, handler.engine()
+                                            .getSession());
+                                } catch (Throwable t) {
+                                    x.promise.tryFailure(t);
+                                    ch.close();
+                                    return;
+                                }
+                                send(ch, x);
+                            }
+                        });
+            }
+        });
+    }
+
+    /*
+     * Counts a connection gone, and opens another for a waiting request.
+     */
+    private void closed(Channel ch) {
+        Exchange next;
+        synchronized (this) {
+            if (ch != null) {
+                idle.remove(ch);
+            }
+            open--;
+            next = waiting.poll();
+            if (next != null) {
+                open++;
+            }
+        }
+        if (next != null) {
+            connect(next);
+        }
+    }
+
+    /*
+     * Hands a connection that finished a request to a waiting one, or keeps
+     * it for the next.
+     */
+    private void release(Channel ch) {
+        Exchange next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                if (ch.isActive()) {
+                    idle.add(ch);
+                }
+                return;
+            }
+        }
+        send(ch, next);
+    }
+
+    private void send(Channel ch, final Exchange x) {
+        final Handler handler = ch.pipeline().get(Handler.class);
+        handler.start(x);
+        ch.writeAndFlush(x.toRequest(hostHeader)).addListener(
+                new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) {
+                        if (!future.isSuccess()) {
+                            // closed before it could be sent
+                            future.channel().close();
+                            handler.lost(x, future.cause());
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Closes every connection, failing any requests in flight or waiting.
+     */
+    void shutdown() {
+        group.shutdownGracefully();
+        List<Exchange> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<Exchange>(waiting);
+            waiting.clear();
+        }
+        for (Exchange x : dropped) {
+            x.promise.tryFailure(new ClosedChannelException());
+        }
+    }
+
+    /*
+     * Matches responses to requests on one connection.
+     */
+    private final class Handler extends
+            SimpleChannelInboundHandler<FullHttpResponse> {
+        private Channel channel;
+        private Exchange current;
+        private ScheduledFuture<?> timeout;
+        private boolean used;
+
+        /*
+         * Called before the request is written, so it runs before any
+         * response is read.
+         */
+        void start(final Exchange x) {
+            Runnable r = new Runnable() {
+                @Override
+                public void run() {
+                    current = x;
+                    timeout = channel.eventLoop().schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (current == x) {
+                                channel.pipeline().fireExceptionCaught(
+                                        ReadTimeoutException.INSTANCE);
+                            }
+                        }
+                    }, READ_TIMEOUT, TimeUnit.SECONDS);
+                }
+            };
+            if (channel.eventLoop().inEventLoop()) {
+                r.run();
+            } else {
+                channel.eventLoop().execute(r);
+            }
+        }
+
+        /*
+         * The connection went away before the response to x, if it is still
+         * waiting for one. Sends it again if that is safe.
+         */
+        void lost(Exchange x, Throwable cause) {
+            if (current != x) {
+                return;
+            }
+            finish();
+            if (used && !x.retried && x.method == HttpMethod.GET) {
+                // the server closed it while it sat idle
+                x.retried = true;
+                dispatch(x);
+            } else {
+                x.promise.tryFailure(cause);
+            }
+        }
+
+        private Exchange finish() {
+            Exchange x = current;
+            current = null;
+            if (timeout != null) {
+                timeout.cancel(false);
+                timeout = null;
+            }
+            return x;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            channel = ctx.channel();
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx,
+                FullHttpResponse msg) {
+            Exchange x = finish();
+            if (x == null) {
+                // nothing asked for this
+                ctx.close();
+                return;
+            }
+            used = true;
+            boolean keepAlive = HttpHeaders.isKeepAlive(msg);
+            x.promise.trySuccess(new Response(msg));
+            if (keepAlive) {
+                release(ctx.channel());
+            } else {
+                ctx.close();
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            Exchange x = finish();
+            ctx.close();
+            if (x != null) {
+                x.promise.tryFailure(cause);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            if (current != null) {
+                lost(current, new ClosedChannelException());
+            }
+        }
+    }
+}
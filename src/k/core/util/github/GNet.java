@@ -1,13 +1,24 @@
 package k.core.util.github;
 
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+
 import java.io.*;
 import java.net.*;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.Map.Entry;
 
+import k.core.util.github.GSchedule.Priority;
+
 /**
- * Special network impl for github that uses the last modified headers to lower
- * rate usage.
+ * Special network impl for github that uses the etag and last modified headers
+ * to lower rate usage.
  * 
  * @author Kenzie Togami
  */
@@ -45,9 +56,20 @@ final class GNet {
         }
     }
 
-    static HashMap<String, Long> lastModsForUrls = new HashMap<String, Long>();
+    /**
+     * The last response for each url, to answer 304s with.
+     */
+    static final GCache cache = new GCache();
 
-    static HashMap<String, GData> lastDataForUrls = new HashMap<String, GData>();
+    /**
+     * The connections GETs go over.
+     */
+    static final GHttp http = new GHttp(GHttp.API, GHttp.MAX_CONNECTIONS);
+
+    /**
+     * Decides when GETs are sent, to stay under the rate limits.
+     */
+    static final GSchedule schedule = new GSchedule(http.executor());
 
     static GAuth authorization = null;
 
@@ -56,6 +78,11 @@ final class GNet {
      */
     public static final String ACCEPT_VALUE = "application/vnd.github.v3+json";
 
+    /**
+     * The header that sends a stored <tt>ETag</tt> back.
+     */
+    static final String IF_NONE_MATCH = "If-None-Match";
+
     /**
      * Default header for accept
      */
@@ -83,19 +110,26 @@ final class GNet {
         URL url = createGAPIUrl(end);
         // if this throws a ClassCastException, something is wrong.
         HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        String authValue = authValue(end, auth);
+        if (authValue != null) {
+            conn.setRequestProperty("Authorization", authValue);
+        }
+        return conn;
+    }
+
+    private static String authValue(String end, Auth auth) {
         if (authorization != null && auth != Auth.OFF) {
-            conn.setRequestProperty("Authorization",
-                    authorization.getAuthValue());
+            return authorization.getAuthValue();
         } else if (auth == Auth.ON) {
             throw new IllegalStateException(end + " requires auth");
         } else if (auth == Auth.TRY) {
-            System.err.println("Skipped auth for " + url);
+            System.err.println("Skipped auth for " + end);
         }
-        return conn;
+        return null;
     }
 
     private static URL createGAPIUrl(String end) throws MalformedURLException {
-        return new URL("https", "api.github.com", end);
+        return new URL(GHttp.API + end);
     }
 
     private static GData data(HttpURLConnection urlc,
@@ -148,53 +182,230 @@ final class GNet {
 
     public static String extractEndOfUL(String url) {
         try {
-            return new URL(url).getPath();
+            // keep the query, page links have one
+            return new URL(url).getFile();
         } catch (MalformedURLException e) {
             return url.replace("https://api.github.com", "");
         }
     }
 
+    /**
+     * Gets data, waiting for it. Must not be called from a listener of
+     * {@link #getDataAsync(String, Map, Auth)}.
+     * 
+     * @see #getDataAsync(String, Map, Auth)
+     */
     public static GData getData(String endOfUrl, Map<String, String> headers,
             Auth auth) {
+        Future<GData> data = getDataAsync(endOfUrl, headers, auth)
+                .awaitUninterruptibly();
+        if (!data.isSuccess()) {
+            throw new RuntimeException("unexpected exception", data.cause());
+        }
+        return data.getNow();
+    }
+
+    /**
+     * Starts getting data as soon as it is interactive.
+     * 
+     * @see #getDataAsync(String, Map, Auth, Priority)
+     */
+    public static Future<GData> getDataAsync(String endOfUrl,
+            Map<String, String> headers, Auth auth) {
+        return getDataAsync(endOfUrl, headers, auth, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Starts getting data, over a pooled connection, when the rate limits
+     * allow. The stored response is used if GitHub says it is still good.
+     * 
+     * @param endOfUrl
+     *            - the path after the API url
+     * @param headers
+     *            - extra headers to send
+     * @param auth
+     *            - whether to authorize
+     * @param priority
+     *            - how soon it should go, see {@link GSchedule}
+     * @return the data, which may be errored. Listeners run on the network
+     *         thread, and must not block.
+     */
+    public static Future<GData> getDataAsync(String endOfUrl,
+            final Map<String, String> headers, final Auth auth,
+            final Priority priority) {
         // normalize
-        endOfUrl = (endOfUrl.startsWith("/") ? "" : "/") + endOfUrl;
-        try {
-            HttpURLConnection urlc = createConnection(endOfUrl, auth);
-            // add accept header
-            urlc.addRequestProperty(accepts.getKey(), accepts.getValue());
-            for (Entry<String, String> head : headers.entrySet()) {
-                urlc.addRequestProperty(head.getKey(), head.getValue());
+        final String end = (endOfUrl.startsWith("/") ? "" : "/") + endOfUrl;
+        if (authorization == null && auth == Auth.ON) {
+            throw new IllegalStateException(end + " requires auth");
+        }
+        final Promise<GData> result = http.newPromise();
+        schedule.submit(end, priority, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    send(end, headers, auth, priority, result);
+                } catch (RuntimeException e) {
+                    schedule.completed(end, null);
+                    result.setFailure(e);
+                }
             }
-            Long lastMod = lastModsForUrls.get(endOfUrl);
-            if (lastMod != null) {
-                urlc.setIfModifiedSince(lastMod);
+        });
+        return result;
+    }
+
+    private static void send(final String end,
+            final Map<String, String> headers, final Auth auth,
+            final Priority priority, final Promise<GData> result) {
+        Map<String, String> send = new HashMap<String, String>();
+        String authValue = authValue(end, auth);
+        if (authValue != null) {
+            send.put("Authorization", authValue);
+        }
+        // add accept header
+        send.put(accepts.getKey(), accepts.getValue());
+        final GCache.Entry cached = cache.get(end);
+        if (cached != null) {
+            // a 304 to this doesn't count against the rate limit
+            if (cached.etag != null) {
+                send.put(IF_NONE_MATCH, cached.etag);
             }
-            // cache is not good
-            urlc.setDefaultUseCaches(false);
-            urlc.setUseCaches(false);
-            urlc.setDoInput(true);
-            // give it 1s for response
-            urlc.setConnectTimeout(1000);
-            try {
-                urlc.connect();
-            } catch (SocketException se) {
-                // connect timeout
-                return GData.TIMEOUT;
+            if (cached.lastModified != 0) {
+                send.put("If-Modified-Since",
+                        httpDate().format(new Date(cached.lastModified)));
             }
-            GData data = data(urlc, headers, DataTransferMethod.GET, endOfUrl,
-                    "", auth);
-            lastModsForUrls.put(endOfUrl, urlc.getLastModified());
-            lastDataForUrls.put(endOfUrl, data);
+        }
+        send.putAll(headers);
+        http.request(HttpMethod.GET, end, send, "").addListener(
+                new FutureListener<GHttp.Response>() {
+                    @Override
+                    public void operationComplete(
+                            Future<GHttp.Response> future) {
+                        if (future.isSuccess()) {
+                            received(future.getNow(), end, headers, auth,
+                                    priority, cached, result);
+                        } else {
+                            schedule.completed(end, null);
+                            result.setSuccess(failed(future.cause()));
+                        }
+                    }
+                });
+    }
+
+    /*
+     * Does for an async GET what data() does for a connection.
+     */
+    private static void received(GHttp.Response response, final String end,
+            final Map<String, String> headers, final Auth auth,
+            final Priority priority, GCache.Entry cached,
+            final Promise<GData> result) {
+        int code = response.code;
+        RateLimit rate = GData.rateOf(response.headers);
+        schedule.completed(end, rate);
+        GData data;
+        if (200 <= code && code < 300) {
+            data = new GData();
+            data.content(response.body, response.headers, code);
+        } else if (code == HttpStatus.SC_NOT_MODIFIED
+                && (cached = cache.peek(end)) != null) {
+            System.err
+                    .println("GitHub says unmodified, returning stored data...");
+            data = cached.data.revalidated(response.headers);
+        } else if (code == HttpStatus.SC_NOT_MODIFIED) {
+            // evicted since the request was made
+            cache.remove(end);
+            chain(getDataAsync(end, headers, auth, priority), result);
+            return;
+        } else if (code == HttpStatus.SC_UNAUTHORIZED) {
+            System.err.println((authorization == null) ? "No authorization. "
+                    : "Authorization expired");
+            System.err.println("Retrying with re-auth...");
+            // authorizing waits on the network, so not on its thread
+            GlobalEventExecutor.INSTANCE.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        GitHub.authWithVars();
+                        chain(getDataAsync(end, headers, auth, priority),
+                                result);
+                    } catch (RuntimeException e) {
+                        result.setFailure(e);
+                    }
+                }
+            });
+            return;
+        } else if (code == HttpStatus.SC_FORBIDDEN && rate != null
+                && rate.getRemaining() == 0) {
+            System.err.println("Rate limit hit, waiting until "
+                    + rate.getResetTimeAsDate());
+            // the schedule holds it until the reset
+            chain(getDataAsync(end, headers, auth, priority), result);
+            return;
+        } else if (code == HttpStatus.SC_BAD_REQUEST
+                || code == HttpStatus.SC_FORBIDDEN) {
+            if (code == HttpStatus.SC_BAD_REQUEST) {
+                System.err.println("Bad request!");
+            }
+            System.err.println(headers);
+            System.err.println("DUMPING INPUT STREAM DATA");
+            System.err.println(response.body);
+            System.err.println("DONE");
+            data = GData.IOERRORS;
+        } else {
+            System.err.println("Error Code " + code + " ("
+                    + HttpStatus.getStatusText(code)
+                    + ") received, returning IOERRORS");
+            data = GData.IOERRORS;
+        }
+        if (!data.isErrored()) {
+            long lastMod = lastModified(response.headers);
+            if (lastMod == 0 && cached != null) {
+                // a 304 may leave it out
+                lastMod = cached.lastModified;
+            }
+            cache.put(end, data, lastMod);
             GitHub.sync();
-            return data;
-        } catch (MalformedURLException murle) {
-            murle.printStackTrace();
-            return GData.BADURL;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return GData.IOERRORS;
-        } catch (Exception e) {
-            throw new RuntimeException("unexpected exception", e);
+        }
+        result.setSuccess(data);
+    }
+
+    private static void chain(Future<GData> from, final Promise<GData> to) {
+        from.addListener(new FutureListener<GData>() {
+            @Override
+            public void operationComplete(Future<GData> future) {
+                if (future.isSuccess()) {
+                    to.setSuccess(future.getNow());
+                } else {
+                    to.setFailure(future.cause());
+                }
+            }
+        });
+    }
+
+    private static GData failed(Throwable cause) {
+        if (cause instanceof ConnectException
+                || cause instanceof ReadTimeoutException) {
+            return GData.TIMEOUT;
+        }
+        cause.printStackTrace();
+        return GData.IOERRORS;
+    }
+
+    private static SimpleDateFormat httpDate() {
+        SimpleDateFormat format = new SimpleDateFormat(
+                "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    private static long lastModified(Map<String, List<String>> headers) {
+        List<String> values = GData.header(headers, "Last-Modified");
+        if (values == null || values.isEmpty()) {
+            return 0;
+        }
+        try {
+            return httpDate().parse(values.get(0)).getTime();
+        } catch (ParseException e) {
+            return 0;
         }
     }
 
@@ -218,14 +429,6 @@ final class GNet {
             System.err.println("Retrying with re-auth...");
             GitHub.authWithVars();
             return retry(headers, method, endOfUrl, postContent, auth);
-        } else if (code == HttpStatus.SC_NOT_MODIFIED
-                && lastDataForUrls.containsKey(endOfUrl)) {
-            System.err
-                    .println("GitHub says unmodified, returning stored data...");
-            return lastDataForUrls.get(endOfUrl);
-        } else if (code == HttpStatus.SC_NOT_MODIFIED) {
-            lastModsForUrls.remove(endOfUrl);
-            return retry(headers, method, endOfUrl, postContent, auth);
         }
         return null;
     }
@@ -0,0 +1,276 @@
+package k.core.util.github;
+
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import k.core.util.github.GSchedule.Priority;
+
+import com.google.gson.JsonElement;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs {@link GNet} against a stub of the API on localhost. Syncing is off, so
+ * nothing is saved to <tt>./config</tt>.
+ */
+public class GNetTest {
+    private static final int PORT = 25590, CONNECTIONS = 4, SLOW = 16,
+            SLOW_MILLIS = 200, PAGES = 3, PER_PAGE = 5, SEARCH_LIMIT = 5,
+            SEARCHES = 9;
+
+    private static final AtomicInteger inFlight = new AtomicInteger(),
+            maxInFlight = new AtomicInteger(),
+            notModified = new AtomicInteger(),
+            pagesServed = new AtomicInteger(),
+            overLimit = new AtomicInteger();
+    private static final Set<Integer> clientPorts = new HashSet<Integer>();
+
+    private static void respond(HttpExchange x, int code, String body)
+            throws IOException {
+        respond(x, code, body, 5000, 4999, 1400000000);
+    }
+
+    private static void respond(HttpExchange x, int code, String body,
+            int limit, int remaining, long reset) throws IOException {
+        x.getResponseHeaders().add("X-RateLimit-Limit", "" + limit);
+        x.getResponseHeaders().add("X-RateLimit-Remaining", "" + remaining);
+        x.getResponseHeaders().add("X-RateLimit-Reset", "" + reset);
+        if (body == null) {
+            x.sendResponseHeaders(code, -1);
+        } else {
+            byte[] bytes = body.getBytes("UTF-8");
+            x.sendResponseHeaders(code, bytes.length);
+            OutputStream out = x.getResponseBody();
+            out.write(bytes);
+        }
+        x.close();
+    }
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("github.api", "http://localhost:" + PORT);
+        // don't replace the real saved data with the stub's
+        System.setProperty("github.sync", "false");
+        System.setProperty("github.maxConnections", "" + CONNECTIONS);
+        HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
+        ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/users/octocat", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange x) throws IOException {
+                x.getResponseHeaders().add("ETag", "\"v1\"");
+                if ("\"v1\"".equals(x.getRequestHeaders().getFirst(
+                        "If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    respond(x, 304, null);
+                } else {
+                    respond(x, 200, "{\"login\":\"octocat\"}");
+                }
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange x) throws IOException {
+                synchronized (clientPorts) {
+                    clientPorts.add(x.getRemoteAddress().getPort());
+                }
+                int now = inFlight.incrementAndGet();
+                int max;
+                while (now > (max = maxInFlight.get())
+                        && !maxInFlight.compareAndSet(max, now)) {
+                }
+                try {
+                    Thread.sleep(SLOW_MILLIS);
+                } catch (InterruptedException e) {
+                }
+                inFlight.decrementAndGet();
+                respond(x, 200, "[]");
+            }
+        });
+        server.createContext("/pages", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange x) throws IOException {
+                String query = x.getRequestURI().getQuery();
+                int page = query == null ? 1 : Integer.parseInt(query
+                        .substring("page=".length()));
+                pagesServed.incrementAndGet();
+                StringBuilder body = new StringBuilder("[");
+                for (int i = 0; i < PER_PAGE; i++) {
+                    body.append(i == 0 ? "" : ",").append("{\"id\":")
+                            .append((page - 1) * PER_PAGE + i).append("}");
+                }
+                if (page < PAGES) {
+                    String api = "http://localhost:" + PORT + "/pages?page=";
+                    x.getResponseHeaders().add(
+                            "Link",
+                            "<" + api + (page + 1) + ">; rel=\"next\", <" + api
+                                    + PAGES + ">; rel=\"last\"");
+                }
+                respond(x, 200, body.append("]").toString());
+            }
+        });
+        server.createContext("/search/", new HttpHandler() {
+            private long window;
+            private int used;
+
+            // a limit of a few a second, like search's of a few a minute
+            @Override
+            public synchronized void handle(HttpExchange x)
+                    throws IOException {
+                long now = System.currentTimeMillis() / 1000;
+                if (now != window) {
+                    window = now;
+                    used = 0;
+                }
+                if (used == SEARCH_LIMIT) {
+                    overLimit.incrementAndGet();
+                    respond(x, 403, "{\"message\":\"rate limit\"}",
+                            SEARCH_LIMIT, 0, window + 1);
+                    return;
+                }
+                used++;
+                respond(x, 200, "{}", SEARCH_LIMIT, SEARCH_LIMIT - used,
+                        window + 1);
+            }
+        });
+        server.start();
+        try {
+            GData first = GNet.getData("/users/octocat",
+                    GNet.NO_HEADERS_SPECIFIED, Auth.OFF);
+            GData second = GNet.getData("/users/octocat",
+                    GNet.NO_HEADERS_SPECIFIED, Auth.OFF);
+            System.err.println("first: " + first.responseCode() + " "
+                    + first.getData());
+            System.err.println("revalidated: " + second.responseCode() + " "
+                    + second.getData() + ", rate " + second.rate()
+                    + ", 304s " + notModified.get());
+            if (notModified.get() != 1
+                    || !first.getData().equals(second.getData())) {
+                throw new AssertionError("not revalidated");
+            }
+
+            long start = System.nanoTime();
+            List<Future<GData>> all = new ArrayList<Future<GData>>();
+            for (int i = 0; i < SLOW; i++) {
+                all.add(GNet.getDataAsync("/slow/" + i,
+                        GNet.NO_HEADERS_SPECIFIED, Auth.OFF));
+            }
+            for (Future<GData> f : all) {
+                GData d = f.syncUninterruptibly().getNow();
+                if (d.isErrored()) {
+                    throw new AssertionError("failed: " + d);
+                }
+            }
+            long millis = (System.nanoTime() - start) / 1000000;
+            System.err.println(SLOW + " requests of " + SLOW_MILLIS + "ms in "
+                    + millis + "ms, at most " + maxInFlight.get()
+                    + " at once, over " + clientPorts.size()
+                    + " connections");
+            if (maxInFlight.get() > CONNECTIONS
+                    || clientPorts.size() > CONNECTIONS) {
+                throw new AssertionError("over " + CONNECTIONS
+                        + " connections");
+            }
+
+            Iterator<JsonElement> it = GPages.of("/pages", Auth.OFF).iterator();
+            int expect = 0;
+            while (it.hasNext()) {
+                int id = it.next().getAsJsonObject().get("id").getAsInt();
+                if (id != expect++) {
+                    throw new AssertionError("out of order");
+                }
+                if (expect == 1) {
+                    // stopping here shouldn't have fetched anything more
+                    Thread.sleep(SLOW_MILLIS);
+                    if (pagesServed.get() != 1) {
+                        throw new AssertionError("next page fetched early");
+                    }
+                }
+                if (expect == PER_PAGE) {
+                    // the second page should come without asking
+                    for (int i = 0; i < 100 && pagesServed.get() < 2; i++) {
+                        Thread.sleep(10);
+                    }
+                    if (pagesServed.get() < 2) {
+                        throw new AssertionError("next page not prefetched");
+                    }
+                }
+            }
+            System.err.println(expect + " elements over " + pagesServed.get()
+                    + " pages");
+            if (expect != PAGES * PER_PAGE || pagesServed.get() != PAGES) {
+                throw new AssertionError("wrong pages");
+            }
+
+            start = System.nanoTime();
+            final List<String> order = Collections
+                    .synchronizedList(new ArrayList<String>());
+            all.clear();
+            for (int i = 0; i <= SEARCHES; i++) {
+                final String name = i == SEARCHES ? "interactive" : "" + i;
+                Future<GData> f = GNet.getDataAsync("/search/" + name,
+                        GNet.NO_HEADERS_SPECIFIED, Auth.OFF,
+                        i == SEARCHES ? Priority.INTERACTIVE
+                                : Priority.BACKGROUND);
+                f.addListener(new FutureListener<GData>() {
+                    @Override
+                    public void operationComplete(Future<GData> future) {
+                        order.add(name);
+                    }
+                });
+                all.add(f);
+            }
+            // search has its own limit
+            long coreStart = System.nanoTime();
+            GNet.getData("/users/octocat", GNet.NO_HEADERS_SPECIFIED,
+                    Auth.OFF);
+            long coreMillis = (System.nanoTime() - coreStart) / 1000000;
+            for (Future<GData> f : all) {
+                GData d = f.syncUninterruptibly().getNow();
+                if (d.isErrored()) {
+                    throw new AssertionError("failed: " + d);
+                }
+            }
+            millis = (System.nanoTime() - start) / 1000000;
+            // the listeners may run after the waits return
+            for (int i = 0; i < 100 && order.size() <= SEARCHES; i++) {
+                Thread.sleep(10);
+            }
+            System.err.println(SEARCHES + 1 + " searches at " + SEARCH_LIMIT
+                    + " a second in " + millis + "ms, " + overLimit.get()
+                    + " over the limit, in order " + order
+                    + ", core request in " + coreMillis + "ms");
+            System.err.println("schedule: " + GitHub.schedule());
+            if (overLimit.get() != 0) {
+                throw new AssertionError("went over the limit");
+            }
+            if (order.indexOf("interactive") == order.size() - 1) {
+                throw new AssertionError("interactive went last");
+            }
+            if (coreMillis > 500) {
+                throw new AssertionError("core waited on search");
+            }
+            System.err.println("cache: " + GitHub.cache());
+        } finally {
+            GNet.http.shutdown();
+            server.stop(0);
+            serverThreads.shutdown();
+        }
+    }
+}
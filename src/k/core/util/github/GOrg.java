@@ -2,6 +2,8 @@ package k.core.util.github;
 
 import java.util.*;
 
+import io.netty.util.concurrent.Future;
+
 import k.core.util.github.gitjson.GitHubJsonParser;
 
 import com.google.gson.*;
@@ -38,22 +40,35 @@ public class GOrg implements ShortStringProvider, UserLike {
 
         public static HashMap<String, GTeam> formURL(String teamsUrl) {
             System.err.println("loading teams from " + teamsUrl);
-            GData sum = GNet.getData(GNet.extractEndOfUL(teamsUrl),
-                    GNet.NO_HEADERS_SPECIFIED, Auth.TRY);
-            System.err.println(sum.getData());
-            JsonArray orgs = GitHubJsonParser.parser.parse(sum.getData())
-                    .getAsJsonArray();
-            HashMap<String, GTeam> map = new HashMap<String, GTeam>(orgs.size());
-            for (JsonElement je : orgs) {
+            // ask for every team and its members at once, then wait
+            List<Future<GData>> teams = new ArrayList<Future<GData>>(),
+                    members = new ArrayList<Future<GData>>();
+            for (JsonElement je : GPages.of(GNet.extractEndOfUL(teamsUrl),
+                    Auth.TRY)) {
                 // we need to pull the right data
                 int id = je.getAsJsonObject().get("id").getAsInt();
                 String teamUrl = "/teams/" + id;
-                GData team = GNet.getData(teamUrl, GNet.NO_HEADERS_SPECIFIED,
-                        Auth.TRY);
-                GitHubJsonParser in = GitHubJsonParser.begin(team.getData());
-                List<GUser> users = GUser.listFromUrl(GNet.getData(teamUrl,
+                teams.add(GNet.getDataAsync(teamUrl,
+                        GNet.NO_HEADERS_SPECIFIED, Auth.TRY));
+                members.add(GNet.getDataAsync(teamUrl + "/members",
                         GNet.NO_HEADERS_SPECIFIED, Auth.TRY));
             }
+            HashMap<String, GTeam> map = new HashMap<String, GTeam>(
+                    teams.size());
+            for (int i = 0; i < teams.size(); i++) {
+                GData team = teams.get(i).syncUninterruptibly().getNow();
+                GData teamMembers = members.get(i).syncUninterruptibly()
+                        .getNow();
+                if (team.isErrored()) {
+                    continue;
+                }
+                GitHubJsonParser in = GitHubJsonParser.begin(team.getData());
+                GTeam t = new GTeam(null);
+                if (!teamMembers.isErrored()) {
+                    t.members.addAll(GUser.listFromUrl(teamMembers));
+                }
+                map.put(in.data("slug").getAsString(), t);
+            }
             return map;
         }
 
@@ -85,15 +100,11 @@ public class GOrg implements ShortStringProvider, UserLike {
     }
 
     public static List<GOrg> listFromUrl(String orgsUrl, GUser owner) {
-        GData sum = GNet.getData(GNet.extractEndOfUL(orgsUrl),
-                GNet.NO_HEADERS_SPECIFIED, Auth.TRY);
-        System.err.println(sum.getData());
-        JsonArray orgs = GitHubJsonParser.parser.parse(sum.getData())
-                .getAsJsonArray();
-        List<GOrg> list = new ArrayList<GOrg>(orgs.size());
-        for (JsonElement je : orgs) {
+        List<GOrg> list = new ArrayList<GOrg>();
+        for (JsonElement je : GPages.of(GNet.extractEndOfUL(orgsUrl),
+                Auth.TRY)) {
             JsonObject o = je.getAsJsonObject();
-            GOrg org = fromUrl(o.get("url").toString(), owner);
+            GOrg org = fromUrl(o.get("url").getAsString(), owner);
             list.add(org);
         }
         System.err.println(list);
@@ -101,8 +112,9 @@ public class GOrg implements ShortStringProvider, UserLike {
     }
 
     public static GOrg fromUrl(String orgUrl, GUser owner) {
-        GitHubJsonParser in = GitHubJsonParser.begin(GNet.getData(orgUrl,
-                GNet.NO_HEADERS_SPECIFIED, Auth.TRY).getData());
+        GitHubJsonParser in = GitHubJsonParser.begin(GNet.getData(
+                GNet.extractEndOfUL(orgUrl), GNet.NO_HEADERS_SPECIFIED,
+                Auth.TRY).getData());
         String name = in.data("login").getAsString();
         int id = in.data("id").getAsInt();
         String apiUrl = in.data("url").getAsString();
@@ -127,6 +139,9 @@ public class GOrg implements ShortStringProvider, UserLike {
         picurl = picUrl;
         this.owner = owner;
         teams = tset;
+        for (GTeam t : teams.values()) {
+            t.parorg = this;
+        }
     }
 
     @Override
@@ -0,0 +1,258 @@
+package k.core.util.github;
+
+import io.netty.util.concurrent.Future;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import k.core.util.github.GSchedule.Priority;
+import k.core.util.github.gitjson.GitHubJsonParser;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The elements of a list from the API, over all of its pages. GitHub splits
+ * long lists into pages, and gives the next one in the <tt>Link</tt> header
+ * as <tt>rel="next"</tt>. <br>
+ * <br>
+ * Pages are fetched as they are needed, and the next page is asked for once
+ * half of one is used, so it is usually there by the time the last element
+ * is. Stopping in the first half of a page doesn't fetch any more, stopping
+ * in the second half leaves the next page to arrive unused. Elements are read
+ * from a page one at a time, so only the page being read and the one after it
+ * are held, however long the list is. Each {@link #iterator()} starts again
+ * from the first page. <br>
+ * <br>
+ * A page that can't be fetched throws an {@link IllegalStateException} from
+ * the iterator, rather than ending the list early. Iterators wait for pages,
+ * so they must not be used from a listener of
+ * {@link GNet#getDataAsync(String, Map, Auth)}.
+ *
+ * @author Kenzie Togami
+ */
+public abstract class GPages<T> implements Iterable<T> {
+    private static final Pattern NEXT = Pattern
+            .compile("<([^>]*)>\\s*;\\s*rel=\"?next\"?");
+
+    /**
+     * Gets the plain elements of a list.
+     *
+     * @param endOfUrl
+     *            - the path of the first page, after the API url
+     * @param auth
+     *            - whether to authorize
+     * @return the pages
+     */
+    public static GPages<JsonElement> of(String endOfUrl, Auth auth) {
+        return new GPages<JsonElement>(endOfUrl, auth) {
+            @Override
+            protected JsonElement element(JsonElement json) {
+                return json;
+            }
+        };
+    }
+
+    /**
+     * Finds the next page of a response.
+     *
+     * @param page
+     *            - the response
+     * @return the path of the next page, after the API url, or <tt>null</tt>
+     *         if this is the last page
+     */
+    static String nextPage(GData page) {
+        List<String> links = GData.header(page.getHeaders(), "Link");
+        if (links == null) {
+            return null;
+        }
+        for (String link : links) {
+            Matcher m = NEXT.matcher(link);
+            if (m.find()) {
+                return GNet.extractEndOfUL(m.group(1));
+            }
+        }
+        return null;
+    }
+
+    private final String first;
+    private final GData firstData;
+    private final Auth auth;
+    private Priority priority = Priority.INTERACTIVE;
+
+    /**
+     * @param endOfUrl
+     *            - the path of the first page, after the API url
+     * @param auth
+     *            - whether to authorize
+     */
+    protected GPages(String endOfUrl, Auth auth) {
+        this(endOfUrl, null, auth);
+    }
+
+    /**
+     * Starts from a first page that is already here.
+     *
+     * @param firstPage
+     *            - the first page
+     * @param auth
+     *            - whether to authorize the rest
+     */
+    protected GPages(GData firstPage, Auth auth) {
+        this(null, firstPage, auth);
+    }
+
+    private GPages(String first, GData firstData, Auth auth) {
+        this.first = first;
+        this.firstData = firstData;
+        this.auth = auth;
+    }
+
+    /**
+     * Sets how soon pages are fetched, {@link Priority#INTERACTIVE} unless
+     * set.
+     *
+     * @param priority
+     *            - the priority
+     * @return these pages
+     */
+    public GPages<T> in(Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Turns one element of the list into what is wanted.
+     *
+     * @param json
+     *            - the element
+     * @return the result
+     */
+    protected abstract T element(JsonElement json);
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Pager();
+    }
+
+    /**
+     * Gets every element, fetching every page.
+     *
+     * @return the elements
+     */
+    public List<T> toList() {
+        List<T> list = new ArrayList<T>();
+        for (T t : this) {
+            list.add(t);
+        }
+        return list;
+    }
+
+    private final class Pager implements Iterator<T> {
+        private final Priority priority = GPages.this.priority;
+        private Future<GData> next;
+        private GData nextData = firstData;
+        private String nextUrl = first;
+        private JsonReader reader;
+        // elements to use before asking for the next page, -1 once asked
+        private int untilFetch = -1;
+
+        private Pager() {
+            if (nextData == null) {
+                next = fetch(nextUrl);
+            }
+        }
+
+        private Future<GData> fetch(String url) {
+            return GNet.getDataAsync(url, GNet.NO_HEADERS_SPECIFIED, auth,
+                    priority);
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (reader == null || !reader.hasNext()) {
+                    if (reader != null) {
+                        reader.endArray();
+                        reader = null;
+                    }
+                    if (nextData == null && next == null) {
+                        return false;
+                    }
+                    open();
+                }
+                return true;
+            } catch (IOException e) {
+                throw new JsonSyntaxException(e);
+            }
+        }
+
+        private void open() throws IOException {
+            GData page = nextData;
+            if (page == null) {
+                page = next.syncUninterruptibly().getNow();
+            }
+            nextData = null;
+            next = null;
+            if (page.isErrored()) {
+                throw new IllegalStateException("couldn't get "
+                        + (nextUrl == null ? "the first page" : nextUrl)
+                        + ": " + page.getErrorState());
+            }
+            nextUrl = nextPage(page);
+            reader = new JsonReader(new StringReader(page.getData()));
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                throw new JsonSyntaxException("not a list: "
+                        + page.getData());
+            }
+            reader.beginArray();
+            untilFetch = -1;
+            if (nextUrl != null) {
+                // get it while the second half of this one is read
+                untilFetch = (size(page.getData()) + 1) / 2;
+                prefetch();
+            }
+        }
+
+        private int size(String list) throws IOException {
+            JsonReader r = new JsonReader(new StringReader(list));
+            r.beginArray();
+            int size = 0;
+            while (r.hasNext()) {
+                r.skipValue();
+                size++;
+            }
+            return size;
+        }
+
+        private void prefetch() {
+            if (untilFetch == 0) {
+                untilFetch = -1;
+                next = fetch(nextUrl);
+            }
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T t = element(GitHubJsonParser.parser.parse(reader));
+            if (untilFetch > 0) {
+                untilFetch--;
+                prefetch();
+            }
+            return t;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
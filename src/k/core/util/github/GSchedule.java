@@ -0,0 +1,333 @@
+package k.core.util.github;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import k.core.util.github.RateLimit.RateType;
+
+/**
+ * Decides when {@link GNet} sends each GET, so the rate limits GitHub gives
+ * with every response aren't run into. Search has its own limit, so there is
+ * a bucket of tokens for each {@link RateType}, filled at the rate that
+ * spreads what is left of the limit evenly until it resets. <br>
+ * <br>
+ * {@link Priority#INTERACTIVE} requests go first, and don't wait for tokens,
+ * but use them up. {@link Priority#BACKGROUND} requests wait for tokens, and
+ * stop short of the last <tt>github.reserve</tt> percent of the limit, so
+ * there is some left for interactive ones. Anything that would go over the
+ * limit waits until it resets. <br>
+ * <br>
+ * Until a response says what the limit is, background requests go one at a
+ * time.
+ *
+ * @author Kenzie Togami
+ */
+public final class GSchedule {
+    /**
+     * How soon a request should go.
+     */
+    public static enum Priority {
+        /**
+         * Someone is waiting for it.
+         */
+        INTERACTIVE,
+        /**
+         * Crawls and batch jobs, which can be spread out.
+         */
+        BACKGROUND;
+    }
+
+    /**
+     * The most tokens a bucket holds, set by the <tt>github.burst</tt>
+     * property.
+     */
+    static final int BURST = Integer.getInteger("github.burst", 5);
+    /**
+     * The percent of the limit background requests leave alone, set by the
+     * <tt>github.reserve</tt> property.
+     */
+    static final int RESERVE_PERCENT = Integer.getInteger("github.reserve",
+            10);
+    /*
+     * Waited past a reset, in case our clock is ahead of GitHub's.
+     */
+    private static final long SLACK_MILLIS = 1000;
+    private static final long CORE_WINDOW = 60 * 60 * 1000,
+            SEARCH_WINDOW = 60 * 1000;
+
+    static RateType typeOf(String end) {
+        return end.startsWith("/search/") ? RateType.SEARCH : RateType.CORE;
+    }
+
+    private final EventExecutor executor;
+    private final Bucket core = new Bucket(CORE_WINDOW),
+            search = new Bucket(SEARCH_WINDOW);
+
+    /**
+     * @param executor
+     *            - runs delayed requests. Requests are started on it, so
+     *            starting one must not block.
+     */
+    GSchedule(EventExecutor executor) {
+        this.executor = executor;
+    }
+
+    private Bucket bucket(RateType type) {
+        return type == RateType.SEARCH ? search : core;
+    }
+
+    /**
+     * Starts a request when its limit allows.
+     *
+     * @param end
+     *            - the path of the request, after the API url
+     * @param priority
+     *            - how soon it should go
+     * @param send
+     *            - starts the request, which must then be passed to
+     *            {@link #completed(String, RateLimit)}
+     */
+    void submit(String end, Priority priority, Runnable send) {
+        if (end.startsWith("/rate_limit")) {
+            // doesn't count against any limit
+            send.run();
+            return;
+        }
+        bucket(typeOf(end)).add(priority, send);
+    }
+
+    /**
+     * Counts a response towards its limit.
+     *
+     * @param end
+     *            - the path of the request, after the API url
+     * @param rate
+     *            - the limits it came with, or <tt>null</tt> if it had none
+     */
+    void completed(String end, RateLimit rate) {
+        bucket(typeOf(end)).completed(rate);
+    }
+
+    /**
+     * Gets the requests of a type that are left before the limit resets, as
+     * far as is known.
+     *
+     * @param type
+     *            - the type
+     * @return the requests, or -1 if no response has said yet
+     */
+    public int getRemaining(RateType type) {
+        Bucket b = bucket(type);
+        synchronized (b) {
+            return b.limit < 0 ? -1 : b.remaining;
+        }
+    }
+
+    /**
+     * Gets the number of requests of a type waiting to be sent.
+     *
+     * @param type
+     *            - the type
+     * @return the count
+     */
+    public int getQueued(RateType type) {
+        Bucket b = bucket(type);
+        synchronized (b) {
+            return b.interactive.size() + b.background.size();
+        }
+    }
+
+    /**
+     * Gets the number of requests of a type that had to wait.
+     *
+     * @param type
+     *            - the type
+     * @return the count
+     */
+    public long getDeferred(RateType type) {
+        Bucket b = bucket(type);
+        synchronized (b) {
+            return b.deferred;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "core: " + core + ", search: " + search;
+    }
+
+    private final class Bucket {
+        private final long window;
+        private final ArrayDeque<Runnable> interactive = new ArrayDeque<Runnable>();
+        private final ArrayDeque<Runnable> background = new ArrayDeque<Runnable>();
+        // -1 until a response says
+        private int limit = -1, remaining;
+        private long reset;
+        private double tokens = 1, perMilli;
+        private long last = System.currentTimeMillis();
+        private boolean probing;
+        private ScheduledFuture<?> wake;
+        private long wakeAt, deferred;
+
+        private Bucket(long window) {
+            this.window = window;
+        }
+
+        void add(Priority priority, Runnable send) {
+            List<Runnable> go;
+            synchronized (this) {
+                ArrayDeque<Runnable> queue = background;
+                if (priority == Priority.INTERACTIVE) {
+                    queue = interactive;
+                }
+                queue.add(send);
+                go = ready();
+                // the queue is first in first out, so it's still in there
+                if (!queue.isEmpty()) {
+                    deferred++;
+                }
+            }
+            run(go);
+        }
+
+        void completed(RateLimit rate) {
+            List<Runnable> go;
+            synchronized (this) {
+                probing = false;
+                if (rate != null && rate.getLimit() > 0) {
+                    observe(rate, System.currentTimeMillis());
+                }
+                go = ready();
+            }
+            run(go);
+        }
+
+        private void woken() {
+            List<Runnable> go;
+            synchronized (this) {
+                // this is the wake, so it doesn't count as one to come
+                wake = null;
+                go = ready();
+            }
+            run(go);
+        }
+
+        private void run(List<Runnable> go) {
+            // not holding the lock, a request may complete right away
+            for (Runnable send : go) {
+                send.run();
+            }
+        }
+
+        private void observe(RateLimit rate, long now) {
+            long rateReset = rate.getResetTime();
+            if (rateReset <= now) {
+                if (rate.getRemaining() > 0) {
+                    // from a window that is over
+                    return;
+                }
+                // GitHub's clock is behind ours, give it a moment
+                rateReset = now;
+            }
+            if (limit < 0 || rateReset != reset) {
+                reset = rateReset;
+                remaining = rate.getRemaining();
+            } else {
+                // responses can come out of order
+                remaining = Math.min(remaining, rate.getRemaining());
+            }
+            limit = rate.getLimit();
+            perMilli = remaining / (double) (reset + SLACK_MILLIS - now);
+        }
+
+        private void refill(long now) {
+            if (limit >= 0 && now >= reset + SLACK_MILLIS) {
+                // a new window, the next response says when it ends
+                remaining = limit;
+                reset = now + window;
+                perMilli = limit / (double) window;
+                tokens = Math.max(tokens, 1);
+            }
+            tokens = Math.min(BURST, tokens + (now - last) * perMilli);
+            last = now;
+        }
+
+        /*
+         * Takes what can go now off the queues, and wakes up again when
+         * more can.
+         */
+        private List<Runnable> ready() {
+            List<Runnable> go = new ArrayList<Runnable>();
+            long now = System.currentTimeMillis();
+            refill(now);
+            long wait = -1;
+            while (true) {
+                if (!interactive.isEmpty()) {
+                    if (limit >= 0 && remaining <= 0) {
+                        wait = reset + SLACK_MILLIS - now;
+                        break;
+                    }
+                    take();
+                    go.add(interactive.poll());
+                    continue;
+                }
+                if (background.isEmpty()) {
+                    break;
+                }
+                if (limit < 0) {
+                    if (probing) {
+                        // until it says what the limit is
+                        break;
+                    }
+                    probing = true;
+                } else if (remaining <= limit * RESERVE_PERCENT / 100) {
+                    wait = reset + SLACK_MILLIS - now;
+                    break;
+                } else if (tokens < 1) {
+                    wait = (long) Math.ceil((1 - tokens) / perMilli);
+                    break;
+                }
+                take();
+                go.add(background.poll());
+            }
+            if (wait >= 0) {
+                wakeIn(now, Math.max(1, wait));
+            }
+            return go;
+        }
+
+        private void take() {
+            tokens--;
+            if (limit >= 0) {
+                remaining--;
+            }
+        }
+
+        private void wakeIn(long now, long delay) {
+            if (wake != null && !wake.isDone()) {
+                if (wakeAt <= now + delay) {
+                    return;
+                }
+                wake.cancel(false);
+            }
+            wakeAt = now + delay;
+            wake = executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    woken();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return (limit < 0 ? "?" : remaining + "/" + limit) + " left, "
+                    + (interactive.size() + background.size()) + " queued";
+        }
+    }
+}
@@ -105,7 +105,7 @@ final class GStore {
             DataStruct dataStruct = new DataStruct(data);
             GNet.authorization = (GAuth) dataStruct.get(AUTH_INDEX, null);
             try {
-                Map<String, Long> lm = GNet.lastModsForUrls;
+                Map<String, Long> lm = new HashMap<String, Long>();
                 JsonObject savedMap = parser.parse(
                         (String) dataStruct.get(LAST_MOD_INDEX, "{}"))
                         .getAsJsonObject();
@@ -113,17 +113,16 @@ final class GStore {
                         .getAsMapWithNullKeys(savedMap).entrySet()) {
                     lm.put(e.getKey(), e.getValue().getAsLong());
                 }
-                Map<String, GData> ld = GNet.lastDataForUrls;
                 savedMap = parser.parse(
                         (String) dataStruct.get(LAST_DATA_INDEX, "{}"))
                         .getAsJsonObject();
-                for (Entry<String, JsonElement> e : GitHubJsonParser
-                        .getAsMapWithNullKeys(savedMap).entrySet()) {
+                // stored least recently used first, so the order comes back
+                for (Entry<String, JsonElement> e : savedMap.entrySet()) {
                     GData gd = createGData(e.getValue());
-                    if (gd != null) {
-                        ld.put(e.getKey(), gd);
-                    } else {
-                        lm.remove(e.getKey());
+                    Long lastMod = lm.get(e.getKey());
+                    if (gd != null && !gd.isErrored()) {
+                        GNet.cache.put(e.getKey(), gd,
+                                lastMod != null ? lastMod : 0);
                     }
                 }
                 GitHub.scope = parser.parse(
@@ -144,21 +143,21 @@ final class GStore {
         }
     }
 
-    static void storeGitData() {
+    static synchronized void storeGitData() {
         DataStruct dataStruct = new DataStruct();
         dataStruct.add(GNet.authorization);
+        Map<String, GCache.Entry> cached = GNet.cache.snapshot();
         GithubJsonCreator<JsonObject> lastMod = GithubJsonCreator
                 .getForObjectCreation();
-        Map<String, Long> lm = GNet.lastModsForUrls;
-        for (Entry<String, Long> e : lm.entrySet()) {
-            lastMod.add(e.getKey(), new JsonPrimitive(e.getValue()));
+        for (Entry<String, GCache.Entry> e : cached.entrySet()) {
+            lastMod.add(e.getKey(),
+                    new JsonPrimitive(e.getValue().lastModified));
         }
         dataStruct.add(lastMod.toString());
         GithubJsonCreator<JsonObject> lastData = GithubJsonCreator
                 .getForObjectCreation();
-        Map<String, GData> ld = GNet.lastDataForUrls;
-        for (Entry<String, GData> e : ld.entrySet()) {
-            lastData.add(e.getKey(), buildGDataJSON(e.getValue()));
+        for (Entry<String, GCache.Entry> e : cached.entrySet()) {
+            lastData.add(e.getKey(), buildGDataJSON(e.getValue().data));
         }
         dataStruct.add(lastData.toString());
         if (GitHub.scope != null) {
@@ -5,6 +5,8 @@ import java.util.*;
 import k.core.util.github.GOrg.GTeam;
 import k.core.util.github.gitjson.GitHubJsonParser;
 
+import com.google.gson.JsonElement;
+
 public class GUser implements ShortStringProvider, UserLike {
     static HashMap<String, GUser> users = new HashMap<String, GUser>();
 
@@ -119,7 +121,36 @@ public class GUser implements ShortStringProvider, UserLike {
                                 .asShortStringCollection(member_orgs));
     }
 
+    /**
+     * Gets the users in a list, like the members of a team, over all of its
+     * pages. Users that aren't known yet are only named, their orgs aren't
+     * loaded.
+     * 
+     * @param data
+     *            - the first page of the list
+     * @return the users
+     */
     public static List<GUser> listFromUrl(GData data) {
-        return null;
+        return pagesFrom(data).toList();
+    }
+
+    /**
+     * Gets the users in a list, a page at a time.
+     * 
+     * @param data
+     *            - the first page of the list
+     * @return the users
+     * @see #listFromUrl(GData)
+     */
+    public static GPages<GUser> pagesFrom(GData data) {
+        return new GPages<GUser>(data, Auth.TRY) {
+            @Override
+            protected GUser element(JsonElement json) {
+                String name = json.getAsJsonObject().get("login")
+                        .getAsString();
+                GUser user = users.get(name);
+                return user == null ? new GUser(name) : user;
+            }
+        };
     }
 }
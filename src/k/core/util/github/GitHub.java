@@ -1,7 +1,9 @@
 package k.core.util.github;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import k.core.util.github.GSchedule.Priority;
 import k.core.util.github.RateLimit.RateType;
 import k.core.util.github.gitjson.GitHubJsonParser;
 import k.core.util.github.gitjson.GithubJsonCreator;
@@ -21,7 +23,16 @@ public final class GitHub {
         }
     }
 
+    /**
+     * Whether {@link #sync()} saves anything, set by the <tt>github.sync</tt>
+     * property. Defaults to <tt>true</tt>; tests turn it off so they don't
+     * replace the saved token and responses in <tt>./config</tt>.
+     */
+    static final boolean SYNC = !"false".equals(System
+            .getProperty("github.sync"));
+
     static JsonArray scope;
+    private static final AtomicBoolean syncPending = new AtomicBoolean();
     private static String cid, cs, u, p;
     private static String[] notes;
 
@@ -94,7 +105,8 @@ public final class GitHub {
             // parse the values
             int remain = searchData.data("remaining").getAsInt();
             int limit = searchData.data("limit").getAsInt();
-            long reset = searchData.data("reset").getAsLong();
+            // in seconds, like the headers
+            long reset = searchData.data("reset").getAsLong() * 1000;
             searchData.end();
             // return object!
             return new RateLimit(remain, limit, reset);
@@ -102,6 +114,24 @@ public final class GitHub {
         throw new IllegalArgumentException("Unknown RateType " + rate);
     }
 
+    /**
+     * Gets the cache of responses, for its hit and eviction counts.
+     *
+     * @return the cache
+     */
+    public static GCache cache() {
+        return GNet.cache;
+    }
+
+    /**
+     * Gets the schedule GETs wait in, for what is left of the limits.
+     *
+     * @return the schedule
+     */
+    public static GSchedule schedule() {
+        return GNet.schedule;
+    }
+
     public static GData limitsFromMaxLimit() {
         return allLimitsFor(Auth.TRY);
     }
@@ -111,9 +141,17 @@ public final class GitHub {
     }
 
     public static void sync() {
+        if (!SYNC) {
+            return;
+        }
+        if (!syncPending.compareAndSet(false, true)) {
+            // the one waiting to start will see the latest data
+            return;
+        }
         Runnable r = new Runnable() {
             @Override
             public void run() {
+                syncPending.set(false);
                 GStore.storeGitData();
             }
         };
@@ -134,31 +172,19 @@ public final class GitHub {
     }
 
     public static List<GUser> users(int start, int end) {
-        int since = start;
-        boolean done = false;
         List<GUser> users = new ArrayList<GUser>();
-        while (!done) {
-            GData data = GNet.getData("/users?since=" + since,
-                    GNet.NO_HEADERS_SPECIFIED, Auth.TRY);
-            JsonArray array = GitHubJsonParser.parser.parse(data.getData())
-                    .getAsJsonArray();
-            List<GUser> augment = new ArrayList<GUser>(end - start);
-            for (JsonElement je : array) {
-                GUser u = GUser.fromUrl(je.toString());
-                int id = je.getAsJsonObject().get("id").getAsInt();
-                if (id == end) {
-                    done = true;
-                } else if (id > end) {
-                    done = true;
-                    break;
-                }
-                since = id;
-                augment.add(u);
-                if (done) {
-                    break;
-                }
+        // stopping in the first half of a page fetches no more of them, in
+        // the second half the next page is already on its way
+        for (JsonElement je : GPages.of("/users?since=" + start, Auth.TRY).in(
+                Priority.BACKGROUND)) {
+            int id = je.getAsJsonObject().get("id").getAsInt();
+            if (id > end) {
+                break;
+            }
+            users.add(GUser.fromUrl(je.toString()));
+            if (id == end) {
+                break;
             }
-            users.addAll(augment);
         }
         return users;
     }
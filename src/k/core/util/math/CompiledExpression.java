@@ -0,0 +1,592 @@
+package k.core.util.math;
+
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import k.core.util.arrays.IntResizableArray;
+
+/**
+ * An expression that has been parsed once and can be evaluated many times.
+ * The parsed tree is flattened into postfix code for a small stack machine,
+ * so evaluating doesn't touch the original string at all.
+ * <br>
+ * <br>
+ * Names other than <tt>pi</tt> and <tt>e</tt> are variables. They are
+ * numbered in the order they first appear, see {@link #getVariables()}, and
+ * their values are passed to the <tt>evaluate</tt> methods in that order.
+ * <br>
+ * <br>
+ * The column methods evaluate the expression once per row over whole arrays
+ * of values, writing into an array the caller owns. The <tt>double</tt> one
+ * runs each instruction over a block of rows at a time, so the inner loops
+ * are simple enough for the JIT to unroll and vectorize.
+ * <br>
+ * <br>
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Kenzie Togami
+ *
+ */
+public final class CompiledExpression {
+    /*
+     * Opcodes. Non-negative codes are EOperation ordinals, CONST and VAR are
+     * followed by an index into constants or the values.
+     */
+    private static final int CONST = -1, VAR = -2, NEGATE = -3;
+
+    private static final EOperation[] OPERATIONS = EOperation.values();
+
+    /**
+     * Rows per block in {@link #evaluateDouble(double[][], double[])}. Small
+     * enough that the whole stack stays in the L1 cache.
+     */
+    private static final int BLOCK = 256;
+
+    /**
+     * The fewest rows worth handing to another thread.
+     */
+    private static final int PARALLEL_DOUBLE_ROWS = 1 << 14,
+            PARALLEL_UD_ROWS = 64;
+
+    private final String source;
+    private final int[] code;
+    private final UnlimitedDouble[] constants;
+    private final double[] doubleConstants;
+    private final String[] variables;
+    private final int maxStack;
+
+    /**
+     * Parses and compiles an expression. Supports <tt>+ - * / ^</tt>,
+     * <tt>&#x221A;</tt>, postfix <tt>!</tt>, parentheses, unary minus,
+     * <tt>pi</tt>, <tt>e</tt> and variables.
+     *
+     * @param expr
+     *            - the expression
+     * @return the compiled expression
+     * @throws IllegalArgumentException
+     *             if the expression is not valid
+     */
+    public static CompiledExpression compile(String expr) {
+        Emitter out = new Emitter();
+        new ExpressionParser(expr).parse().emit(out);
+        return new CompiledExpression(expr, out);
+    }
+
+    private CompiledExpression(String expr, Emitter out) {
+        source = expr;
+        code = out.code.getArray();
+        constants = out.constants.toArray(new UnlimitedDouble[out.constants
+                .size()]);
+        doubleConstants = new double[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            doubleConstants[i] = constants[i].doubleValue();
+        }
+        variables = out.variables.toArray(new String[out.variables.size()]);
+        maxStack = out.maxDepth;
+    }
+
+    /**
+     * Gets the variable names, in the order their values are passed to the
+     * <tt>evaluate</tt> methods.
+     *
+     * @return a copy of the variable names
+     */
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+    /**
+     * Gets the index of a variable.
+     *
+     * @param name
+     *            - the variable name
+     * @return the index, or -1 if the expression doesn't use <tt>name</tt>
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the string this was compiled from.
+     *
+     * @return the source expression
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Evaluates with {@link UnlimitedDouble#DEFAULT_CONTEXT}.
+     *
+     * @param values
+     *            - the variable values, in {@link #getVariables()} order
+     * @return the result
+     */
+    public UnlimitedDouble evaluate(UnlimitedDouble... values) {
+        return evaluate(UnlimitedDouble.DEFAULT_CONTEXT, values);
+    }
+
+    /**
+     * Evaluates with {@link UnlimitedDouble#DEFAULT_CONTEXT}, looking the
+     * variables up by name.
+     *
+     * @param bindings
+     *            - the variable values
+     * @return the result
+     * @throws IllegalArgumentException
+     *             if a variable has no value
+     */
+    public UnlimitedDouble evaluate(Map<String, UnlimitedDouble> bindings) {
+        UnlimitedDouble[] values = new UnlimitedDouble[variables.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = bindings.get(variables[i]);
+            if (values[i] == null) {
+                throw new IllegalArgumentException("No value for "
+                        + variables[i] + " in " + source);
+            }
+        }
+        return evaluate(UnlimitedDouble.DEFAULT_CONTEXT, values);
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param mc
+     *            - the precision used by the operations that can't be exact
+     * @param values
+     *            - the variable values, in {@link #getVariables()} order
+     * @return the result
+     */
+    public UnlimitedDouble evaluate(MathContext mc, UnlimitedDouble... values) {
+        checkValues(values.length);
+        return run(mc, values, new UnlimitedDouble[maxStack]);
+    }
+
+    private UnlimitedDouble run(MathContext mc, UnlimitedDouble[] values,
+            UnlimitedDouble[] stack) {
+        int sp = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            int c = code[pc];
+            switch (c) {
+            case CONST:
+                stack[sp++] = constants[code[++pc]];
+                break;
+            case VAR:
+                stack[sp++] = values[code[++pc]];
+                break;
+            case NEGATE:
+                stack[sp - 1] = stack[sp - 1].negate();
+                break;
+            default:
+                EOperation op = OPERATIONS[c];
+                if (op.isUnary()) {
+                    stack[sp - 1] = Operation.apply(op, stack[sp - 1], null,
+                            mc);
+                } else {
+                    sp--;
+                    stack[sp - 1] = Operation.apply(op, stack[sp - 1],
+                            stack[sp], mc);
+                }
+                break;
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * Evaluates the expression with <tt>double</tt>s. Much faster than the
+     * {@link UnlimitedDouble} version, with the usual <tt>double</tt>
+     * rounding.
+     *
+     * @param values
+     *            - the variable values, in {@link #getVariables()} order
+     * @return the result
+     */
+    public double evaluateDouble(double... values) {
+        checkValues(values.length);
+        double[] stack = new double[maxStack];
+        int sp = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            int c = code[pc];
+            switch (c) {
+            case CONST:
+                stack[sp++] = doubleConstants[code[++pc]];
+                break;
+            case VAR:
+                stack[sp++] = values[code[++pc]];
+                break;
+            case NEGATE:
+                stack[sp - 1] = -stack[sp - 1];
+                break;
+            default:
+                EOperation op = OPERATIONS[c];
+                if (op.isUnary()) {
+                    stack[sp - 1] = apply(op, stack[sp - 1], 0);
+                } else {
+                    sp--;
+                    stack[sp - 1] = apply(op, stack[sp - 1], stack[sp]);
+                }
+                break;
+            }
+        }
+        return stack[0];
+    }
+
+    private static double apply(EOperation op, double a, double b) {
+        switch (op) {
+        case PLUS:
+            return a + b;
+        case SUBTRACT:
+            return a - b;
+        case MULTIPLY:
+            return a * b;
+        case DIVIDE:
+            return a / b;
+        case POW:
+            return Math.pow(a, b);
+        case SROOT:
+            return Math.sqrt(a);
+        case FACT:
+            return ExtraMath.factorial(a);
+        default:
+            throw new IllegalStateException("Unknown operation " + op);
+        }
+    }
+
+    /**
+     * Evaluates the expression for every row of <tt>columns</tt>.
+     *
+     * @param columns
+     *            - one column of values per variable, in
+     *            {@link #getVariables()} order. Each needs at least
+     *            <tt>out.length</tt> rows.
+     * @param out
+     *            - receives the result for each row
+     */
+    public void evaluateDouble(double[][] columns, double[] out) {
+        checkColumns(columns.length);
+        for (double[] column : columns) {
+            checkRows(column.length, out.length);
+        }
+        evaluateDouble(columns, out, 0, out.length);
+    }
+
+    /**
+     * Evaluates the expression for every row of <tt>columns</tt>, splitting
+     * the rows between <tt>executor</tt> and the calling thread. Small
+     * batches are evaluated on the calling thread only.
+     *
+     * @param columns
+     *            - one column of values per variable, in
+     *            {@link #getVariables()} order. Each needs at least
+     *            <tt>out.length</tt> rows.
+     * @param out
+     *            - receives the result for each row
+     * @param executor
+     *            - runs the other parts
+     * @throws InterruptedException
+     *             if interrupted while waiting for the other parts
+     */
+    public void evaluateDouble(final double[][] columns, final double[] out,
+            ExecutorService executor) throws InterruptedException {
+        checkColumns(columns.length);
+        for (double[] column : columns) {
+            checkRows(column.length, out.length);
+        }
+        parallel(out.length, PARALLEL_DOUBLE_ROWS, executor, new Rows() {
+            @Override
+            public void run(int from, int to) {
+                evaluateDouble(columns, out, from, to);
+            }
+        });
+    }
+
+    /**
+     * Evaluates the expression for every row of <tt>columns</tt>.
+     *
+     * @param mc
+     *            - the precision used by the operations that can't be exact
+     * @param columns
+     *            - one column of values per variable, in
+     *            {@link #getVariables()} order. Each needs at least
+     *            <tt>out.length</tt> rows.
+     * @param out
+     *            - receives the result for each row
+     */
+    public void evaluate(MathContext mc, UnlimitedDouble[][] columns,
+            UnlimitedDouble[] out) {
+        checkColumns(columns.length);
+        for (UnlimitedDouble[] column : columns) {
+            checkRows(column.length, out.length);
+        }
+        evaluate(mc, columns, out, 0, out.length);
+    }
+
+    /**
+     * Evaluates the expression for every row of <tt>columns</tt>, splitting
+     * the rows between <tt>executor</tt> and the calling thread.
+     *
+     * @param mc
+     *            - the precision used by the operations that can't be exact
+     * @param columns
+     *            - one column of values per variable, in
+     *            {@link #getVariables()} order. Each needs at least
+     *            <tt>out.length</tt> rows.
+     * @param out
+     *            - receives the result for each row
+     * @param executor
+     *            - runs the other parts
+     * @throws InterruptedException
+     *             if interrupted while waiting for the other parts
+     */
+    public void evaluate(final MathContext mc,
+            final UnlimitedDouble[][] columns, final UnlimitedDouble[] out,
+            ExecutorService executor) throws InterruptedException {
+        checkColumns(columns.length);
+        for (UnlimitedDouble[] column : columns) {
+            checkRows(column.length, out.length);
+        }
+        parallel(out.length, PARALLEL_UD_ROWS, executor, new Rows() {
+            @Override
+            public void run(int from, int to) {
+                evaluate(mc, columns, out, from, to);
+            }
+        });
+    }
+
+    private void evaluate(MathContext mc, UnlimitedDouble[][] columns,
+            UnlimitedDouble[] out, int from, int to) {
+        UnlimitedDouble[] values = new UnlimitedDouble[columns.length];
+        UnlimitedDouble[] stack = new UnlimitedDouble[maxStack];
+        for (int row = from; row < to; row++) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = columns[i][row];
+            }
+            out[row] = run(mc, values, stack);
+        }
+    }
+
+    /*
+     * Runs the code a block of rows at a time. Every stack slot is a block of
+     * values instead of one value.
+     */
+    private void evaluateDouble(double[][] columns, double[] out, int from,
+            int to) {
+        double[][] stack = new double[maxStack][Math.min(BLOCK, to - from)];
+        for (int base = from; base < to; base += BLOCK) {
+            int n = Math.min(BLOCK, to - base);
+            int sp = 0;
+            for (int pc = 0; pc < code.length; pc++) {
+                int c = code[pc];
+                switch (c) {
+                case CONST:
+                    double value = doubleConstants[code[++pc]];
+                    Arrays.fill(stack[sp++], 0, n, value);
+                    break;
+                case VAR:
+                    System.arraycopy(columns[code[++pc]], base, stack[sp++],
+                            0, n);
+                    break;
+                case NEGATE:
+                    double[] a = stack[sp - 1];
+                    for (int i = 0; i < n; i++) {
+                        a[i] = -a[i];
+                    }
+                    break;
+                default:
+                    EOperation op = OPERATIONS[c];
+                    if (op.isUnary()) {
+                        apply(op, stack[sp - 1], null, n);
+                    } else {
+                        sp--;
+                        apply(op, stack[sp - 1], stack[sp], n);
+                    }
+                    break;
+                }
+            }
+            System.arraycopy(stack[0], 0, out, base, n);
+        }
+    }
+
+    /*
+     * a = a op b for n values, with the switch outside of the loops.
+     */
+    private static void apply(EOperation op, double[] a, double[] b, int n) {
+        switch (op) {
+        case PLUS:
+            for (int i = 0; i < n; i++) {
+                a[i] += b[i];
+            }
+            break;
+        case SUBTRACT:
+            for (int i = 0; i < n; i++) {
+                a[i] -= b[i];
+            }
+            break;
+        case MULTIPLY:
+            for (int i = 0; i < n; i++) {
+                a[i] *= b[i];
+            }
+            break;
+        case DIVIDE:
+            for (int i = 0; i < n; i++) {
+                a[i] /= b[i];
+            }
+            break;
+        case POW:
+            for (int i = 0; i < n; i++) {
+                a[i] = Math.pow(a[i], b[i]);
+            }
+            break;
+        case SROOT:
+            for (int i = 0; i < n; i++) {
+                a[i] = Math.sqrt(a[i]);
+            }
+            break;
+        case FACT:
+            for (int i = 0; i < n; i++) {
+                a[i] = ExtraMath.factorial(a[i]);
+            }
+            break;
+        default:
+            throw new IllegalStateException("Unknown operation " + op);
+        }
+    }
+
+    /**
+     * A range of rows to evaluate.
+     */
+    private interface Rows {
+        void run(int from, int to);
+    }
+
+    /*
+     * Splits [0, rows) into one part per CPU, but none smaller than minRows.
+     * Runs all but the first on the executor and the first here, then waits
+     * for the rest.
+     */
+    private static void parallel(int rows, int minRows,
+            ExecutorService executor, final Rows task)
+            throws InterruptedException {
+        int parts = Math.min(rows / minRows, Runtime.getRuntime()
+                .availableProcessors());
+        if (parts <= 1) {
+            task.run(0, rows);
+            return;
+        }
+        int size = (rows + parts - 1) / parts;
+        ArrayList<Future<?>> futures = new ArrayList<Future<?>>(parts - 1);
+        try {
+            for (int start = size; start < rows; start += size) {
+                final int from = start, to = Math.min(rows, start + size);
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        task.run(from, to);
+                    }
+                }));
+            }
+            task.run(0, size);
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            // don't leave parts running if something failed
+            for (Future<?> f : futures) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    private void checkColumns(int count) {
+        if (count != variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length
+                    + " columns for " + Arrays.toString(variables)
+                    + ", got " + count);
+        }
+    }
+
+    private static void checkRows(int length, int rows) {
+        if (length < rows) {
+            throw new IllegalArgumentException("Column has " + length
+                    + " rows, needs " + rows);
+        }
+    }
+
+    private void checkValues(int count) {
+        if (count != variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length
+                    + " values for " + Arrays.toString(variables) + ", got "
+                    + count);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * Collects the code while the tree is walked.
+     */
+    static final class Emitter {
+        private final IntResizableArray code = new IntResizableArray();
+        private final ArrayList<UnlimitedDouble> constants = new ArrayList<UnlimitedDouble>();
+        private final ArrayList<String> variables = new ArrayList<String>();
+        private int depth, maxDepth;
+
+        void constant(UnlimitedDouble value) {
+            code.addInt(CONST);
+            code.addInt(constants.size());
+            constants.add(value);
+            push();
+        }
+
+        void variable(String name) {
+            int index = variables.indexOf(name);
+            if (index < 0) {
+                index = variables.size();
+                variables.add(name);
+            }
+            code.addInt(VAR);
+            code.addInt(index);
+            push();
+        }
+
+        void negate() {
+            code.addInt(NEGATE);
+        }
+
+        void operation(EOperation op) {
+            code.addInt(op.ordinal());
+            if (!op.isUnary()) {
+                depth--;
+            }
+        }
+
+        private void push() {
+            if (++depth > maxDepth) {
+                maxDepth = depth;
+            }
+        }
+    }
+}
@@ -46,6 +46,15 @@ public enum EOperation {
         return op_s;
     }
 
+    /**
+     * Checks if this operation only takes one number, like <tt>!</tt>.
+     * 
+     * @return <tt>true</tt> for {@link #SROOT} and {@link #FACT}
+     */
+    public boolean isUnary() {
+        return this == SROOT || this == FACT;
+    }
+
     /**
      * This method protects against words and phrases in strings. Accepts
      * <tt>pi</tt> and <tt>e</tt> in addition to PEMDAS.
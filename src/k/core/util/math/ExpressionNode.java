@@ -0,0 +1,118 @@
+package k.core.util.math;
+
+/**
+ * A node in the tree built by {@link ExpressionParser}. The tree is only kept
+ * around long enough to be flattened into a {@link CompiledExpression}.
+ *
+ * @author Kenzie Togami
+ *
+ */
+abstract class ExpressionNode {
+    /**
+     * Writes the postfix code for this node to <tt>out</tt>.
+     *
+     * @param out
+     *            - the code being built
+     */
+    abstract void emit(CompiledExpression.Emitter out);
+
+    /**
+     * A number, or one of the built in constants.
+     */
+    static final class Value extends ExpressionNode {
+        final UnlimitedDouble value;
+
+        Value(UnlimitedDouble val) {
+            value = val;
+        }
+
+        @Override
+        void emit(CompiledExpression.Emitter out) {
+            out.constant(value);
+        }
+
+        @Override
+        public String toString() {
+            return value.toString();
+        }
+    }
+
+    /**
+     * A named value that is bound when the expression is evaluated.
+     */
+    static final class Variable extends ExpressionNode {
+        final String name;
+
+        Variable(String varName) {
+            name = varName;
+        }
+
+        @Override
+        void emit(CompiledExpression.Emitter out) {
+            out.variable(name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Unary minus. This isn't an {@link EOperation}, because
+     * {@link EOperation#SUBTRACT} always takes two numbers.
+     */
+    static final class Negate extends ExpressionNode {
+        final ExpressionNode operand;
+
+        Negate(ExpressionNode op) {
+            operand = op;
+        }
+
+        @Override
+        void emit(CompiledExpression.Emitter out) {
+            operand.emit(out);
+            out.negate();
+        }
+
+        @Override
+        public String toString() {
+            return "(-" + operand + ")";
+        }
+    }
+
+    /**
+     * An {@link EOperation} applied to one or two nodes. <tt>right</tt> is
+     * <tt>null</tt> for the unary operations.
+     */
+    static final class Apply extends ExpressionNode {
+        final EOperation op;
+        final ExpressionNode left, right;
+
+        Apply(EOperation operation, ExpressionNode l, ExpressionNode r) {
+            op = operation;
+            left = l;
+            right = r;
+        }
+
+        @Override
+        void emit(CompiledExpression.Emitter out) {
+            left.emit(out);
+            if (right != null) {
+                right.emit(out);
+            }
+            out.operation(op);
+        }
+
+        @Override
+        public String toString() {
+            if (op == EOperation.SROOT) {
+                return "(" + op.getOp() + left + ")";
+            }
+            if (right == null) {
+                return "(" + left + op.getOp() + ")";
+            }
+            return "(" + left + " " + op.getOp() + " " + right + ")";
+        }
+    }
+}
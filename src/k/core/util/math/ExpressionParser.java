@@ -0,0 +1,231 @@
+package k.core.util.math;
+
+import java.util.ArrayList;
+
+/**
+ * Turns an expression string into a tree of {@link ExpressionNode}s. The
+ * string is split into tokens first, then parsed by precedence climbing
+ * (a Pratt parser), so each character is only looked at once.
+ * <br>
+ * <br>
+ * From loosest to tightest: <tt>+ -</tt>, <tt>* /</tt>, unary <tt>-</tt>
+ * and <tt>+</tt>, <tt>&#x221A;</tt>, <tt>^</tt> (right associative) and
+ * postfix <tt>!</tt>. So <tt>-2^2</tt> is <tt>-4</tt> and <tt>2^3^2</tt> is
+ * <tt>2^9</tt>.
+ *
+ * @author Kenzie Togami
+ *
+ */
+final class ExpressionParser {
+    /*
+     * binding powers, higher binds tighter
+     */
+    private static final int BP_NONE = 0, BP_ADD = 10, BP_MULTIPLY = 20,
+            BP_PREFIX = 30, BP_ROOT = 35, BP_POW = 40, BP_FACT = 50;
+
+    /**
+     * Built in constants, with a few more digits than the default precision.
+     */
+    static final UnlimitedDouble PI = UnlimitedDouble
+            .newInstance("3.14159265358979323846264338327950288419716939937510582"),
+            E = UnlimitedDouble
+                    .newInstance("2.71828182845904523536028747135266249775724709369995957");
+
+    private static final int NUMBER = 0, NAME = 1, SYMBOL = 2, END = 3;
+
+    private static final class Token {
+        final int type;
+        final String text;
+        final int pos;
+
+        Token(int t, String txt, int p) {
+            type = t;
+            text = txt;
+            pos = p;
+        }
+
+        char symbol() {
+            return type == SYMBOL ? text.charAt(0) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return type == END ? "end of input" : "'" + text + "'";
+        }
+    }
+
+    private final String source;
+    private final Token[] tokens;
+    private int index;
+
+    ExpressionParser(String expr) {
+        source = expr;
+        tokens = tokenize(expr);
+    }
+
+    /**
+     * Parses the whole expression.
+     *
+     * @return the root of the tree
+     * @throws IllegalArgumentException
+     *             if the expression is not valid
+     */
+    ExpressionNode parse() {
+        ExpressionNode root = expression(BP_NONE);
+        Token t = tokens[index];
+        if (t.type != END) {
+            throw error(t);
+        }
+        return root;
+    }
+
+    private ExpressionNode expression(int rbp) {
+        ExpressionNode left = prefix(tokens[index++]);
+        while (rbp < infixPower(tokens[index])) {
+            left = infix(tokens[index++], left);
+        }
+        return left;
+    }
+
+    private ExpressionNode prefix(Token t) {
+        switch (t.type) {
+        case NUMBER:
+            // .x -> 0.x
+            String num = t.text.charAt(0) == '.' ? "0" + t.text : t.text;
+            try {
+                return new ExpressionNode.Value(
+                        UnlimitedDouble.newInstance(num));
+            } catch (NumberFormatException nfe) {
+                throw error(t);
+            }
+        case NAME:
+            if (t.text.equals("pi")) {
+                return new ExpressionNode.Value(PI);
+            }
+            if (t.text.equals("e")) {
+                return new ExpressionNode.Value(E);
+            }
+            return new ExpressionNode.Variable(t.text);
+        case SYMBOL:
+            switch (t.symbol()) {
+            case '(':
+                ExpressionNode inner = expression(BP_NONE);
+                Token close = tokens[index++];
+                if (close.symbol() != ')') {
+                    throw error(close);
+                }
+                return inner;
+            case '-':
+                return new ExpressionNode.Negate(expression(BP_PREFIX));
+            case '+':
+                return expression(BP_PREFIX);
+            case '\u221A':
+                return new ExpressionNode.Apply(EOperation.SROOT,
+                        expression(BP_ROOT), null);
+            default:
+                break;
+            }
+            break;
+        default:
+            break;
+        }
+        throw error(t);
+    }
+
+    private static int infixPower(Token t) {
+        switch (t.symbol()) {
+        case '+':
+        case '-':
+            return BP_ADD;
+        case '*':
+        case '/':
+            return BP_MULTIPLY;
+        case '^':
+            return BP_POW;
+        case '!':
+            return BP_FACT;
+        default:
+            return BP_NONE;
+        }
+    }
+
+    private ExpressionNode infix(Token t, ExpressionNode left) {
+        switch (t.symbol()) {
+        case '!':
+            return new ExpressionNode.Apply(EOperation.FACT, left, null);
+        case '^':
+            // one less makes it right associative
+            return new ExpressionNode.Apply(EOperation.POW, left,
+                    expression(BP_POW - 1));
+        case '+':
+            return new ExpressionNode.Apply(EOperation.PLUS, left,
+                    expression(BP_ADD));
+        case '-':
+            return new ExpressionNode.Apply(EOperation.SUBTRACT, left,
+                    expression(BP_ADD));
+        case '*':
+            return new ExpressionNode.Apply(EOperation.MULTIPLY, left,
+                    expression(BP_MULTIPLY));
+        case '/':
+            return new ExpressionNode.Apply(EOperation.DIVIDE, left,
+                    expression(BP_MULTIPLY));
+        default:
+            throw error(t);
+        }
+    }
+
+    private IllegalArgumentException error(Token t) {
+        return new IllegalArgumentException("Unexpected " + t + " at " + t.pos
+                + " in " + source);
+    }
+
+    private static Token[] tokenize(String expr) {
+        ArrayList<Token> out = new ArrayList<Token>();
+        int len = expr.length();
+        int i = 0;
+        while (i < len) {
+            char c = expr.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            if (isDigit(c) || c == '.') {
+                while (i < len && isDigit(expr.charAt(i))) {
+                    i++;
+                }
+                if (i < len && expr.charAt(i) == '.') {
+                    i++;
+                    while (i < len && isDigit(expr.charAt(i))) {
+                        i++;
+                    }
+                }
+                String num = expr.substring(start, i);
+                if (num.equals(".")) {
+                    throw new IllegalArgumentException("Unexpected '.' at "
+                            + start + " in " + expr);
+                }
+                out.add(new Token(NUMBER, num, start));
+            } else if (Character.isLetter(c) || c == '_') {
+                while (i < len
+                        && (Character.isLetterOrDigit(expr.charAt(i)) || expr
+                                .charAt(i) == '_')) {
+                    i++;
+                }
+                out.add(new Token(NAME, expr.substring(start, i), start));
+            } else if ("+-*/^()!\u221A".indexOf(c) >= 0) {
+                i++;
+                out.add(new Token(SYMBOL, String.valueOf(c), start));
+            } else {
+                throw new IllegalArgumentException("Unexpected '" + c
+                        + "' at " + start + " in " + expr);
+            }
+        }
+        out.add(new Token(END, "", len));
+        return out.toArray(new Token[out.size()]);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
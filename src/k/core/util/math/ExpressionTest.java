@@ -66,8 +66,8 @@ public class ExpressionTest {
                 if (EOperation.hasOP(line)) {
                     System.err.println(ExtraMath.evalExpression(line));
                 }
-            } catch (NumberFormatException nfe) {
-                writeException(nfe);
+            } catch (IllegalArgumentException iae) {
+                writeException(iae);
             } catch (RuntimeException re) {
                 Throwable cause = re.getCause();
                 if (cause instanceof NumberFormatException) {
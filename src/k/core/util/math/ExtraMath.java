@@ -1,12 +1,5 @@
 package k.core.util.math;
 
-import static k.core.util.math.Operation.NUM_REGEX;
-import static k.core.util.math.Operation.OPERATIONS_REGEX;
-
-import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 public class ExtraMath {
 
     /**
@@ -15,167 +8,79 @@ public class ExtraMath {
      * @param num1
      *            - factorial number
      * @return <tt>num1!</tt>, or {@link UnlimitedDouble#EMPTY} if num1 is not
-     *         an integer.
+     *         a non-negative integer.
      */
     public static UnlimitedDouble factorial(UnlimitedDouble num1) {
-        if (num1.hasDecimal()) {
+        if (num1.hasDecimal() || num1.lessThan(UnlimitedDouble.zero())) {
             return UnlimitedDouble.EMPTY;
         }
-        UnlimitedDouble one = UnlimitedDouble.one(), fact = one;
-        for (UnlimitedDouble i = UnlimitedDouble.newInstance("2"); i
-                .lessThan(num1); i = i.add(one)) {
-            fact = fact.multiply(i);
-        }
-        return fact;
+        return product(2, num1.longValue());
     }
 
     /**
-     * Evaluates the given expression
-     * 
-     * @param expr
-     *            - an expression to evaluate
-     * @return the result of evaluating the expression. Undefined if the
-     *         expression is not valid.
+     * Multiplies the integers in <tt>[lo, hi]</tt>. The range is split in
+     * half so that both sides of each multiplication are about the same size,
+     * which lets the large multiplications use the fast algorithms.
      */
-    public static String evalExpression(String expr) {
-        // replace known values (pi, E)
-        expr = expr.replace("pi", Double.toString(Math.PI));
-        expr = expr.replace("e", Double.toString(Math.E));
-        // solve for lazy with two first, then for strong.
-        Matcher m = Pattern.compile("\\((.+)\\)" + OPERATIONS_REGEX + "?")
-                .matcher(expr), dualM = Pattern.compile(
-                "\\((.+?)\\)" + OPERATIONS_REGEX + "\\((.+?)\\)").matcher(expr);
-        while (dualM.find()) {
-            String one = dualM.group(1), two = dualM.group(2);
-            String solve1 = evalExpression(one), solve2 = evalExpression(two);
-            expr = expr.replaceFirst("\\Q(" + one + ")\\E", solve1);
-            expr = expr.replaceFirst("\\Q(" + two + ")\\E", solve2);
-            dualM.reset(expr);
+    private static UnlimitedDouble product(long lo, long hi) {
+        if (hi < lo) {
+            return UnlimitedDouble.one();
         }
-        while (m.find()) {
-            String one = m.group(1);
-            String solve1 = evalExpression(one);
-            expr = expr.replaceFirst("\\Q(" + one + ")\\E", solve1);
-            m.reset(expr);
-        }
-        // Apply regexes for user laziness (.x -> 0.x)
-        Matcher lazyDecimal = Pattern.compile("(?<!\\d)(\\.\\d+)")
-                .matcher(expr);
-        expr = lazyDecimal.replaceAll("0$1");
-        // Remove all .0's
-        expr = expr.replaceAll("\\.0(?!\\d+)", "");
-        // Convert negatives to n<number>, leaving positives as <number>
-        Matcher neg = Pattern.compile(
-                "(?<=" + OPERATIONS_REGEX + ")(\\-)(" + NUM_REGEX + ")")
-                .matcher(expr);
-        expr = neg.replaceAll("n$2");
-        expr = expr.charAt(0) == '-' ? expr.replaceFirst("-", "n") : expr;
-
-        // factorial finder? fix later
-        // neg = Pattern.compile("(\\d+\\.?\\d*)(?=!)").matcher(line);
-        // line = neg.replaceAll("n$1");
-
-        // Done, compute and return
-        boolean solved = false;
-        String last = "";
-        while (!solved) {
-            Pattern pattOp = Pattern
-                    .compile("(n?\\d+\\.?\\d*\\^n?\\d+\\.?\\d*)");
-            Matcher op = pattOp.matcher(expr);
-            ArrayList<Operation> opsE = new ArrayList<Operation>();
-            ArrayList<Operation> opsMD = new ArrayList<Operation>();
-            ArrayList<Operation> opsAS = new ArrayList<Operation>();
-            while (op.find()) {
-                String mt = op.group();
-                String[] match = mt.split(OPERATIONS_REGEX);
-                try {
-                    Operation o = new Operation(
-                            UnlimitedDouble.parseUD(match[0].replace('n', '-')),
-                            UnlimitedDouble.parseUD(match[1].replace('n', '-')),
-                            EOperation.getOp(mt), mt);
-                    opsE.add(o);
-                    // System.out.println(o + "match:" + mt); *DEBUG*
-                } catch (NumberFormatException nfe) {
-                    throw new RuntimeException(
-                            "Error creating Operation for input string " + mt,
-                            nfe);
-                }
-                String[] res = Operation
-                        .compute(opsE.toArray(new Operation[0]));
-                int i = 0;
-                for (String s : res) {
-                    expr = expr.replace(opsE.get(i).getOrig(), s);
-                    i++;
-                }
-                op.reset(expr);
-            }
-            pattOp = Pattern.compile("n?\\d+\\.?\\d*[\\/\\*]n?\\d+\\.?\\d*");
-            op = pattOp.matcher(expr);
-            while (op.find()) {
-                String mt = op.group();
-                String[] match = mt.split(OPERATIONS_REGEX);
-                try {
-                    Operation o = new Operation(
-                            UnlimitedDouble.parseUD(match[0].replace('n', '-')),
-                            UnlimitedDouble.parseUD(match[1].replace('n', '-')),
-                            EOperation.getOp(mt), mt);
-                    opsMD.add(o);
-                    // System.out.println(o + "match:" + mt); *DEBUG*
-                } catch (NumberFormatException nfe) {
-                    throw new RuntimeException(
-                            "Error creating Operation for input string " + mt,
-                            nfe);
-                }
-                String[] res = Operation.compute(opsMD
-                        .toArray(new Operation[0]));
-                int i = 0;
-                for (String s : res) {
-                    expr = expr.replace(opsMD.get(i).getOrig(), s);
-                    i++;
-                }
-                op.reset(expr);
-            }
-            pattOp = Pattern.compile("n?\\d+\\.?\\d*[\\+\\-]n?\\d+\\.?\\d*");
-            op = pattOp.matcher(expr);
-            while (op.find()) {
-                String mt = op.group();
-                String[] match = mt.split(OPERATIONS_REGEX);
-                try {
-                    Operation o = new Operation(
-                            UnlimitedDouble.parseUD(match[0].replace('n', '-')),
-                            UnlimitedDouble.parseUD(match[1].replace('n', '-')),
-                            EOperation.getOp(mt), mt);
-                    opsAS.add(o);
-                    // System.out.println(o + "match:" + mt); *DEBUG*
-                } catch (NumberFormatException nfe) {
-                    throw new RuntimeException(
-                            "Error creating Operation for input string " + mt,
-                            nfe);
-                }
-                String[] res = Operation.compute(opsAS
-                        .toArray(new Operation[0]));
-                int i = 0;
-                for (String s : res) {
-                    expr = expr.replace(opsAS.get(i).getOrig(), s);
-                    i++;
+        if (hi - lo < 8) {
+            UnlimitedDouble result = UnlimitedDouble.one();
+            long prod = 1;
+            for (long i = lo; i <= hi; i++) {
+                if (prod > Long.MAX_VALUE / i) {
+                    // flush before the long overflows
+                    result = result.multiply(UnlimitedDouble.newInstance(Long
+                            .toString(prod)));
+                    prod = 1;
                 }
-                op.reset(expr);
+                prod *= i;
             }
-            solved = EOperation.getOp(expr) == null;
-            if (expr.equals(last)) {
-                throw new RuntimeException(
-                        "Invalid expression "
-                                + expr
-                                + ", attemped solving failed. (last line was also this line)");
-            }
-            last = expr;
+            return result.multiply(UnlimitedDouble.newInstance(Long
+                    .toString(prod)));
+        }
+        long mid = (lo + hi) >>> 1;
+        return product(lo, mid).multiply(product(mid + 1, hi));
+    }
+
+    /**
+     * Handles double factorial.
+     * 
+     * @param n
+     *            - factorial number
+     * @return <tt>n!</tt>, {@link Double#POSITIVE_INFINITY} if that is too
+     *         big for a double, or {@link Double#NaN} if n is not a
+     *         non-negative integer.
+     */
+    public static double factorial(double n) {
+        if (n < 0 || n != Math.floor(n)) {
+            return Double.NaN;
+        }
+        if (n > 170) {
+            return Double.POSITIVE_INFINITY;
         }
-        try {
-            return UnlimitedDouble.parseUD(
-                    expr.replaceAll("n(" + NUM_REGEX + ")", "-$1")).toString();
-        } catch (Exception e) {
-            throw new RuntimeException("Error returning value " + expr, e);
+        double result = 1;
+        for (int i = 2; i <= n; i++) {
+            result *= i;
         }
+        return result;
+    }
+
+    /**
+     * Evaluates the given expression. If the same expression is evaluated
+     * more than once, use {@link CompiledExpression#compile(String)} instead
+     * so it is only parsed once.
+     * 
+     * @param expr
+     *            - an expression to evaluate
+     * @return the result of evaluating the expression
+     * @throws IllegalArgumentException
+     *             if the expression is not valid or has variables
+     */
+    public static String evalExpression(String expr) {
+        return CompiledExpression.compile(expr).evaluate().toString();
     }
 
 }
@@ -0,0 +1,588 @@
+package k.core.util.math;
+
+import java.util.Arrays;
+
+/**
+ * Magnitude arithmetic on base 10<sup>9</sup> limbs, the representation used
+ * by {@link UnlimitedDouble}. Limbs are stored least significant first.
+ * Methods accept limbs with leading zero limbs, and results may have them
+ * unless noted otherwise. No method modifies its arguments.<br>
+ * <br>
+ * Multiplication picks schoolbook, Karatsuba or Toom-3 depending on the size
+ * of the smaller operand, see {@link #KARATSUBA_THRESHOLD} and
+ * {@link #TOOM3_THRESHOLD}.
+ *
+ * @author Kenzie Togami
+ *
+ */
+final class Limbs {
+    /**
+     * The base of a single limb
+     */
+    static final int BASE = 1000000000;
+    /**
+     * The amount of decimal digits in a single limb
+     */
+    static final int LIMB_DIGITS = 9;
+    /**
+     * Powers of ten that fit in a limb, <tt>POW10[i] = 10^i</tt>
+     */
+    static final int[] POW10 = { 1, 10, 100, 1000, 10000, 100000, 1000000,
+            10000000, 100000000 };
+    static final int[] NONE = new int[0];
+    static final int[] ONE = { 1 };
+    /**
+     * The limb count of the smaller operand at which Karatsuba multiplication
+     * beats schoolbook multiplication. Tuned with
+     * <tt>LimbsMultiplyBenchmark</tt>.
+     */
+    static final int KARATSUBA_THRESHOLD = 48;
+    /**
+     * The limb count of the smaller operand at which Toom-3 multiplication
+     * beats Karatsuba multiplication. Tuned with
+     * <tt>LimbsMultiplyBenchmark</tt>.
+     */
+    static final int TOOM3_THRESHOLD = 256;
+
+    private Limbs() {
+        throw new IllegalAccessError("No Limbs instances for you!");
+    }
+
+    /**
+     * Returns the length of the given limbs, not counting leading zero limbs.
+     */
+    static int length(int[] limbs) {
+        int len = limbs.length;
+        while (len > 0 && limbs[len - 1] == 0) {
+            len--;
+        }
+        return len;
+    }
+
+    /**
+     * Returns the limbs without leading zero limbs, copying only if needed.
+     */
+    static int[] trim(int[] limbs) {
+        int len = length(limbs);
+        return len == limbs.length ? limbs : Arrays.copyOf(limbs, len);
+    }
+
+    /**
+     * Compares two magnitudes.
+     */
+    static int compare(int[] a, int[] b) {
+        int alen = length(a), blen = length(b);
+        if (alen != blen) {
+            return alen > blen ? 1 : -1;
+        }
+        for (int i = alen - 1; i >= 0; i--) {
+            if (a[i] != b[i]) {
+                return a[i] > b[i] ? 1 : -1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compares a with <tt>b * 10^k</tt> without creating the scaled value.
+     * Both must be without leading zero limbs.
+     */
+    static int compareScaled(int[] a, int[] b, int k) {
+        if (b.length == 0 || a.length == 0) {
+            return a.length == b.length ? 0 : (a.length == 0 ? -1 : 1);
+        }
+        // same digit count means same limb count
+        int ad = digits(a), bd = digits(b) + k;
+        if (ad != bd) {
+            return ad > bd ? 1 : -1;
+        }
+        int q = k / LIMB_DIGITS, r = k % LIMB_DIGITS;
+        for (int j = a.length - 1; j >= 0; j--) {
+            int bl = scaledLimb(b, j - q, r);
+            if (a[j] != bl) {
+                return a[j] > bl ? 1 : -1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Limb i of <tt>b * 10^r</tt>, <tt>r < LIMB_DIGITS</tt>.
+     */
+    private static int scaledLimb(int[] b, int i, int r) {
+        if (r == 0) {
+            return i >= 0 && i < b.length ? b[i] : 0;
+        }
+        int split = POW10[LIMB_DIGITS - r];
+        int lo = i >= 0 && i < b.length ? (b[i] % split) * POW10[r] : 0;
+        int hi = i >= 1 && i - 1 < b.length ? b[i - 1] / split : 0;
+        return lo + hi;
+    }
+
+    /**
+     * Adds two magnitudes.
+     */
+    static int[] add(int[] a, int[] b) {
+        if (a.length < b.length) {
+            int[] tmp = a;
+            a = b;
+            b = tmp;
+        }
+        int[] out = new int[a.length + 1];
+        int carry = 0;
+        for (int i = 0; i < a.length; i++) {
+            int sum = a[i] + (i < b.length ? b[i] : 0) + carry;
+            if (sum >= BASE) {
+                sum -= BASE;
+                carry = 1;
+            } else {
+                carry = 0;
+            }
+            out[i] = sum;
+        }
+        out[a.length] = carry;
+        return out;
+    }
+
+    /**
+     * Subtracts b from a, a must be larger than or equal to b.
+     */
+    static int[] subtract(int[] a, int[] b) {
+        int[] out = new int[a.length];
+        int borrow = 0;
+        for (int i = 0; i < a.length; i++) {
+            int diff = a[i] - (i < b.length ? b[i] : 0) - borrow;
+            if (diff < 0) {
+                diff += BASE;
+                borrow = 1;
+            } else {
+                borrow = 0;
+            }
+            out[i] = diff;
+        }
+        return out;
+    }
+
+    /**
+     * Multiplies the limbs by <tt>10^digits</tt>.
+     */
+    static int[] multiplyPow10(int[] limbs, int digits) {
+        if (digits == 0 || limbs.length == 0) {
+            return limbs;
+        }
+        int q = digits / LIMB_DIGITS;
+        long mul = POW10[digits % LIMB_DIGITS], carry = 0;
+        int[] out = new int[limbs.length + q + 1];
+        for (int i = 0; i < limbs.length; i++) {
+            long cur = limbs[i] * mul + carry;
+            out[i + q] = (int) (cur % BASE);
+            carry = cur / BASE;
+        }
+        out[limbs.length + q] = (int) carry;
+        return out;
+    }
+
+    /**
+     * Divides the first <tt>len</tt> limbs by <tt>10^digits</tt>, which must
+     * divide them exactly. The result has no leading zero limbs if the first
+     * <tt>len</tt> limbs had none.
+     */
+    static int[] dividePow10(int[] limbs, int len, int digits) {
+        int q = digits / LIMB_DIGITS, r = digits % LIMB_DIGITS;
+        int[] out = new int[len - q];
+        if (r == 0) {
+            System.arraycopy(limbs, q, out, 0, out.length);
+            return out;
+        }
+        int div = POW10[r], mul = POW10[LIMB_DIGITS - r];
+        for (int i = 0; i < out.length; i++) {
+            int hi = (q + i + 1 < len) ? limbs[q + i + 1] % div : 0;
+            out[i] = limbs[q + i] / div + hi * mul;
+        }
+        return out[out.length - 1] == 0 ? Arrays.copyOf(out, out.length - 1)
+                : out;
+    }
+
+    /**
+     * Multiplies the limbs by a small value, <tt>0 <= m < BASE</tt>.
+     */
+    static int[] multiplySmall(int[] limbs, int m) {
+        int[] out = new int[limbs.length + 1];
+        long carry = 0;
+        for (int i = 0; i < limbs.length; i++) {
+            long cur = (long) limbs[i] * m + carry;
+            out[i] = (int) (cur % BASE);
+            carry = cur / BASE;
+        }
+        out[limbs.length] = (int) carry;
+        return out;
+    }
+
+    /**
+     * Divides the limbs by a small value, <tt>0 < d < BASE</tt>, dropping the
+     * remainder.
+     */
+    static int[] divideSmall(int[] limbs, int d) {
+        int[] out = new int[limbs.length];
+        long rem = 0;
+        for (int i = limbs.length - 1; i >= 0; i--) {
+            long cur = rem * BASE + limbs[i];
+            out[i] = (int) (cur / d);
+            rem = cur % d;
+        }
+        return out;
+    }
+
+    /**
+     * Returns the amount of decimal digits in the limbs, 0 for no limbs. The
+     * limbs must not have leading zero limbs.
+     */
+    static int digits(int[] limbs) {
+        if (limbs.length == 0) {
+            return 0;
+        }
+        int top = limbs[limbs.length - 1], topDigits = 1;
+        while (topDigits < LIMB_DIGITS && top >= POW10[topDigits]) {
+            topDigits++;
+        }
+        return topDigits + LIMB_DIGITS * (limbs.length - 1);
+    }
+
+    /**
+     * Converts the limbs to decimal digits, "0" for no limbs. The limbs must
+     * not have leading zero limbs.
+     */
+    static char[] toDigits(int[] limbs) {
+        if (limbs.length == 0) {
+            return new char[] { '0' };
+        }
+        String top = Integer.toString(limbs[limbs.length - 1]);
+        char[] out = new char[top.length() + LIMB_DIGITS * (limbs.length - 1)];
+        top.getChars(0, top.length(), out, 0);
+        int pos = top.length();
+        for (int i = limbs.length - 2; i >= 0; i--) {
+            int limb = limbs[i];
+            for (int j = pos + LIMB_DIGITS - 1; j >= pos; j--) {
+                out[j] = (char) ('0' + limb % 10);
+                limb /= 10;
+            }
+            pos += LIMB_DIGITS;
+        }
+        return out;
+    }
+
+    /* Multiplication */
+
+    /**
+     * Multiplies two magnitudes, choosing the algorithm by the size of the
+     * smaller operand.
+     */
+    static int[] multiply(int[] a, int[] b) {
+        int alen = length(a), blen = length(b);
+        int min = Math.min(alen, blen);
+        if (min == 0) {
+            return NONE;
+        }
+        if (min < KARATSUBA_THRESHOLD) {
+            return multiplySchoolbook(a, alen, b, blen);
+        }
+        if (min < TOOM3_THRESHOLD) {
+            return multiplyKaratsuba(a, alen, b, blen);
+        }
+        return multiplyToom3(a, alen, b, blen);
+    }
+
+    /**
+     * Long multiplication, O(alen * blen).
+     */
+    static int[] multiplySchoolbook(int[] a, int alen, int[] b, int blen) {
+        int[] out = new int[alen + blen];
+        for (int i = 0; i < alen; i++) {
+            long ai = a[i];
+            if (ai == 0) {
+                continue;
+            }
+            long carry = 0;
+            for (int j = 0; j < blen; j++) {
+                long cur = ai * b[j] + out[i + j] + carry;
+                out[i + j] = (int) (cur % BASE);
+                carry = cur / BASE;
+            }
+            out[i + blen] = (int) carry;
+        }
+        return out;
+    }
+
+    /**
+     * Karatsuba multiplication, splitting both operands in two. The parts are
+     * multiplied through {@link #multiply(int[], int[])}.
+     */
+    static int[] multiplyKaratsuba(int[] a, int alen, int[] b, int blen) {
+        int half = (Math.max(alen, blen) + 1) / 2;
+        int[] a0 = slice(a, alen, 0, half), a1 = slice(a, alen, half, alen);
+        int[] b0 = slice(b, blen, 0, half), b1 = slice(b, blen, half, blen);
+        int[] z0 = multiply(a0, b0), z2 = multiply(a1, b1);
+        // (a0 + a1)(b0 + b1) - z0 - z2 = a0b1 + a1b0
+        int[] z1 = subtract(subtract(multiply(add(a0, a1), add(b0, b1)), z0),
+                z2);
+        int[] out = new int[alen + blen + 1];
+        addShifted(out, z0, 0);
+        addShifted(out, z1, half);
+        addShifted(out, z2, 2 * half);
+        return out;
+    }
+
+    /**
+     * Toom-3 multiplication, splitting both operands in three and evaluating
+     * at 0, 1, -1, 2 and infinity. Uses the same evaluation and interpolation
+     * sequence as {@link java.math.BigInteger}.
+     */
+    static int[] multiplyToom3(int[] a, int alen, int[] b, int blen) {
+        int k = (Math.max(alen, blen) + 2) / 3;
+        Signed a0 = new Signed(slice(a, alen, 0, k)), a1 = new Signed(slice(
+                a, alen, k, 2 * k)), a2 = new Signed(slice(a, alen, 2 * k,
+                alen));
+        Signed b0 = new Signed(slice(b, blen, 0, k)), b1 = new Signed(slice(
+                b, blen, k, 2 * k)), b2 = new Signed(slice(b, blen, 2 * k,
+                blen));
+
+        Signed v0 = a0.multiply(b0);
+        Signed da1 = a2.add(a0), db1 = b2.add(b0);
+        Signed vm1 = da1.subtract(a1).multiply(db1.subtract(b1));
+        da1 = da1.add(a1);
+        db1 = db1.add(b1);
+        Signed v1 = da1.multiply(db1);
+        Signed v2 = da1.add(a2).multiplySmall(2).subtract(a0)
+                .multiply(db1.add(b2).multiplySmall(2).subtract(b0));
+        Signed vinf = a2.multiply(b2);
+
+        Signed t2 = v2.subtract(vm1).divideSmall(3);
+        Signed tm1 = v1.subtract(vm1).divideSmall(2);
+        Signed t1 = v1.subtract(v0);
+        t2 = t2.subtract(t1).divideSmall(2);
+        t1 = t1.subtract(tm1).subtract(vinf);
+        t2 = t2.subtract(vinf.multiplySmall(2));
+        tm1 = tm1.subtract(t2);
+
+        // all of the coefficients of the product are non-negative
+        int[] out = new int[alen + blen + 1];
+        addShifted(out, v0.mag, 0);
+        addShifted(out, tm1.mag, k);
+        addShifted(out, t1.mag, 2 * k);
+        addShifted(out, t2.mag, 3 * k);
+        addShifted(out, vinf.mag, 4 * k);
+        return out;
+    }
+
+    /* Division */
+
+    /**
+     * Divides a by b.
+     * 
+     * @return <tt>{ a / b, a % b }</tt>, both without leading zero limbs
+     * @throws ArithmeticException
+     *             if b is zero
+     */
+    static int[][] divideAndRemainder(int[] a, int[] b) {
+        int alen = length(a), blen = length(b);
+        if (blen == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        if (compare(a, b) < 0) {
+            return new int[][] { NONE, trim(a) };
+        }
+        int[] q;
+        if (blen == 1) {
+            q = divideSmall(a, b[0]);
+        } else {
+            // scale both so the top limb of b is large, otherwise the top
+            // limbs of b don't hold much precision for the reciprocal
+            int f = BASE / (b[blen - 1] + 1);
+            int[] sa = f == 1 ? a : multiplySmall(a, f);
+            int[] sb = slice(b, blen, 0, blen);
+            if (f != 1) {
+                sb = trim(multiplySmall(sb, f));
+            }
+            int salen = length(sa), sblen = sb.length;
+            // a * (BASE^(n + blen) / b) / BASE^(n + blen), with enough
+            // precision in the reciprocal that the quotient is off by at most
+            // a few units
+            int n = Math.max(sblen, salen - sblen + 1);
+            int[] d = shiftUp(slice(sb, sblen, 0, sblen), n - sblen);
+            int[] ar = multiply(sa, reciprocal(d, n));
+            q = slice(ar, ar.length, n + sblen, ar.length);
+        }
+        // fix up the last few units
+        int[] qb = multiply(q, b);
+        while (compare(qb, a) > 0) {
+            q = subtract(q, ONE);
+            qb = subtract(qb, b);
+        }
+        int[] r = subtract(a, qb);
+        while (compare(r, b) >= 0) {
+            q = add(q, ONE);
+            r = subtract(r, b);
+        }
+        return new int[][] { trim(q), trim(r) };
+    }
+
+    /**
+     * Newton-Raphson reciprocal. <tt>d</tt> must be exactly <tt>n</tt> limbs,
+     * the result is about <tt>BASE^(2n) / d</tt>. The reciprocal of the top
+     * half of <tt>d</tt> is refined by one Newton step,
+     * <tt>r = 2r - d * r^2 / BASE^(2n)</tt>, which doubles the correct limbs.
+     * Every step is a multiplication, so the whole thing costs about as much
+     * as a few multiplications of size <tt>n</tt>.
+     */
+    static int[] reciprocal(int[] d, int n) {
+        if (n == 1) {
+            return divideSmall(new int[] { 0, 0, 1 }, d[0]);
+        }
+        // a little more than half, so that the error doesn't grow
+        int h = n == 2 ? 1 : n / 2 + 1;
+        int[] r = shiftUp(reciprocal(slice(d, n, n - h, n), h), n - h);
+        int[] drr = multiply(multiply(d, r), r);
+        int[] x = slice(drr, drr.length, 2 * n, drr.length);
+        return trim(subtract(multiplySmall(r, 2), x));
+    }
+
+    /**
+     * Integer square root, <tt>floor(sqrt(n))</tt>, by Newton's method from
+     * an estimate of the top limbs.
+     */
+    static int[] sqrt(int[] n) {
+        int len = length(n);
+        if (len <= 2) {
+            long v = len == 0 ? 0 : n[0] + (len == 2 ? (long) n[1] * BASE : 0);
+            long s = (long) Math.sqrt(v);
+            while (s * s > v) {
+                s--;
+            }
+            while ((s + 1) * (s + 1) <= v) {
+                s++;
+            }
+            return trim(new int[] { (int) (s % BASE), (int) (s / BASE) });
+        }
+        // n is about top * BASE^(2k), top has 3 or 4 limbs
+        int k = (len - 3) / 2;
+        double top = 0;
+        for (int i = len - 1; i >= 2 * k; i--) {
+            top = top * BASE + n[i];
+        }
+        // over estimate, Newton's method for integers needs to start above
+        long est = (long) Math.sqrt(top) + 1000;
+        int[] x = shiftUp(new int[] { (int) (est % BASE),
+                (int) (est / BASE % BASE), (int) (est / BASE / BASE) }, k);
+        while (true) {
+            int[] y = divideSmall(add(x, divideAndRemainder(n, x)[0]), 2);
+            if (compare(y, x) >= 0) {
+                return trim(x);
+            }
+            x = y;
+        }
+    }
+
+    /**
+     * Returns <tt>limbs * BASE^k</tt>.
+     */
+    private static int[] shiftUp(int[] limbs, int k) {
+        if (k == 0) {
+            return limbs;
+        }
+        int[] out = new int[limbs.length + k];
+        System.arraycopy(limbs, 0, out, k, limbs.length);
+        return out;
+    }
+
+    /**
+     * Returns limbs <tt>[from, to)</tt> of the first <tt>len</tt> limbs.
+     */
+    private static int[] slice(int[] limbs, int len, int from, int to) {
+        to = Math.min(to, len);
+        return from >= to ? NONE : Arrays.copyOfRange(limbs, from, to);
+    }
+
+    /**
+     * Adds <tt>x * BASE^offset</tt> into <tt>out</tt>, which must be large
+     * enough to hold the sum.
+     */
+    private static void addShifted(int[] out, int[] x, int offset) {
+        int xlen = length(x), carry = 0, i = 0;
+        for (; i < xlen; i++) {
+            int sum = out[i + offset] + x[i] + carry;
+            if (sum >= BASE) {
+                sum -= BASE;
+                carry = 1;
+            } else {
+                carry = 0;
+            }
+            out[i + offset] = sum;
+        }
+        for (i += offset; carry != 0; i++) {
+            int sum = out[i] + 1;
+            if (sum >= BASE) {
+                out[i] = 0;
+            } else {
+                out[i] = sum;
+                carry = 0;
+            }
+        }
+    }
+
+    /**
+     * A signed magnitude, for the intermediate values of Toom-3.
+     */
+    private static final class Signed {
+        private final int[] mag;
+        private final int sign;
+
+        Signed(int[] mag) {
+            this(mag, length(mag) == 0 ? 0 : 1);
+        }
+
+        private Signed(int[] mag, int sign) {
+            this.mag = mag;
+            this.sign = sign;
+        }
+
+        Signed add(Signed y) {
+            if (y.sign == 0) {
+                return this;
+            }
+            if (sign == 0) {
+                return y;
+            }
+            if (sign == y.sign) {
+                return new Signed(Limbs.add(mag, y.mag), sign);
+            }
+            int cmp = compare(mag, y.mag);
+            if (cmp == 0) {
+                return new Signed(NONE, 0);
+            }
+            return cmp > 0 ? new Signed(Limbs.subtract(mag, y.mag), sign)
+                    : new Signed(Limbs.subtract(y.mag, mag), y.sign);
+        }
+
+        Signed subtract(Signed y) {
+            return add(new Signed(y.mag, -y.sign));
+        }
+
+        Signed multiply(Signed y) {
+            if (sign == 0 || y.sign == 0) {
+                return new Signed(NONE, 0);
+            }
+            return new Signed(Limbs.multiply(mag, y.mag), sign * y.sign);
+        }
+
+        Signed multiplySmall(int m) {
+            return new Signed(Limbs.multiplySmall(mag, m), sign);
+        }
+
+        /**
+         * Exact division, the value must be a multiple of <tt>d</tt>.
+         */
+        Signed divideSmall(int d) {
+            return new Signed(Limbs.divideSmall(mag, d), sign);
+        }
+    }
+}
@@ -4,6 +4,10 @@ import static k.core.util.math.UnlimitedDouble.newInstance;
 
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import k.core.util.streams.InputPipeStream;
 import k.core.util.streams.OutputPipeStream;
@@ -26,6 +30,10 @@ public class MathTest {
         add(a, b);
         subtract(a, b);
         multiply(a, b);
+        divide(a, b);
+        sqrt(b);
+        expressions();
+        columns();
 
         invalid();
 
@@ -45,6 +53,101 @@ public class MathTest {
         System.err.println("UD c = " + c);
     }
 
+    public static void divide(UnlimitedDouble a, UnlimitedDouble b) {
+        UnlimitedDouble c = a.divide(b, new MathContext(20)); // a / b test
+        System.err.println("UD c = " + c);
+    }
+
+    public static void sqrt(UnlimitedDouble a) {
+        UnlimitedDouble c = a.sqrt(20); // sqrt(a) test
+        System.err.println("UD c = " + c);
+    }
+
+    public static void expressions() {
+        System.err.println(ExtraMath.evalExpression("4.01 - 60 * (2 + .5)"));
+        System.err.println(ExtraMath.evalExpression("-2^2 + 2^3^2 + 5!"));
+        CompiledExpression expr = CompiledExpression.compile("x^2 + 2*x*y");
+        for (int i = 1; i <= 3; i++) { // one parse, many evaluations
+            System.err.println(expr + " = "
+                    + expr.evaluate(newInstance(Integer.toString(i)),
+                            newInstance("0.5")) + " = "
+                    + expr.evaluateDouble(i, 0.5));
+        }
+        // more digits than the default context, but still exact
+        String big = ExtraMath.evalExpression("2^200");
+        System.err.println("2^200 = " + big);
+        if (!big.equals(new BigInteger("2").pow(200).toString())) {
+            throw new AssertionError("2^200 was rounded: " + big);
+        }
+        try {
+            ExtraMath.evalExpression("1 + * 2");
+        } catch (IllegalArgumentException iae) {
+            System.err.println("invalid (this should happen!)");
+        }
+    }
+
+    public static void columns() {
+        CompiledExpression expr = CompiledExpression
+                .compile("x^2 + 2*x*y - y / 3");
+        // not a multiple of the block size, and enough to split up
+        double[][] columns = new double[2][65636];
+        double[] expect = new double[columns[0].length];
+        for (int i = 0; i < expect.length; i++) {
+            columns[0][i] = i * 0.5;
+            columns[1][i] = i % 7 + 1;
+            expect[i] = expr.evaluateDouble(columns[0][i], columns[1][i]);
+        }
+        MathContext mc = new MathContext(30);
+        UnlimitedDouble[][] udColumns = new UnlimitedDouble[2][259];
+        UnlimitedDouble[] udExpect = new UnlimitedDouble[udColumns[0].length];
+        for (int i = 0; i < udExpect.length; i++) {
+            udColumns[0][i] = UnlimitedDouble.valueOf(i);
+            udColumns[1][i] = UnlimitedDouble.valueOf(i % 7 + 1);
+            udExpect[i] = expr.evaluate(mc, udColumns[0][i], udColumns[1][i]);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            double[] out = new double[expect.length];
+            expr.evaluateDouble(columns, out);
+            checkColumns("doubles", expect, out);
+            out = new double[expect.length];
+            expr.evaluateDouble(columns, out, executor);
+            checkColumns("doubles in parallel", expect, out);
+            UnlimitedDouble[] udOut = new UnlimitedDouble[udExpect.length];
+            expr.evaluate(mc, udColumns, udOut);
+            checkColumns("UnlimitedDoubles", udExpect, udOut);
+            udOut = new UnlimitedDouble[udExpect.length];
+            expr.evaluate(mc, udColumns, udOut, executor);
+            checkColumns("UnlimitedDoubles in parallel", udExpect, udOut);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void checkColumns(String what, double[] expect,
+            double[] out) {
+        for (int i = 0; i < expect.length; i++) {
+            if (Double.compare(expect[i], out[i]) != 0) {
+                throw new AssertionError(what + " row " + i + ": " + out[i]
+                        + " != " + expect[i]);
+            }
+        }
+        System.err.println(what + ": " + expect.length + " rows match");
+    }
+
+    private static void checkColumns(String what, UnlimitedDouble[] expect,
+            UnlimitedDouble[] out) {
+        for (int i = 0; i < expect.length; i++) {
+            if (out[i] == null || expect[i].compareTo(out[i]) != 0) {
+                throw new AssertionError(what + " row " + i + ": " + out[i]
+                        + " != " + expect[i]);
+            }
+        }
+        System.err.println(what + ": " + expect.length + " rows match");
+    }
+
     public static void add(UnlimitedDouble a, UnlimitedDouble b) {
         UnlimitedDouble c = a.add(b); // a + b test
         System.err.println("UD c = " + c);
@@ -1,11 +1,13 @@
 package k.core.util.math;
 
+import java.math.MathContext;
 import java.util.ArrayList;
 
 public class Operation {
     private UnlimitedDouble num1, num2;
     private EOperation op;
     private String original;
+    private MathContext context = UnlimitedDouble.DEFAULT_CONTEXT;
 
     public static final String OPERATIONS_REGEX = "[\\Q+-*/^\\E]",
             NUM_REGEX = "\\d+(\\.\\d+)?", OPT_NEG_NUM_REGEX = "\\-?"
@@ -25,6 +27,19 @@ public class Operation {
         // System.out.println("{ConstrOperation} original = " + original);
     }
 
+    /**
+     * Sets the precision used by the operations that can't be exact
+     * (division, roots and fractional powers).
+     * 
+     * @param mc
+     *            - the precision and rounding
+     * @return this operation
+     */
+    public Operation withContext(MathContext mc) {
+        context = mc;
+        return this;
+    }
+
     public String getOrig() {
         return original;
     }
@@ -40,35 +55,47 @@ public class Operation {
      *         {@link UnlimitedDouble#empty() } if not valid.
      */
     public UnlimitedDouble doOperation() {
-        UnlimitedDouble ret = UnlimitedDouble.empty();
         // System.out.println("{Operation} Computing " + this.original);
+        return apply(op, num1, num2, context);
+    }
+
+    /**
+     * Applies an operation without building an <tt>Operation</tt> for it.
+     * 
+     * @param op
+     *            - the operation
+     * @param num1
+     *            - the first number
+     * @param num2
+     *            - the second number, ignored by {@link EOperation#isUnary()
+     *            unary} operations
+     * @param context
+     *            - the precision used by the operations that can't be exact
+     * @return the result, or {@link UnlimitedDouble#empty() } if not valid.
+     */
+    public static UnlimitedDouble apply(EOperation op, UnlimitedDouble num1,
+            UnlimitedDouble num2, MathContext context) {
+        UnlimitedDouble ret = UnlimitedDouble.empty();
         switch (op) {
         case DIVIDE:
-            System.err
-                    .println("UD does not support divison, falling back to doubles");
-            ret = UnlimitedDouble.parseUD(Double.toString(Double
-                    .parseDouble(num1.toString())
-                    / Double.parseDouble(num2.toString())));
+            ret = num1.divide(num2, context);
             break;
         case FACT:
             ret = ExtraMath.factorial(num1);
             break;
         case MULTIPLY:
-            System.err
-                    .println("UD does not support FULL multiplication, falling back to doubles");
-            ret = UnlimitedDouble.parseUD(Double.toString(Double
-                    .parseDouble(num1.toString())
-                    * Double.parseDouble(num2.toString())));
+            ret = num1.multiply(num2);
             break;
         case PLUS:
             ret = num1.add(num2);
             break;
         case POW:
-            ret = num1.pow(num2);
+            // whole powers are exact, like multiplication
+            ret = num2.hasDecimal() || num2.lessThan(UnlimitedDouble.ZERO) ? num1
+                    .pow(num2, context) : num1.pow(num2);
             break;
         case SROOT:
-            ret = UnlimitedDouble.parseUD(Double.toString(Math.sqrt(Double
-                    .parseDouble(num1.toString()))));
+            ret = num1.sqrt(context);
             break;
         case SUBTRACT:
             ret = num1.subtract(num2);
@@ -76,7 +103,6 @@ public class Operation {
         default:
             break;
         }
-        // System.out.println("{Operation} Returning " + ret);
         return ret;
     }
 
@@ -95,4 +121,20 @@ public class Operation {
         }
         return temp.toArray(new String[0]);
     }
+
+    /**
+     * Computes all {@link Operation Operation}s in the array, without
+     * converting the results to strings.
+     * 
+     * @param ops
+     *            - the operations
+     * @param out
+     *            - receives the result of <tt>ops[i]</tt> at <tt>i</tt>,
+     *            must be at least as long as <tt>ops</tt>
+     */
+    public static void compute(Operation[] ops, UnlimitedDouble[] out) {
+        for (int i = 0; i < ops.length; i++) {
+            out[i] = ops[i].doOperation();
+        }
+    }
 }
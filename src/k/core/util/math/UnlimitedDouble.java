@@ -1,29 +1,39 @@
 package k.core.util.math;
 
+import static k.core.util.math.Limbs.LIMB_DIGITS;
+
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
 
 import k.core.util.arrays.ResizableArray;
-import k.core.util.core.Helper.BetterArrays;
-import k.core.util.strings.Strings;
 
 /**
  * A class that provides a virtually unlimited double, with the limitation being
  * the value of {@link ResizableArray#MAX_ARRAY_SIZE MAX_ARRAY_SIZE}, due to
  * array size limits.
  * 
- * (Note that this is a digit count limit, you can have up to that many
- * <b>digits</b>). This class is defined as immutable.<br>
+ * (Note that this is a limb count limit, you can have up to nine times that
+ * many <b>digits</b>). This class is defined as immutable.<br>
  * <br>
- * Please note that add() does not support negatives, and therefore subtract
- * only supports negative values for b. Multiply supports only positive integers
- * for b. <br>
+ * The value is stored as an unscaled magnitude of base 10<sup>9</sup> limbs,
+ * least significant limb first, and a scale (the amount of digits after the
+ * decimal place). Values are normalized on creation, so there are no leading
+ * zero limbs and no trailing zeros after the decimal place. Digits are only
+ * produced when calling {@link #toString()}.<br>
  * <br>
- * 
- * TODO: <br>
- * Add divide(), optimize so that we can do operations quickly. Current
- * optimization ~80%. Add negative support and implement full multiplication.
+ * Multiplication uses schoolbook, Karatsuba or Toom-3 multiplication depending
+ * on the size of the operands. pow is exact for non-negative integer
+ * exponents.<br>
+ * <br>
+ * Operations that can't be exact (divide, sqrt, pow with a fractional or
+ * negative exponent) take either a scale (digits after the decimal place) or
+ * a {@link MathContext} (significant digits) and a {@link RoundingMode}, and
+ * only compute the digits that were asked for. The operations that don't
+ * take one use {@link #DEFAULT_CONTEXT}.
  * 
  * @author Kenzie Togami
  * 
@@ -36,9 +46,18 @@ public final class UnlimitedDouble extends Number implements
     private static final long serialVersionUID = -3795087690346750137L;
     public static final UnlimitedDouble ONE = newInstance("1"),
             ZERO = newInstance("0");
-    private static final boolean debugmode = Boolean.parseBoolean(System
-            .getProperty("ud.debug")), negzeros = System.getProperty(
-            "ud.negzero", null) != null;
+    private static final boolean negzeros = System.getProperty("ud.negzero",
+            null) != null;
+    /**
+     * No rounding at all, for the internal exact operations
+     */
+    private static final MathContext NO_ROUNDING = new MathContext(0);
+    /**
+     * The precision used when none is given, 50 digits rounded half-even.
+     * Set the system property 'ud.precision' to change the digits.
+     */
+    public static final MathContext DEFAULT_CONTEXT = new MathContext(
+            Integer.getInteger("ud.precision", 50), RoundingMode.HALF_EVEN);
     /**
      * An empty UD for use anywhere you need a pure empty value (think of it as
      * 'null') <br>
@@ -49,18 +68,18 @@ public final class UnlimitedDouble extends Number implements
      * The methods that implement the comparison operators (>, <, >=, <=) are
      * undefined for this value.
      */
-    public static final UnlimitedDouble EMPTY = new UnlimitedDouble(
-            new ResizableArray<char[]>(char[].class, 0), 0, false);
+    public static final UnlimitedDouble EMPTY = new UnlimitedDouble(null, 0,
+            false);
 
     /**
-     * The digits, not including the decimal or negative.
+     * The magnitude limbs, least significant first, not including the decimal
+     * or negative. <tt>null</tt> only for {@link #EMPTY}.
      */
-    private final ResizableArray<char[]> digits;
+    private final int[] mag;
     /**
-     * The decimal place, inserted between <tt>decimal</tt> and
-     * <tt>decimal+1</tt>
+     * The amount of digits after the decimal place
      */
-    private final int decimal;
+    private final int scale;
 
     /**
      * If this UD is negative or not
@@ -68,53 +87,60 @@ public final class UnlimitedDouble extends Number implements
     private final boolean negative;
     /* Non-final to allow bypass in readObject */
     private UnlimitedDouble absolute;
+    /**
+     * Cached hash code, 0 if not computed yet
+     */
+    private transient int hash;
 
     public static UnlimitedDouble newInstance(String value) {
         return parse0(value);
     }
 
-    private UnlimitedDouble(UnlimitedDouble value) {
-        // clone digits so that we don't overwrite
-        value.digits.permitUndefined(false);
-        value.digits.trimToSize();
-        digits = value.digits.clone();
-        decimal = value.decimal;
-        negative = value.negative;
-        absolute = new UnlimitedDouble(digits, decimal, false);
-    }
-
-    private UnlimitedDouble(ResizableArray<char[]> dig, int dec, boolean neg) {
-        digits = dig;
-        decimal = dec;
+    private UnlimitedDouble(int[] limbs, int sc, boolean neg) {
+        mag = limbs;
+        scale = sc;
         negative = neg;
-        absolute = neg ? new UnlimitedDouble(digits, decimal, false) : this;
+        absolute = neg ? new UnlimitedDouble(mag, scale) : this;
     }
 
     /**
      * Absolute value creator
      * 
-     * @param dig
-     * @param dec
+     * @param limbs
+     * @param sc
      */
-    private UnlimitedDouble(ResizableArray<char[]> dig, int dec) {
-        digits = dig;
-        decimal = dec;
+    private UnlimitedDouble(int[] limbs, int sc) {
+        mag = limbs;
+        scale = sc;
         negative = false;
         absolute = this;
     }
 
     /* Private methods */
 
-    private int rtlDecimal() {
-        return digits.size() - decimal;
-    }
-
     @SuppressWarnings("unchecked")
     private void readObject(ObjectInputStream ois)
             throws ClassNotFoundException, IOException {
-        absolute = new UnlimitedDouble(
-                (ResizableArray<char[]>) ois.readObject(), ois.readInt(),
-                ois.readBoolean());
+        Object read = ois.readObject();
+        int sc = ois.readInt();
+        boolean neg = ois.readBoolean();
+        if (read instanceof ResizableArray) {
+            // older streams hold the ASCII digits and the decimal place
+            char[] chars = ((ResizableArray<char[]>) read).getArray();
+            if (chars.length == 0) {
+                absolute = EMPTY;
+                return;
+            }
+            String value = new String(chars, 0, sc);
+            if (sc < chars.length) {
+                value += "." + new String(chars, sc, chars.length - sc);
+            }
+            absolute = parse0(neg ? "-" + value : value);
+        } else if (read == null) {
+            absolute = EMPTY;
+        } else {
+            absolute = create((int[]) read, sc, neg);
+        }
     }
 
     private Object readResolve() {
@@ -122,48 +148,53 @@ public final class UnlimitedDouble extends Number implements
     }
 
     private void writeObject(ObjectOutputStream oos) throws IOException {
-        oos.writeObject(digits); // RAs are serializable
-        oos.writeInt(decimal);
+        oos.writeObject(mag); // arrays are serializable
+        oos.writeInt(scale);
         oos.writeBoolean(negative);
     }
 
     /* (private) Static methods */
 
-    private static String trimZeros(String value) {
-        if (value.matches(".+?\\.0+$")) {
-            value = value.replaceFirst("\\.0+$", "");
-        } else if (value.matches(".+?\\.\\d+0+$")) {
-            value = value.replaceFirst("(\\.\\d+)0+$", "$1");
-        }
-        return value.replaceFirst("^(\\-)?0+(?!0)(\\d+(\\.\\d+)?)$", "$1$2");
-    }
-
     /**
-     * Makes a and b's decimal place line up for adding and subtracting.
+     * Creates a normalized UD: leading zero limbs and trailing zeros after the
+     * decimal place are removed, and zero is only negative if the
+     * 'ud.negzero' property is set.
      * 
-     * @param a
-     *            - UD one
-     * @param b
-     *            - UD two
+     * @param limbs
+     *            - the magnitude, may be modified
+     * @param sc
+     *            - the scale
+     * @param neg
+     *            - if the value is negative
+     * @return the normalized UD
      */
-    private static void pad(UnlimitedDouble a, UnlimitedDouble b) {
-        int newDecimal = Math.max(a.rtlDecimal(), b.rtlDecimal());
-        int diff = newDecimal - Math.min(a.rtlDecimal(), b.rtlDecimal());
-        if (diff == 0) {
-            // no work needed, they are equal
-            return;
+    private static UnlimitedDouble create(int[] limbs, int sc, boolean neg) {
+        int len = Limbs.length(limbs);
+        if (len == 0) {
+            return new UnlimitedDouble(Limbs.NONE, 0, neg && negzeros);
         }
-        char[] chars = (char[]) BetterArrays.createAndFill(char.class, diff,
-                '0');
-        if (a.rtlDecimal() < newDecimal) {
-            a.digits.addAll(chars);
-        } else if (b.rtlDecimal() < newDecimal) {
-            b.digits.addAll(chars);
+        // count the trailing zeros, but only those after the decimal place
+        int strip = 0;
+        for (int i = 0; strip < sc; i++) {
+            int limb = limbs[i];
+            if (limb == 0) {
+                strip += LIMB_DIGITS;
+                continue;
+            }
+            while (limb % 10 == 0) {
+                strip++;
+                limb /= 10;
+            }
+            break;
         }
-        if (a.rtlDecimal() != b.rtlDecimal()) {
-            throw new IllegalStateException("Couldn't pad " + a + " to match "
-                    + b);
+        strip = Math.min(strip, sc);
+        if (strip > 0) {
+            limbs = Limbs.dividePow10(limbs, len, strip);
+            sc -= strip;
+        } else if (len != limbs.length) {
+            limbs = Arrays.copyOf(limbs, len);
         }
+        return new UnlimitedDouble(limbs, sc, neg);
     }
 
     /**
@@ -173,57 +204,288 @@ public final class UnlimitedDouble extends Number implements
      *            - the original string
      */
     private static UnlimitedDouble parse0(String value) {
-        if (Strings.count(value, '.') > 1) {
-            throw new NumberFormatException(value);
+        if ("undefined".equals(value)) {
+            return EMPTY;
         }
-        // value length is about the real size!
-        ResizableArray<char[]> dig = new ResizableArray<char[]>(char[].class,
-                value.length());
-        int dec = 0;
+        int length = value.length();
+        char[] dig = new char[length];
+        int count = 0, dec = -1;
         boolean neg = false;
-        if ("undefined".equals(value)) {
-            dec = EMPTY.decimal;
-            dig = EMPTY.digits;
-            neg = EMPTY.negative;
-        } else {
-            // remove the invalids
-            value = value.replace(new String(new char[] { 0 }), "");
-            // do this BEFORE decimal place check, otherwise it screws up.
-            value = trimZeros(value);
-            value = value.substring(((neg = value.charAt(0) == '-') ? 1 : 0));
-            // check for negatives, but do not include them
-            String withoutDec = value.replace(".", "");
-            // only digits
-            if (!withoutDec.matches("^\\d+$")) {
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                dig[count++] = c;
+            } else if (c == '.' && dec < 0) {
+                dec = count;
+            } else if (c == '-' && i == 0) {
+                // check for negatives, but do not include them
+                neg = true;
+            } else if (c != 0) {
+                // only digits, but the invalids are ignored
                 throw new NumberFormatException(value);
             }
-            dec = value.indexOf('.');
-            // convert string
-            dig = new ResizableArray<char[]>(withoutDec.toCharArray());
-            dig.permitUndefined(false);
-            // decimal place = length of digits when there is none
-            if (dec <= 0) {
-                dec = dig.size();
-            }
-            // if this == zero, then remove the negative (set property
-            // 'ud.negzero'
-            // for negative zeros :3)
-            if (!negzeros && neg && dig.get(0).equals('0')) {
-                neg = false;
+        }
+        if (count == 0) {
+            throw new NumberFormatException(value);
+        }
+        // convert string, nine digits per limb starting from the end
+        int[] limbs = new int[(count + LIMB_DIGITS - 1) / LIMB_DIGITS];
+        for (int i = 0, end = count; i < limbs.length; i++) {
+            int limb = 0;
+            for (int j = Math.max(0, end - LIMB_DIGITS); j < end; j++) {
+                limb = limb * 10 + (dig[j] - '0');
             }
+            limbs[i] = limb;
+            end -= LIMB_DIGITS;
+        }
+        return create(limbs, dec < 0 ? 0 : count - dec, neg);
+    }
+
+    /**
+     * Creates a UD from a magnitude with a possibly negative scale.
+     */
+    private static UnlimitedDouble fromScaled(int[] limbs, int sc,
+            boolean neg) {
+        if (sc < 0) {
+            return create(Limbs.multiplyPow10(limbs, -sc), 0, neg);
+        }
+        return create(limbs, sc, neg);
+    }
+
+    /**
+     * Drops the last <tt>drop</tt> digits of a magnitude, rounding with the
+     * given mode.
+     * 
+     * @param limbs
+     *            - the magnitude
+     * @param sc
+     *            - the scale of the magnitude
+     * @param neg
+     *            - if the value is negative
+     * @param drop
+     *            - the amount of digits to drop
+     * @param sticky
+     *            - if non-zero digits were already dropped below the
+     *            magnitude, only allowed if <tt>drop > 0</tt>
+     * @param mode
+     *            - the rounding mode
+     * @return the rounded value, with a scale of <tt>sc - drop</tt>
+     */
+    private static UnlimitedDouble roundDigits(int[] limbs, int sc,
+            boolean neg, int drop, boolean sticky, RoundingMode mode) {
+        if (drop <= 0) {
+            return fromScaled(limbs, sc, neg);
+        }
+        int[] den = Limbs.multiplyPow10(Limbs.ONE, drop);
+        int[][] qr = Limbs.divideAndRemainder(limbs, den);
+        int[] q = qr[0];
+        int half = Limbs.compare(Limbs.multiplySmall(qr[1], 2), den);
+        if (half == 0 && sticky) {
+            half = 1;
+        }
+        boolean inexact = sticky || qr[1].length != 0;
+        boolean odd = q.length != 0 && (q[0] & 1) != 0;
+        if (inexact && roundUp(mode, neg, odd, half)) {
+            q = Limbs.add(q, Limbs.ONE);
         }
-        return new UnlimitedDouble(dig, dec, neg);
+        return fromScaled(q, sc - drop, neg);
     }
 
     /**
-     * Used as a protected clone method, so that we can clone in our operations.
+     * Decides if an inexact magnitude should be rounded away from zero.
      * 
-     * @param clone
-     *            - the original
-     * @return a new clone
+     * @param half
+     *            - how the dropped part compares to one half
+     */
+    private static boolean roundUp(RoundingMode mode, boolean neg,
+            boolean odd, int half) {
+        switch (mode) {
+        case UP:
+            return true;
+        case DOWN:
+            return false;
+        case CEILING:
+            return !neg;
+        case FLOOR:
+            return neg;
+        case HALF_UP:
+            return half >= 0;
+        case HALF_DOWN:
+            return half > 0;
+        case HALF_EVEN:
+            return half > 0 || (half == 0 && odd);
+        default:
+            throw new ArithmeticException("Rounding necessary");
+        }
+    }
+
+    /**
+     * An estimate of <tt>log10(|this|)</tt>, this must not be zero.
+     */
+    private double log10Estimate() {
+        int used = Math.min(2, mag.length);
+        double top = 0;
+        for (int i = mag.length - 1; i >= mag.length - used; i--) {
+            top = top * Limbs.BASE + mag[i];
+        }
+        return Math.log10(top) + LIMB_DIGITS * (mag.length - used) - scale;
+    }
+
+    /**
+     * The square root of this, with one guard digit and the given rounding.
+     */
+    private UnlimitedDouble sqrt0(int sc, RoundingMode mode) {
+        if (negative && mag.length != 0) {
+            throw new ArithmeticException("Square root of a negative number");
+        }
+        // isqrt(this * 10^(2 * (sc + 1))) has sc + 1 digits after the decimal
+        int e = 2 * (sc + 1) - scale;
+        int[] n;
+        boolean sticky = false;
+        if (e >= 0) {
+            n = Limbs.multiplyPow10(mag, e);
+        } else {
+            int[][] qr = Limbs.divideAndRemainder(mag,
+                    Limbs.multiplyPow10(Limbs.ONE, -e));
+            n = qr[0];
+            sticky = qr[1].length != 0;
+        }
+        int[] root = Limbs.sqrt(n);
+        sticky |= Limbs.compare(Limbs.multiply(root, root), n) != 0;
+        return roundDigits(root, sc + 1, false, 1, sticky, mode);
+    }
+
+    /**
+     * <tt>this^n</tt> by squaring, rounding the partial products to the
+     * given context if it has a precision.
+     */
+    private UnlimitedDouble powInt(int n, MathContext mc) {
+        UnlimitedDouble result = ONE, base = this;
+        while (n > 0) {
+            if ((n & 1) != 0) {
+                result = result.multiply(base).round(mc);
+            }
+            n >>= 1;
+            if (n > 0) {
+                base = base.multiply(base).round(mc);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * If b is an integer that fits in an int.
+     */
+    private static boolean isSmallInt(UnlimitedDouble b) {
+        return !b.hasDecimal() && b.length() <= LIMB_DIGITS;
+    }
+
+    /**
+     * <tt>this^b</tt> as <tt>e^(b * ln(this))</tt>, with about
+     * <tt>sc + 1</tt> correct digits after the decimal place.
      */
-    static UnlimitedDouble privDup(UnlimitedDouble clone) {
-        return new UnlimitedDouble(clone);
+    private UnlimitedDouble powFraction(UnlimitedDouble b, int sc) {
+        if (mag.length == 0) {
+            if (b.negative) {
+                throw new ArithmeticException("Division by zero");
+            }
+            return ZERO;
+        }
+        if (negative) {
+            throw new ArithmeticException(
+                    "Fractional power of a negative number");
+        }
+        double l10 = b.doubleValue() * log10Estimate();
+        if (l10 > Integer.MAX_VALUE / 2) {
+            throw new ArithmeticException("Overflow");
+        }
+        // the exponent needs a digit for every integer digit of the result,
+        // and the log needs more for every integer digit of b
+        int ts = sc + (int) Math.max(0, Math.ceil(l10)) + 3;
+        int ls = ts + Math.max(0, b.length() - b.scale) + 1;
+        UnlimitedDouble t = b.multiply(ln(this, ls)).setScale(ts,
+                RoundingMode.HALF_EVEN);
+        return exp(t, sc + 1);
+    }
+
+    /**
+     * The natural log of a positive x. Takes square roots until x is close to
+     * one, then sums <tt>ln(y) = 2 * atanh((y - 1) / (y + 1))</tt>.
+     */
+    private static UnlimitedDouble ln(UnlimitedDouble x, int sc) {
+        if (x.lessThan(ONE)) {
+            // ln(x) = -ln(1 / x), 1 / x is large so its scale is plenty
+            return ln(ONE.divide(x, sc + 2, RoundingMode.HALF_EVEN), sc)
+                    .negate();
+        }
+        double est = x.log10Estimate() * Math.log(10);
+        int halvings = 0;
+        while (est > 0.01) {
+            est /= 2;
+            halvings++;
+        }
+        // every halving costs a little under a third of a digit
+        int w = sc + (halvings + 1) / 3 + 5;
+        UnlimitedDouble y = x;
+        for (int i = 0; i < halvings; i++) {
+            y = y.sqrt0(w, RoundingMode.HALF_EVEN);
+        }
+        UnlimitedDouble z = y.subtract(ONE).divide(y.add(ONE), w,
+                RoundingMode.HALF_EVEN);
+        UnlimitedDouble z2 = z.multiply(z).setScale(w, RoundingMode.HALF_EVEN);
+        UnlimitedDouble sum = z, term = z;
+        for (long k = 3;; k += 2) {
+            term = term.multiply(z2).setScale(w, RoundingMode.HALF_EVEN);
+            if (term.mag.length == 0) {
+                break;
+            }
+            sum = sum.add(term.divide(valueOf(k), w, RoundingMode.HALF_EVEN));
+        }
+        // undo the square roots, ln(x) = 2^halvings * ln(y)
+        return sum.multiply(valueOf(2).powInt(halvings + 1, NO_ROUNDING))
+                .setScale(sc, RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * e to the power of t. Halves t until it is small, sums the Taylor
+     * series and squares the result back up.
+     */
+    private static UnlimitedDouble exp(UnlimitedDouble t, int sc) {
+        if (t.mag.length == 0) {
+            return ONE;
+        }
+        if (t.negative) {
+            // e^t is at least one, so two guard digits cover the division
+            return ONE.divide(exp(t.negate(), sc + 2), sc,
+                    RoundingMode.HALF_EVEN);
+        }
+        double td = t.doubleValue();
+        if (td > Integer.MAX_VALUE) {
+            throw new ArithmeticException("Overflow");
+        }
+        int halvings = 0;
+        double est = td;
+        while (est > 0.001) {
+            est /= 2;
+            halvings++;
+        }
+        // the squaring multiplies the error by the result and 2^halvings
+        int w = sc + (int) Math.ceil(td / Math.log(10)) + halvings / 3 + 5;
+        UnlimitedDouble r = t.divide(valueOf(2).powInt(halvings, NO_ROUNDING),
+                w, RoundingMode.HALF_EVEN);
+        UnlimitedDouble sum = ONE, term = ONE;
+        for (long k = 1;; k++) {
+            term = term.multiply(r).divide(valueOf(k), w,
+                    RoundingMode.HALF_EVEN);
+            if (term.mag.length == 0) {
+                break;
+            }
+            sum = sum.add(term);
+        }
+        for (int i = 0; i < halvings; i++) {
+            sum = sum.multiply(sum).setScale(w, RoundingMode.HALF_EVEN);
+        }
+        return sum.setScale(sc, RoundingMode.HALF_EVEN);
     }
 
     /* Public methods */
@@ -235,48 +497,20 @@ public final class UnlimitedDouble extends Number implements
         if (equals(EMPTY)) {
             return b;
         }
-        // don't use originals, we align the char arrays ourselves in pad()
-        UnlimitedDouble a = privDup(this);
-        b = privDup(b);
-        pad(a, b);
-        UnlimitedDouble result = privDup(EMPTY), larger = max(a, b);
-        // get the matching array for the numbers. uses getUnderlying due to
-        // increased speed. We don't mod the original number arrays, they are
-        // reversed into a new array. trimToSize is required here.
-        a.digits.trimToSize();
-        b.digits.trimToSize();
-        char[] caa = a.digits.getUnderlyingArray(), cab = b.digits
-                .getUnderlyingArray();
-        // create the array used to carry numbers
-        byte[] carry = new byte[larger.length() + 1];
-        ResizableArray<char[]> res = result.digits;
-        caa = BetterArrays.reverseNonGeneric(caa);
-        cab = BetterArrays.reverseNonGeneric(cab);
-        int length = larger.length();
-        for (int i = 0; i < length; i++) {
-            byte ai = 0, bi = 0, over = carry[i];
-            if (i < caa.length) {
-                ai = Strings.getNumForChar(caa[i]);
-            }
-            if (i < cab.length) {
-                bi = Strings.getNumForChar(cab[i]);
-            }
-            int ires = ai + bi + over;
-            char[] cres = String.valueOf(ires).toCharArray();
-            if (cres.length > 1) {
-                carry[i + 1] = Strings.getNumForChar(cres[0]);
-                res.add(cres[1]);
-            } else {
-                res.add(cres[0]);
-            }
+        // line up the decimal places, we don't mod the original limbs
+        int sc = Math.max(scale, b.scale);
+        int[] x = Limbs.multiplyPow10(mag, sc - scale);
+        int[] y = Limbs.multiplyPow10(b.mag, sc - b.scale);
+        if (negative == b.negative) {
+            return create(Limbs.add(x, y), sc, negative);
         }
-        if (carry[carry.length - 1] != 0) {
-            res.add(Strings.getCharForNum(carry[carry.length - 1]));
+        // differing signs, subtract the smaller magnitude from the larger
+        int cmp = Limbs.compare(x, y);
+        if (cmp == 0) {
+            return zero();
         }
-        res.reverse();
-        result = new UnlimitedDouble(res, res.size() - a.rtlDecimal(),
-                result.negative);
-        return result;
+        return cmp > 0 ? create(Limbs.subtract(x, y), sc, negative) : create(
+                Limbs.subtract(y, x), sc, b.negative);
     }
 
     public UnlimitedDouble subtract(UnlimitedDouble b) {
@@ -297,24 +531,9 @@ public final class UnlimitedDouble extends Number implements
         if (equals(EMPTY)) {
             return b;
         }
-        UnlimitedDouble a = this;
-        UnlimitedDouble result = zero();
-        // unsupported as of now
-        if (b.hasDecimal()) {
-            return UnlimitedDouble.parseUD(Double.toString(Double.parseDouble(a
-                    .toString()) * Double.parseDouble(b.toString())));
-        }
-        boolean sign = a.negative == b.negative; // true = (+); false = (-)
-        a = a.abs();
-        b = b.abs();
-        // extremely inefficient way to multiply...multiplying is repeated
-        // addition, right?
-        UnlimitedDouble counter = zero();
-        while (counter.lessThan(b)) {
-            result = result.add(a);
-            counter = counter.add(one());
-        }
-        return new UnlimitedDouble(result.digits, result.decimal, !sign);
+        // the scales add up, the algorithm is picked by operand size
+        return create(Limbs.multiply(mag, b.mag), scale + b.scale,
+                negative != b.negative);
     }
 
     public UnlimitedDouble pow(UnlimitedDouble b) {
@@ -322,14 +541,268 @@ public final class UnlimitedDouble extends Number implements
             return one();
         }
         if (this.equals(ZERO)) {
+            if (b.negative) {
+                throw new ArithmeticException("Division by zero");
+            }
             return zero();
         }
         if (b.equals(ONE)) {
-            return privDup(this);
+            return this;
+        }
+        if (isSmallInt(b) && !b.negative) {
+            // fits in an int, exponentiation by squaring
+            return powInt(b.intValue(), NO_ROUNDING);
+        }
+        return pow(b, DEFAULT_CONTEXT);
+    }
+
+    /**
+     * Returns <tt>this^b</tt> with <tt>scale</tt> digits after the decimal
+     * place, rounded half-even. Integer exponents use exponentiation by
+     * squaring, fractional exponents are computed as
+     * <tt>e^(b * ln(this))</tt>.
+     * 
+     * @param b
+     *            - the exponent
+     * @param scale
+     *            - the digits after the decimal place
+     * @return <tt>this^b</tt>
+     * @throws ArithmeticException
+     *             if this is negative and b is not an integer, or this is
+     *             zero and b is negative
+     */
+    public UnlimitedDouble pow(UnlimitedDouble b, int scale) {
+        if (b.equals(EMPTY)) {
+            return this;
+        }
+        if (equals(EMPTY)) {
+            return b;
+        }
+        if (isSmallInt(b)) {
+            UnlimitedDouble result = powInt(b.abs().intValue(), NO_ROUNDING);
+            return b.negative ? ONE.divide(result, scale,
+                    RoundingMode.HALF_EVEN) : result.setScale(scale,
+                    RoundingMode.HALF_EVEN);
+        }
+        return powFraction(b, scale).setScale(scale, RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * Returns <tt>this^b</tt> rounded to the given context. The partial
+     * products of integer exponents are rounded to a few more digits than
+     * the context asks for, so large exponents don't compute digits that are
+     * thrown away.
+     * 
+     * @param b
+     *            - the exponent
+     * @param mc
+     *            - the precision and rounding
+     * @return <tt>this^b</tt>
+     * @throws ArithmeticException
+     *             if this is negative and b is not an integer, or this is
+     *             zero and b is negative
+     */
+    public UnlimitedDouble pow(UnlimitedDouble b, MathContext mc) {
+        if (b.equals(EMPTY)) {
+            return this;
+        }
+        if (equals(EMPTY)) {
+            return b;
+        }
+        if (isSmallInt(b)) {
+            int n = b.abs().intValue();
+            MathContext work = mc.getPrecision() == 0 ? mc : new MathContext(
+                    mc.getPrecision() + Integer.toString(n).length() + 3,
+                    RoundingMode.HALF_EVEN);
+            UnlimitedDouble result = powInt(n, work);
+            return b.negative ? ONE.divide(result, mc) : result.round(mc);
+        }
+        if (mag.length == 0 || negative) {
+            // let powFraction throw or return zero
+            return powFraction(b, 0);
+        }
+        // the result has about b * log10(this) integer digits
+        int adjusted = (int) Math.floor(b.doubleValue() * log10Estimate());
+        int sc = mc.getPrecision() - 1 - adjusted + 2;
+        return powFraction(b, sc).round(mc);
+    }
+
+    /**
+     * Returns <tt>this / b</tt> with <tt>scale</tt> digits after the decimal
+     * place. The division uses a Newton-Raphson reciprocal, so it only costs
+     * a few multiplications.
+     * 
+     * @param b
+     *            - the divisor
+     * @param scale
+     *            - the digits after the decimal place, negative to round to
+     *            tens, hundreds, ...
+     * @param mode
+     *            - the rounding mode
+     * @return <tt>this / b</tt>
+     * @throws ArithmeticException
+     *             if b is zero, or mode is {@link RoundingMode#UNNECESSARY}
+     *             and the result isn't exact
+     */
+    public UnlimitedDouble divide(UnlimitedDouble b, int scale,
+            RoundingMode mode) {
+        if (b.equals(EMPTY)) {
+            return this;
+        }
+        if (equals(EMPTY)) {
+            return b;
+        }
+        if (b.mag.length == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        // one guard digit, so the rounding can see the next digit
+        int shift = scale + 1 - this.scale + b.scale;
+        int[] num = mag, den = b.mag;
+        if (shift >= 0) {
+            num = Limbs.multiplyPow10(num, shift);
+        } else {
+            den = Limbs.multiplyPow10(den, -shift);
+        }
+        int[][] qr = Limbs.divideAndRemainder(num, den);
+        return roundDigits(qr[0], scale + 1, negative != b.negative, 1,
+                qr[1].length != 0, mode);
+    }
+
+    /**
+     * Returns <tt>this / b</tt> rounded to the given context.
+     * 
+     * @param b
+     *            - the divisor
+     * @param mc
+     *            - the precision and rounding, the precision can't be 0
+     * @return <tt>this / b</tt>
+     * @throws ArithmeticException
+     *             if b is zero
+     * @throws IllegalArgumentException
+     *             if the context has no precision
+     */
+    public UnlimitedDouble divide(UnlimitedDouble b, MathContext mc) {
+        if (mc.getPrecision() == 0) {
+            throw new IllegalArgumentException(
+                    "Division needs a precision, " + mc);
+        }
+        if (b.equals(EMPTY)) {
+            return this;
+        }
+        if (equals(EMPTY)) {
+            return b;
+        }
+        if (b.mag.length == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        if (mag.length == 0) {
+            return ZERO;
+        }
+        // the quotient has one less integer digit if this' digits are
+        // smaller than b's digits
+        int pa = precision(), pb = b.precision();
+        int cmp = pa >= pb ? Limbs.compareScaled(mag, b.mag, pa - pb)
+                : -Limbs.compareScaled(b.mag, mag, pb - pa);
+        int adjusted = (pa - scale) - (pb - b.scale) - (cmp < 0 ? 1 : 0);
+        return divide(b, mc.getPrecision() - 1 - adjusted,
+                mc.getRoundingMode());
+    }
+
+    /**
+     * Returns the square root of this with <tt>scale</tt> digits after the
+     * decimal place, truncated.
+     * 
+     * @param scale
+     *            - the digits after the decimal place
+     * @return <tt>sqrt(this)</tt>
+     * @throws ArithmeticException
+     *             if this is negative
+     */
+    public UnlimitedDouble sqrt(int scale) {
+        if (equals(EMPTY)) {
+            return this;
+        }
+        return sqrt0(scale, RoundingMode.DOWN);
+    }
+
+    /**
+     * Returns the square root of this rounded to the given context.
+     * 
+     * @param mc
+     *            - the precision and rounding, the precision can't be 0
+     * @return <tt>sqrt(this)</tt>
+     * @throws ArithmeticException
+     *             if this is negative
+     * @throws IllegalArgumentException
+     *             if the context has no precision
+     */
+    public UnlimitedDouble sqrt(MathContext mc) {
+        if (mc.getPrecision() == 0) {
+            throw new IllegalArgumentException("sqrt needs a precision, "
+                    + mc);
+        }
+        if (equals(EMPTY) || mag.length == 0) {
+            return this;
+        }
+        // the root has half the integer digits, rounded towards -infinity
+        int adjusted = precision() - scale - 1;
+        int rootAdjusted = adjusted >= 0 ? adjusted / 2 : -((1 - adjusted) / 2);
+        return sqrt0(mc.getPrecision() - 1 - rootAdjusted,
+                mc.getRoundingMode());
+    }
+
+    /**
+     * Returns this with at most <tt>scale</tt> digits after the decimal
+     * place. Values are normalized, so this never adds zeros.
+     * 
+     * @param scale
+     *            - the digits after the decimal place, negative to round to
+     *            tens, hundreds, ...
+     * @param mode
+     *            - the rounding mode
+     * @return the rounded value
+     */
+    public UnlimitedDouble setScale(int scale, RoundingMode mode) {
+        if (equals(EMPTY) || scale >= this.scale) {
+            return this;
+        }
+        return roundDigits(mag, this.scale, negative, this.scale - scale,
+                false, mode);
+    }
+
+    /**
+     * Returns this rounded to the precision of the given context. A
+     * precision of 0 doesn't round.
+     * 
+     * @param mc
+     *            - the precision and rounding
+     * @return the rounded value
+     */
+    public UnlimitedDouble round(MathContext mc) {
+        int drop = precision() - mc.getPrecision();
+        if (equals(EMPTY) || mc.getPrecision() == 0 || drop <= 0) {
+            return this;
         }
-        return UnlimitedDouble.parseUD(Double.toString(Math.pow(
-                Double.parseDouble(this.toString()),
-                Double.parseDouble(b.toString()))));
+        return roundDigits(mag, scale, negative, drop, false,
+                mc.getRoundingMode());
+    }
+
+    /**
+     * The number of significant digits, 1 for zero.
+     * 
+     * @return the amount of digits without leading zeros
+     */
+    public int precision() {
+        return mag == null ? 0 : Math.max(1, Limbs.digits(mag));
+    }
+
+    /**
+     * The number of digits after the decimal place.
+     * 
+     * @return the scale of this number
+     */
+    public int scale() {
+        return scale;
     }
 
     public UnlimitedDouble abs() {
@@ -390,7 +863,7 @@ public final class UnlimitedDouble extends Number implements
      * @return if this number has a decimal point
      */
     public boolean hasDecimal() {
-        return decimal != digits.size() || decimal != 0;
+        return scale > 0;
     }
 
     /**
@@ -399,7 +872,10 @@ public final class UnlimitedDouble extends Number implements
      * @return the amount of digits in this number
      */
     public int length() {
-        return digits.size();
+        if (mag == null) {
+            return 0;
+        }
+        return Math.max(precision(), scale + 1);
     }
 
     /**
@@ -408,7 +884,11 @@ public final class UnlimitedDouble extends Number implements
      * @return <tt>this</tt> * -1
      */
     public UnlimitedDouble negate() {
-        return new UnlimitedDouble(digits, decimal, !negative);
+        if (mag == null) {
+            return this;
+        }
+        return new UnlimitedDouble(mag, scale, !negative
+                && (negzeros || mag.length != 0));
     }
 
     /**
@@ -418,7 +898,7 @@ public final class UnlimitedDouble extends Number implements
      */
     public String intPart() {
         String toStr = toString();
-        if (toStr.equals("undefined") || decimal >= digits.size()) {
+        if (toStr.equals("undefined") || scale == 0) {
             return toStr;
         }
         return toStr.substring(0, toStr.indexOf('.'));
@@ -429,152 +909,40 @@ public final class UnlimitedDouble extends Number implements
     /**
      * 
      * This is used by greaterThan and lessThan because it returns 1 for
-     * <tt>y</tt> > <tt>this</tt>, 0 for equal, and -1 for <tt>y</tt> <
-     * <tt>this</tt> If you have a error regarding the function, please set the
-     * system property 'ud.debug' to <tt>true</tt>. <br>
+     * <tt>this</tt> > <tt>y</tt>, 0 for equal, and -1 for <tt>this</tt> <
+     * <tt>y</tt>.<br>
      * <br>
-     * This should be used instead of equals because numbers with 0's in their
-     * decimal places do not equal integers via {@link #equals(Object)}, but do
-     * via <tt>compareTo</tt>.<br>
+     * Values are normalized, so this is a sign check, a digit count check
+     * and at most one scan over the limbs. It doesn't allocate anything.<br>
      * <br>
      * From {@link Comparable#compareTo(Object)}: <br>
      * {@inheritDoc}
      */
     @Override
     public int compareTo(UnlimitedDouble y) {
-        UnlimitedDouble x = this;
-        // must trim zeros before compare, or it breaks SEVERLEY
-        // but don't mod the originals, that can cause repercussions
-        String before = x.toString();
-        x = parse0(before);
-        if (!before.equals(x.toString()) && debugmode) {
-            System.err
-                    .println("If you are getting bad results, compareTo is broken here. DEBUG: "
-                            + before + " changed to " + x);
-            Thread.dumpStack();
-        }
-        before = y.toString();
-        y = parse0(before);
-        if (!before.equals(y.toString()) && debugmode) {
-            System.err
-                    .println("If you are getting bad results, compareTo is broken here. DEBUG: "
-                            + before + " changed to " + y);
-            Thread.dumpStack();
-        }
-        // bdx = before x's decimal
-        // bdy before y's decimal
-        // adx = after x's decimal
-        // ady = after y's decimal
-        char[] bdx = new char[x.length()], bdy = new char[y.length()], adx = new char[0], ady = new char[0];
-        // read decimal
-        if (x.hasDecimal()) {
-            bdx = new char[x.decimal];
-            adx = new char[x.rtlDecimal()];
-            for (int i = 0; i < bdx.length; i++) {
-                bdx[i] = (Character) x.digits.get(i);
-            }
-            for (int i = 0; i < adx.length; i++) {
-                adx[i] = (Character) x.digits.get(x.decimal - 1 + i);
-            }
-        } else {
-            for (int i = 0; i < bdx.length; i++) {
-                bdx[i] = (Character) x.digits.get(i);
-            }
-        }
-        if (y.hasDecimal()) {
-            bdy = new char[y.decimal];
-            ady = new char[y.rtlDecimal()];
-            for (int i = 0; i < bdy.length; i++) {
-                bdy[i] = (Character) y.digits.get(i);
-            }
-            for (int i = 0; i < ady.length; i++) {
-                ady[i] = (Character) y.digits.get(y.decimal - 1 + i);
-            }
-        } else {
-            for (int i = 0; i < bdy.length; i++) {
-                bdy[i] = (Character) y.digits.get(i);
-            }
-        }
-        // test non-decimal bits
-        if (bdx.length > bdy.length) {
-            return 1;
-        } else if (bdx.length < bdy.length) {
-            return -1;
-        }
-        int solved = 2; // 2 because 0 means equal
-        int index = 0;
-        while (solved == 2 && index < bdx.length) {
-            if (bdx[index] != bdy[index]) {
-                // read the char as a number, byte is the smallest way to do
-                // this
-                try {
-                    byte bx = Byte.parseByte(String.valueOf(bdx[index])), by = Byte
-                            .parseByte(String.valueOf(bdy[index]));
-
-                    if (bx > by) {
-                        solved = 1;
-                    } else if (bx == by) {
-                        solved = 2;
-                    } else if (bx < by) {
-                        solved = -1;
-                    }
-                } catch (NumberFormatException nfe) {
-                    return nfe.hashCode();
-                }
-            } else {
-                solved = 2;
-            }
-            index++;
-        }
-        // we just ran out of digits, the numbers are equal integers
-        if (solved == 2) {
-            // test decimal bits
-            if (adx.length > ady.length) {
-                return 1;
-            } else if (adx.length < ady.length) {
-                return -1;
-            }
-            index = 0;
-            while (solved == 2 && index < adx.length) {
-                if (adx[index] != ady[index]) {
-                    // read the char as a number, byte is the smallest way to do
-                    // this
-                    try {
-                        byte bx = Byte.parseByte(String.valueOf(adx[index])), by = Byte
-                                .parseByte(String.valueOf(ady[index]));
-                        if (bx > by) {
-                            solved = 1;
-                        } else if (bx == by) {
-                            solved = 2;
-                        } else if (bx < by) {
-                            solved = -1;
-                        }
-                    } catch (NumberFormatException nfe) {
-                        return nfe.hashCode();
-                    }
-                } else {
-                    solved = 2;
-                }
-                index++;
+        int[] xm = mag == null ? Limbs.NONE : mag;
+        int[] ym = y.mag == null ? Limbs.NONE : y.mag;
+        if (negative != y.negative) {
+            if (xm.length == 0 && ym.length == 0) {
+                // negative zero
+                return 0;
             }
+            return negative ? -1 : 1;
         }
-        // equal!!!
-        if (solved == 2) {
-            solved = 0;
-        }
-        return solved;
+        // line up the decimal places without scaling either value
+        int cmp = scale >= y.scale ? Limbs.compareScaled(xm, ym, scale
+                - y.scale) : -Limbs.compareScaled(ym, xm, y.scale - scale);
+        return negative ? -cmp : cmp;
     }
 
     /**
      * The compare speed for this method depends on the state of the objects:<br>
      * If <tt>this.negative != obj.negative</tt>, then it is a quick boolean
      * compare.<br>
-     * Otherwise, if <tt>this.decimal != obj.decimal</tt>, then it is a quick
+     * Otherwise, if <tt>this.scale != obj.scale</tt>, then it is a quick
      * boolean and int compare.<br>
-     * Otherwise, if <tt>this.digits.size() != obj.digits.size()</tt>, then it
-     * is a bool-int-int compare.<br>
-     * Otherwise, it takes more time depending on the size of <tt>digits</tt>
-     * due to the nature of {@link ResizableArray#equals(Object)}<br>
+     * Otherwise, it takes more time depending on the amount of limbs. Values
+     * are normalized, so equal numbers always have equal limbs.<br>
      * {@inheritDoc}
      */
     @Override
@@ -584,18 +952,21 @@ public final class UnlimitedDouble extends Number implements
             // order matters here! booleans compare faster than ints which
             // compare faster than arrays, so fall-through ensures that it is
             // efficient
-            return ud.negative == negative && ud.decimal == ud.decimal
-                    && ud.digits.size() == digits.size()
-                    && ud.digits.equals(digits);
+            return ud.negative == negative && ud.scale == scale
+                    && Arrays.equals(ud.mag, mag);
         }
         return super.equals(obj);
     }
 
     @Override
     public int hashCode() {
-        // use toString() because strings follow the proper contract for our
-        // equals method
-        return toString().hashCode();
+        // values are normalized, so equal values have equal fields
+        int h = hash;
+        if (h == 0) {
+            h = (Arrays.hashCode(mag) * 31 + scale) * 31 + (negative ? 1 : 0);
+            hash = h;
+        }
+        return h;
     }
 
     @Override
@@ -603,14 +974,25 @@ public final class UnlimitedDouble extends Number implements
         if (equals(EMPTY)) {
             return "undefined";
         }
-        ResizableArray<char[]> copy = digits.clone();
-        if (digits.size() > decimal) {
-            copy.add(decimal, '.');
-        }
+        char[] dig = Limbs.toDigits(mag);
+        StringBuilder out = new StringBuilder(dig.length + scale + 3);
         if (negative) {
-            copy.add(0, '-');
+            out.append('-');
         }
-        return new String((char[]) copy.getArray());
+        if (scale == 0) {
+            out.append(dig);
+        } else if (dig.length > scale) {
+            int dec = dig.length - scale;
+            out.append(dig, 0, dec).append('.').append(dig, dec, scale);
+        } else {
+            // pure decimal, pad with zeros
+            out.append("0.");
+            for (int i = dig.length; i < scale; i++) {
+                out.append('0');
+            }
+            out.append(dig);
+        }
+        return out.toString();
     }
 
     /* (public) Static methods */
@@ -619,6 +1001,24 @@ public final class UnlimitedDouble extends Number implements
         return newInstance(s);
     }
 
+    /**
+     * Returns the given integer as a UD, without going through a string.
+     * 
+     * @param value
+     *            - the integer
+     * @return an {@link UnlimitedDouble} containing the value
+     */
+    public static UnlimitedDouble valueOf(long value) {
+        if (value == Long.MIN_VALUE) {
+            // can't be negated
+            return newInstance(Long.toString(value));
+        }
+        long abs = Math.abs(value);
+        return create(new int[] { (int) (abs % Limbs.BASE),
+                (int) (abs / Limbs.BASE % Limbs.BASE),
+                (int) (abs / Limbs.BASE / Limbs.BASE) }, 0, value < 0);
+    }
+
     /**
      * Attempts to parse the given value. Tries the {@link Object#toString()}
      * method to get a valid string, and if it can be parsed it will be used.
@@ -631,7 +1031,8 @@ public final class UnlimitedDouble extends Number implements
      */
     public static UnlimitedDouble valueOf(Object value) {
         if (value instanceof UnlimitedDouble) {
-            return new UnlimitedDouble((UnlimitedDouble) value);
+            // immutable, no need to copy
+            return (UnlimitedDouble) value;
         }
         return newInstance(String.valueOf(value));
     }
@@ -0,0 +1,221 @@
+package k.core.util.netty;
+
+import static k.core.util.netty.DataStruct.*;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.CharsetUtil;
+
+/**
+ * The {@link DataStructCodec#BINARY} codec. The layout is a varint value
+ * count, then for each value one of the {@link DataStruct} type keys as a
+ * byte followed by:
+ * <ul>
+ * <li><tt>int</tt>, <tt>long</tt>: a zig-zag varint, so small negative
+ * numbers stay small</li>
+ * <li><tt>float</tt>, <tt>double</tt>, <tt>char</tt>, <tt>byte</tt>,
+ * <tt>boolean</tt>: the raw big endian bytes</li>
+ * <li><tt>String</tt>: a varint byte length and the UTF-8 bytes</li>
+ * <li>anything else: the class name and its Gson JSON, as two strings</li>
+ * <li><tt>null</tt>: nothing</li>
+ * </ul>
+ * Unlike {@link DataStructCodec#TEXT}, a <tt>char</tt> comes back as a
+ * {@link Character} and <tt>null</tt> comes back as <tt>null</tt>.
+ *
+ * @author Kenzie Togami
+ *
+ */
+class BinaryDataStructCodec implements DataStructCodec {
+    @Override
+    public void encode(DataStruct ds, ByteBuf out) {
+        Object[] values = ds.getAll();
+        writeVarInt(out, values.length);
+        for (Object o : values) {
+            encode(o, out);
+        }
+    }
+
+    private void encode(Object o, ByteBuf out) {
+        if (o == null) {
+            out.writeByte(KEY_NULL);
+            return;
+        }
+        Class<?> oc = o.getClass();
+        if (oc == Boolean.class) {
+            out.writeByte(KEY_BOOL);
+            out.writeBoolean((Boolean) o);
+        } else if (oc == Byte.class) {
+            out.writeByte(KEY_BYTE);
+            out.writeByte((Byte) o);
+        } else if (oc == Character.class) {
+            out.writeByte(KEY_CHAR);
+            out.writeChar((Character) o);
+        } else if (oc == Double.class) {
+            out.writeByte(KEY_DOUBLE);
+            out.writeDouble((Double) o);
+        } else if (oc == Float.class) {
+            out.writeByte(KEY_FLOAT);
+            out.writeFloat((Float) o);
+        } else if (oc == Integer.class) {
+            out.writeByte(KEY_INT);
+            int i = (Integer) o;
+            writeVarInt(out, (i << 1) ^ (i >> 31));
+        } else if (oc == Long.class) {
+            out.writeByte(KEY_LONG);
+            long l = (Long) o;
+            writeVarLong(out, (l << 1) ^ (l >> 63));
+        } else if (oc == String.class) {
+            out.writeByte(KEY_STRING);
+            writeString(out, (String) o);
+        } else {
+            out.writeByte(KEY_OTHER);
+            writeString(out, oc.getName());
+            writeString(out, GSON.toJson(o));
+        }
+    }
+
+    @Override
+    public DataStruct decode(ByteBuf in) {
+        try {
+            return decodeValues(in);
+        } catch (IndexOutOfBoundsException e) {
+            throw new CorruptedFrameException("ran out of data", e);
+        }
+    }
+
+    private DataStruct decodeValues(ByteBuf in) {
+        int count = readVarInt(in);
+        // every value is at least one byte
+        if (count < 0 || count > in.readableBytes()) {
+            throw new CorruptedFrameException("bad value count " + count);
+        }
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = decodeValue(in);
+        }
+        return new DataStruct(values);
+    }
+
+    private Object decodeValue(ByteBuf in) {
+        char key = (char) in.readUnsignedByte();
+        switch (key) {
+        case KEY_NULL:
+            return null;
+        case KEY_BOOL:
+            return in.readBoolean();
+        case KEY_BYTE:
+            return in.readByte();
+        case KEY_CHAR:
+            return in.readChar();
+        case KEY_DOUBLE:
+            return in.readDouble();
+        case KEY_FLOAT:
+            return in.readFloat();
+        case KEY_INT:
+            int i = readVarInt(in);
+            return (i >>> 1) ^ -(i & 1);
+        case KEY_LONG:
+            long l = readVarLong(in);
+            return (l >>> 1) ^ -(l & 1);
+        case KEY_STRING:
+            return readString(in);
+        case KEY_OTHER:
+            return decodeOther(readString(in), readString(in));
+        default:
+            throw new CorruptedFrameException("bad key " + (int) key);
+        }
+    }
+
+    /**
+     * Writes an unsigned varint, 7 bits per byte with the high bit set on all
+     * but the last byte.
+     *
+     * @param out
+     *            - the buffer to write to
+     * @param value
+     *            - the value, treated as unsigned
+     */
+    static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads a varint written by {@link #writeVarInt(ByteBuf, int)}.
+     *
+     * @param in
+     *            - the buffer to read from
+     * @return the value
+     * @throws CorruptedFrameException
+     *             if the varint is longer than 5 bytes
+     */
+    static int readVarInt(ByteBuf in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("varint too long");
+    }
+
+    static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(ByteBuf in) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("varlong too long");
+    }
+
+    /**
+     * Writes a varint byte length and the UTF-8 bytes of <tt>s</tt>. ASCII
+     * strings are written straight into the buffer.
+     *
+     * @param out
+     *            - the buffer to write to
+     * @param s
+     *            - the string
+     */
+    static void writeString(ByteBuf out, String s) {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) >= 0x80) {
+                byte[] utf8 = s.getBytes(CharsetUtil.UTF_8);
+                writeVarInt(out, utf8.length);
+                out.writeBytes(utf8);
+                return;
+            }
+        }
+        writeVarInt(out, len);
+        out.ensureWritable(len);
+        for (int i = 0; i < len; i++) {
+            out.writeByte(s.charAt(i));
+        }
+    }
+
+    static String readString(ByteBuf in) {
+        int len = readVarInt(in);
+        if (len < 0 || len > in.readableBytes()) {
+            throw new CorruptedFrameException("bad string length " + len);
+        }
+        String s = in.toString(in.readerIndex(), len, CharsetUtil.UTF_8);
+        in.skipBytes(len);
+        return s;
+    }
+}
@@ -0,0 +1,250 @@
+package k.core.util.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * A large payload being received from the other end of a connection, sent
+ * with <tt>sendFile</tt> or <tt>sendBlob</tt> on a {@link Session} or
+ * {@link NetHandlerClient}. The data is read as it arrives, without waiting
+ * for the rest of it.
+ * <br>
+ * <br>
+ * At most {@link #BUFFER_BYTES} are held for a blob that isn't read; past
+ * that the connection stops reading until the blob is read, which in turn
+ * slows down the sender. Packets on the same connection wait too, so blobs
+ * should be read promptly, or closed.
+ *
+ * @author Kenzie Togami
+ *
+ */
+public final class Blob implements ReadableByteChannel {
+    /**
+     * How much received data is held for a blob before the connection stops
+     * reading, set by the <tt>packet.blobBufferBytes</tt> property.
+     */
+    static final int BUFFER_BYTES = Integer.getInteger(
+            "packet.blobBufferBytes", 1 << 20);
+
+    private final int id;
+    private final String name;
+    private final long length;
+    private final Channel channel;
+    private final ReadGate gate;
+    /*
+     * Only used on the event loop.
+     */
+    private long received = 0;
+    /*
+     * The rest is guarded by this.
+     */
+    private final Queue<ByteBuf> chunks = new ArrayDeque<ByteBuf>();
+    private long buffered = 0;
+    private long read = 0;
+    private boolean suspended = false;
+    private boolean closed = false;
+    private IOException failure;
+
+    Blob(int id, String name, long length, Channel channel) {
+        this.id = id;
+        this.name = name;
+        this.length = length;
+        this.channel = channel;
+        gate = ReadGate.of(channel);
+    }
+
+    /**
+     * Gets the id of this blob. Ids are only unique among the blobs on one
+     * connection.
+     *
+     * @return the id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the name the sender gave this blob, the file name for
+     * <tt>sendFile</tt>.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the size of this blob.
+     *
+     * @return the length in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets how much of this blob has been read so far.
+     *
+     * @return the bytes read
+     */
+    public synchronized long getRead() {
+        return read;
+    }
+
+    /**
+     * Reads the next bytes of the blob, waiting for them to arrive if none
+     * have yet. Can't wait on the channel's event loop, since that is what
+     * receives them.
+     *
+     * @return the bytes read, or -1 once the whole blob has been read
+     * @throws IOException
+     *             if the connection closed or the sender gave up before the
+     *             end of the blob
+     * @throws IllegalStateException
+     *             if it would wait on the event loop
+     */
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        // closing empties the chunks
+        while (chunks.isEmpty()) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (read == length) {
+                return -1;
+            }
+            if (failure != null) {
+                throw new IOException("blob " + name + " failed after "
+                        + read + " of " + length + " bytes", failure);
+            }
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            if (channel.eventLoop().inEventLoop()) {
+                throw new IllegalStateException(
+                        "can't wait for a blob on its event loop");
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new ClosedByInterruptException();
+            }
+        }
+        int n = 0;
+        while (dst.hasRemaining() && !chunks.isEmpty()) {
+            ByteBuf chunk = chunks.peek();
+            int k = Math.min(chunk.readableBytes(), dst.remaining());
+            int limit = dst.limit();
+            dst.limit(dst.position() + k);
+            chunk.readBytes(dst);
+            dst.limit(limit);
+            n += k;
+            if (!chunk.isReadable()) {
+                chunks.poll().release();
+            }
+        }
+        buffered -= n;
+        read += n;
+        if (suspended && buffered <= BUFFER_BYTES / 2) {
+            resume();
+        }
+        return n;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Stops reading this blob. Anything not read yet is thrown away, and the
+     * rest of it is skipped as it arrives.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        releaseChunks();
+        if (suspended) {
+            resume();
+        }
+        notifyAll();
+    }
+
+    /*
+     * Suspending and resuming both happen under the lock, so they can't
+     * pass each other and leave the channel stopped. The channel only reads
+     * again if nothing else has it stopped too.
+     */
+    private void resume() {
+        suspended = false;
+        gate.resume(this);
+    }
+
+    /**
+     * Gets how much of this blob has arrived. Only call on the event loop.
+     */
+    long getReceived() {
+        return received;
+    }
+
+    /**
+     * Adds the next chunk of data, and stops the channel reading if too much
+     * is waiting to be read. Only call on the event loop.
+     *
+     * @param chunk
+     *            - the data, released once read
+     */
+    synchronized void offer(ByteBuf chunk) {
+        received += chunk.readableBytes();
+        if (closed) {
+            chunk.release();
+            return;
+        }
+        buffered += chunk.readableBytes();
+        chunks.add(chunk);
+        notifyAll();
+        if (buffered > BUFFER_BYTES && !suspended) {
+            suspended = true;
+            gate.suspend(this);
+        }
+    }
+
+    /**
+     * Fails the blob if it hasn't all arrived, once what did arrive is read.
+     *
+     * @param cause
+     *            - why the rest won't come
+     */
+    synchronized void fail(IOException cause) {
+        if (received < length && failure == null) {
+            failure = cause;
+            notifyAll();
+        }
+    }
+
+    private void releaseChunks() {
+        for (ByteBuf chunk : chunks) {
+            chunk.release();
+        }
+        chunks.clear();
+        buffered = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Blob#" + id + "[" + name + ", " + length + " bytes]";
+    }
+}
@@ -0,0 +1,144 @@
+package k.core.util.netty;
+
+import static k.core.util.netty.BinaryDataStructCodec.readVarInt;
+import static k.core.util.netty.BinaryDataStructCodec.readVarLong;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.CharsetUtil;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Takes the {@link Blob} frames written by {@link BlobSender} out of a
+ * {@link PacketFormat#BINARY} pipeline and hands their data to the blobs,
+ * passing other frames on. Goes after the {@link FrameDecompressor}.
+ * <br>
+ * <br>
+ * A blob frame is {@link Packet#BLOB_FRAME_ID}, the varint blob id, and a
+ * type byte. {@link #START} is followed by the varint length of the UTF-8
+ * name, the name, and the varint blob length; {@link #DATA} by the next
+ * chunk of data, up to the end of the frame; and {@link #ABORT} by nothing.
+ *
+ * @author Kenzie Togami
+ *
+ */
+class BlobDecoder extends ChannelInboundHandlerAdapter {
+    static final int START = 0, DATA = 1, ABORT = 2;
+
+    private final NetHandler handler;
+    private final Map<Integer, Blob> blobs = new HashMap<Integer, Blob>();
+
+    /**
+     * @param nh
+     *            - the handler whose {@link BlobListener} is told about new
+     *            blobs
+     */
+    BlobDecoder(NetHandler nh) {
+        handler = nh;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg)
+            throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        ByteBuf frame = (ByteBuf) msg;
+        if (frame.readableBytes() < 4
+                || frame.getInt(frame.readerIndex()) != Packet.BLOB_FRAME_ID) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        try {
+            frame.skipBytes(4);
+            int id = readVarInt(frame);
+            switch (frame.readUnsignedByte()) {
+            case START:
+                start(ctx, id, frame);
+                break;
+            case DATA:
+                data(ctx, id, frame);
+                break;
+            case ABORT:
+                Blob b = blobs.remove(id);
+                if (b != null) {
+                    b.fail(new IOException("sender gave up on the blob"));
+                }
+                break;
+            default:
+                throw new CorruptedFrameException("bad blob frame type");
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    private void start(ChannelHandlerContext ctx, int id, ByteBuf frame) {
+        if (blobs.containsKey(id)) {
+            throw new CorruptedFrameException("blob " + id + " already open");
+        }
+        int nameLength = readVarInt(frame);
+        if (nameLength < 0 || nameLength > frame.readableBytes()) {
+            throw new CorruptedFrameException("bad blob name length "
+                    + nameLength);
+        }
+        String name = frame.toString(frame.readerIndex(), nameLength,
+                CharsetUtil.UTF_8);
+        frame.skipBytes(nameLength);
+        long length = readVarLong(frame);
+        if (length < 0) {
+            throw new CorruptedFrameException("bad blob length " + length);
+        }
+        Blob b = new Blob(id, name, length, ctx.channel());
+        if (length > 0) {
+            blobs.put(id, b);
+        }
+        BlobListener listener = handler.getBlobListener();
+        if (listener == null) {
+            // nobody wants it, skip the data
+            b.close();
+        } else {
+            listener.blobReceived(handler, b);
+        }
+    }
+
+    private void data(ChannelHandlerContext ctx, int id, ByteBuf frame) {
+        Blob b = blobs.get(id);
+        if (b == null) {
+            throw new CorruptedFrameException("data for unknown blob " + id);
+        }
+        int n = frame.readableBytes();
+        if (b.getReceived() + n > b.getLength()) {
+            throw new CorruptedFrameException(b + " is longer than sent");
+        }
+        // the framer copies out every frame, so this only keeps the chunk
+        b.offer(frame.readSlice(n).retain());
+        if (b.getReceived() == b.getLength()) {
+            blobs.remove(id);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        failAll();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        failAll();
+    }
+
+    private void failAll() {
+        for (Blob b : blobs.values()) {
+            b.fail(new ClosedChannelException());
+        }
+        blobs.clear();
+    }
+}
@@ -0,0 +1,22 @@
+package k.core.util.netty;
+
+/**
+ * Told about every {@link Blob} a {@link NetHandler} starts receiving.
+ *
+ * @author Kenzie Togami
+ *
+ */
+public interface BlobListener {
+    /**
+     * Called on the channel's event loop as soon as a blob starts, before any
+     * of its data is read. The data keeps arriving in the background, and
+     * should be read from another thread, since {@link Blob#read} blocks.
+     * Blobs that aren't wanted should be {@link Blob#close() closed}.
+     *
+     * @param from
+     *            - the handler that received the blob
+     * @param blob
+     *            - the blob
+     */
+    public void blobReceived(NetHandler from, Blob blob);
+}
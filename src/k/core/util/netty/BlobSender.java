@@ -0,0 +1,304 @@
+package k.core.util.netty;
+
+import static k.core.util.netty.BinaryDataStructCodec.writeVarInt;
+import static k.core.util.netty.BinaryDataStructCodec.writeVarLong;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.CharsetUtil;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends part of a file as a {@link Blob}. The file goes out in chunks of
+ * {@link #CHUNK_BYTES}, each its own {@link PacketFormat#BINARY} frame (see
+ * {@link BlobDecoder}), and each written straight from the file to the
+ * socket with {@link FileChannel#transferTo}, which is <tt>sendfile</tt> on
+ * Linux.
+ * <br>
+ * <br>
+ * At most {@link #WINDOW} chunks are written ahead, and no more while the
+ * channel is over its high water mark. That way a large file doesn't queue up
+ * on the channel, and a slow receiver slows the sender down. Packets can
+ * still be written in between chunks.
+ *
+ * @author Kenzie Togami
+ *
+ */
+final class BlobSender implements ChannelFutureListener {
+    /**
+     * The most data in one chunk, set by the <tt>packet.blobChunkBytes</tt>
+     * property.
+     */
+    static final int CHUNK_BYTES = Math.min(
+            Integer.getInteger("packet.blobChunkBytes", 64 * 1024),
+            PacketFormat.MAX_FRAME_LENGTH - 16);
+    /**
+     * The most chunks written but not yet sent, set by the
+     * <tt>packet.blobWindow</tt> property.
+     */
+    static final int WINDOW = Integer.getInteger("packet.blobWindow", 4);
+
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private final int id = nextId.incrementAndGet();
+    private final Channel channel;
+    private final String name;
+    private final FileChannel file;
+    private final long position, count;
+    private final boolean closeFile;
+    private final ChannelPromise promise;
+    /*
+     * Only used on the event loop.
+     */
+    private long written = 0;
+    private int inFlight = 0;
+
+    private BlobSender(Channel ch, String name, FileChannel file,
+            long position, long count, boolean closeFile) {
+        channel = ch;
+        this.name = name;
+        this.file = file;
+        this.position = position;
+        this.count = count;
+        this.closeFile = closeFile;
+        promise = ch.newPromise();
+    }
+
+    /**
+     * Starts sending a whole file as a blob named after it, and closes the
+     * file once done. Safe to call from any thread.
+     *
+     * @param ch
+     *            - the channel, with a {@link PacketFormat#BINARY} pipeline
+     * @param file
+     *            - the file
+     * @return completes once the whole blob is written to the socket
+     * @throws IOException
+     *             if the file can't be opened
+     */
+    static ChannelFuture sendFile(Channel ch, File file) throws IOException {
+        FileChannel fc = new RandomAccessFile(file, "r").getChannel();
+        boolean started = false;
+        try {
+            ChannelFuture sent = send(ch, file.getName(), fc, 0, fc.size(),
+                    true);
+            started = true;
+            return sent;
+        } finally {
+            if (!started) {
+                // only a started send closes it
+                try {
+                    fc.close();
+                } catch (IOException e) {
+                    // already failing with something more useful
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts sending a blob. Safe to call from any thread.
+     *
+     * @param ch
+     *            - the channel, with a {@link PacketFormat#BINARY} pipeline
+     * @param name
+     *            - the name of the blob
+     * @param file
+     *            - the file to send from
+     * @param position
+     *            - where in the file the blob starts
+     * @param count
+     *            - the length of the blob
+     * @param closeFile
+     *            - whether to close the file once done
+     * @return completes once the whole blob is written to the socket
+     */
+    static ChannelFuture send(Channel ch, String name, FileChannel file,
+            long position, long count, boolean closeFile) {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("position " + position
+                    + ", count " + count);
+        }
+        final BlobSender s = new BlobSender(ch, name, file, position, count,
+                closeFile);
+        if (ch.eventLoop().inEventLoop()) {
+            s.start();
+        } else {
+            ch.eventLoop().execute(new Runnable() {
+                @Override
+                public void run() {
+                    s.start();
+                }
+            });
+        }
+        return s.promise;
+    }
+
+    private void start() {
+        byte[] nameBytes = name.getBytes(CharsetUtil.UTF_8);
+        ByteBuf header = header(BlobDecoder.START, nameBytes.length + 15);
+        writeVarInt(header, nameBytes.length);
+        header.writeBytes(nameBytes);
+        writeVarLong(header, count);
+        header.setInt(0, header.readableBytes() - 4);
+        inFlight++;
+        channel.write(header).addListener(this);
+        writeMore();
+    }
+
+    private ByteBuf header(int type, int extra) {
+        ByteBuf header = channel.alloc().buffer(14 + extra);
+        header.writeInt(0);
+        header.writeInt(Packet.BLOB_FRAME_ID);
+        writeVarInt(header, id);
+        header.writeByte(type);
+        return header;
+    }
+
+    private void writeMore() {
+        long end;
+        try {
+            end = file.size();
+        } catch (IOException e) {
+            abort(e);
+            return;
+        }
+        // always keep one chunk going, or nothing would start us up again
+        while (written < count && (inFlight == 0 || inFlight < WINDOW
+                && channel.isWritable())) {
+            int n = (int) Math.min(CHUNK_BYTES, count - written);
+            if (position + written + n > end) {
+                // a failed write would close the channel, so check first
+                abort(new EOFException("file ended "
+                        + (position + written + n - end) + " bytes early"));
+                return;
+            }
+            ByteBuf header = header(BlobDecoder.DATA, 0);
+            header.setInt(0, header.readableBytes() - 4 + n);
+            channel.write(header);
+            inFlight++;
+            channel.write(new Chunk(file, position + written, n)).addListener(
+                    this);
+            written += n;
+        }
+        channel.flush();
+    }
+
+    @Override
+    public void operationComplete(ChannelFuture future) throws Exception {
+        inFlight--;
+        if (promise.isDone()) {
+            // gave up early, close once the chunks already written are done
+            if (inFlight == 0) {
+                closeFile();
+            }
+            return;
+        }
+        if (!future.isSuccess()) {
+            abort(future.cause());
+        } else if (written == count && inFlight == 0) {
+            finish(null);
+        } else {
+            writeMore();
+        }
+    }
+
+    /*
+     * Tells the receiver the rest isn't coming, if it can still be told.
+     */
+    private void abort(Throwable cause) {
+        // first, since flushing can complete chunks and call us back
+        finish(cause);
+        if (channel.isActive()) {
+            ByteBuf abort = header(BlobDecoder.ABORT, 0);
+            abort.setInt(0, abort.readableBytes() - 4);
+            channel.writeAndFlush(abort);
+        }
+    }
+
+    private void finish(Throwable cause) {
+        if (inFlight == 0) {
+            IOException e = closeFile();
+            if (cause == null) {
+                cause = e;
+            }
+        }
+        if (cause == null) {
+            promise.setSuccess();
+        } else {
+            promise.setFailure(cause);
+        }
+    }
+
+    private IOException closeFile() {
+        if (closeFile) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A piece of the file. Unlike {@link io.netty.channel.DefaultFileRegion
+     * DefaultFileRegion}, it leaves the file open once written.
+     */
+    private static final class Chunk extends AbstractReferenceCounted
+            implements FileRegion {
+        private final FileChannel file;
+        private final long position, count;
+        private long transfered = 0;
+
+        Chunk(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.count = count;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public long transfered() {
+            return transfered;
+        }
+
+        @Override
+        public long count() {
+            return count;
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel target, long at)
+                throws IOException {
+            long n = file.transferTo(position + at, count - at, target);
+            if (n == 0 && position + at >= file.size()) {
+                // shrunk since it was checked, or we'd be called forever
+                throw new EOFException("file ended " + (count - at)
+                        + " bytes early");
+            }
+            transfered += n;
+            return n;
+        }
+
+        @Override
+        protected void deallocate() {
+            // the file is closed by the sender
+        }
+    }
+}
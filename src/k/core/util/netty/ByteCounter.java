@@ -0,0 +1,42 @@
+package k.core.util.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+
+/**
+ * Counts the bytes read and written by a channel in its {@link NetMetrics}.
+ * Goes first in the pipeline, so it sees exactly what goes over the network.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+class ByteCounter extends ChannelDuplexHandler {
+    private final NetMetrics metrics;
+
+    ByteCounter(NetMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg)
+            throws Exception {
+        if (msg instanceof ByteBuf) {
+            metrics.read(((ByteBuf) msg).readableBytes());
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg,
+            ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            metrics.wrote(((ByteBuf) msg).readableBytes());
+        } else if (msg instanceof FileRegion) {
+            metrics.wrote(((FileRegion) msg).count());
+        }
+        ctx.write(msg, promise);
+    }
+}
@@ -0,0 +1,178 @@
+package k.core.util.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.Snappy;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression for {@link PacketFormat#BINARY} frames. A client asks for it
+ * with {@link NetHandlerClient#requestCompression(Compression...)}, and the
+ * server picks the first one it also
+ * {@link NetHandlerServer#setCompression(Compression...) accepts}. Frames
+ * smaller than {@link #MIN_BYTES} are never compressed, and neither are frames
+ * that don't get any smaller.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+public enum Compression {
+    /**
+     * Fast, with a modest ratio. Good for most links.
+     */
+    SNAPPY(1) {
+        @Override
+        Compressor newCompressor() {
+            return new Compressor() {
+                private final Snappy snappy = new Snappy();
+
+                @Override
+                public void compress(ByteBuf in, ByteBuf out) {
+                    snappy.encode(in, out, in.readableBytes());
+                    snappy.reset();
+                }
+
+                @Override
+                public void decompress(ByteBuf in, ByteBuf out) {
+                    try {
+                        snappy.decode(in, out);
+                    } catch (IndexOutOfBoundsException e) {
+                        throw new DecompressionException(e);
+                    } finally {
+                        snappy.reset();
+                    }
+                }
+
+                @Override
+                public void end() {
+                }
+            };
+        }
+    },
+    /**
+     * Slower, but a much better ratio on large, repetitive frames such as
+     * ones full of Gson objects. For slow links.
+     */
+    ZLIB(2) {
+        @Override
+        Compressor newCompressor() {
+            return new Compressor() {
+                private final Deflater deflater = new Deflater(LEVEL);
+                private final Inflater inflater = new Inflater();
+
+                @Override
+                public void compress(ByteBuf in, ByteBuf out) {
+                    int length = in.readableBytes();
+                    if (in.hasArray()) {
+                        deflater.setInput(in.array(), in.arrayOffset()
+                                + in.readerIndex(), length);
+                    } else {
+                        deflater.setInput(toArray(in));
+                    }
+                    in.skipBytes(length);
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        out.ensureWritable(64);
+                        int n = deflater.deflate(out.array(),
+                                out.arrayOffset() + out.writerIndex(),
+                                out.writableBytes());
+                        out.writerIndex(out.writerIndex() + n);
+                    }
+                    deflater.reset();
+                }
+
+                @Override
+                public void decompress(ByteBuf in, ByteBuf out) {
+                    int length = in.readableBytes();
+                    if (in.hasArray()) {
+                        inflater.setInput(in.array(), in.arrayOffset()
+                                + in.readerIndex(), length);
+                    } else {
+                        inflater.setInput(toArray(in));
+                    }
+                    in.skipBytes(length);
+                    try {
+                        while (!inflater.finished()) {
+                            if (!out.isWritable()) {
+                                throw new DecompressionException(
+                                        "more data than the frame said");
+                            }
+                            int n = inflater.inflate(out.array(),
+                                    out.arrayOffset() + out.writerIndex(),
+                                    out.writableBytes());
+                            if (n == 0 && (inflater.needsInput() || inflater
+                                    .needsDictionary())) {
+                                throw new DecompressionException(
+                                        "truncated zlib data");
+                            }
+                            out.writerIndex(out.writerIndex() + n);
+                        }
+                    } catch (DataFormatException e) {
+                        throw new DecompressionException(e);
+                    } finally {
+                        inflater.reset();
+                    }
+                }
+
+                @Override
+                public void end() {
+                    deflater.end();
+                    inflater.end();
+                }
+            };
+        }
+    };
+
+    /**
+     * The smallest frame body that is compressed, set by the
+     * <tt>packet.compressMinBytes</tt> property.
+     */
+    public static final int MIN_BYTES = Integer.getInteger(
+            "packet.compressMinBytes", 512);
+    /**
+     * The {@link #ZLIB} level, set by the <tt>packet.zlibLevel</tt> property.
+     */
+    static final int LEVEL = Integer.getInteger("packet.zlibLevel", 6);
+
+    /**
+     * Sent in each compressed frame.
+     */
+    final int id;
+
+    private Compression(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Makes the state for one channel. Compressors need a heap <tt>out</tt>
+     * buffer.
+     * 
+     * @return a new compressor
+     */
+    abstract Compressor newCompressor();
+
+    /**
+     * Looks up a compression by its id.
+     * 
+     * @param id
+     *            - the id from a frame
+     * @return the compression, or <tt>null</tt> if there is none
+     */
+    static Compression forId(int id) {
+        for (Compression c : values()) {
+            if (c.id == id) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] toArray(ByteBuf in) {
+        byte[] bytes = new byte[in.readableBytes()];
+        in.getBytes(in.readerIndex(), bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,48 @@
+package k.core.util.netty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sent by a client to list the {@link Compression}s it wants, most wanted
+ * first, and sent back by the server with the one it picked, or none. Handled
+ * by {@link CompressionNegotiator}, so it never reaches a {@link NetHandler}.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+final class CompressionHandshake extends Packet {
+    CompressionHandshake(DataStruct ds) {
+        super(ds);
+    }
+
+    static CompressionHandshake of(Compression... compressions) {
+        StringBuilder names = new StringBuilder();
+        for (Compression c : compressions) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(c.name());
+        }
+        return new CompressionHandshake(new DataStruct(
+                new Object[] { names.toString() }));
+    }
+
+    /**
+     * Gets the compressions in this handshake. Names this side doesn't know
+     * are left out.
+     * 
+     * @return the compressions, most wanted first
+     */
+    List<Compression> getCompressions() {
+        List<Compression> out = new ArrayList<Compression>();
+        for (String name : ((String) data.get(0)).split(",")) {
+            for (Compression c : Compression.values()) {
+                if (c.name().equals(name)) {
+                    out.add(c);
+                }
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,53 @@
+package k.core.util.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Answers {@link CompressionHandshake}s and turns on compression in the
+ * channel's {@link PacketBatchEncoder}. On the server, picks the first
+ * compression the client asked for that the server accepts, answers with it,
+ * and starts compressing. On the client, starts compressing with whatever the
+ * server answered.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+class CompressionNegotiator extends
+        SimpleChannelInboundHandler<CompressionHandshake> {
+    private final NetHandlerServer server;
+
+    /**
+     * @param nhs
+     *            - the server, or <tt>null</tt> on a client
+     */
+    CompressionNegotiator(NetHandlerServer nhs) {
+        server = nhs;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx,
+            CompressionHandshake msg) throws Exception {
+        PacketBatchEncoder encoder = ctx.pipeline().get(
+                PacketBatchEncoder.class);
+        List<Compression> asked = msg.getCompressions();
+        Compression chosen = null;
+        if (server != null) {
+            List<Compression> accepted = Arrays.asList(server.compressions);
+            for (Compression c : asked) {
+                if (accepted.contains(c)) {
+                    chosen = c;
+                    break;
+                }
+            }
+            ctx.writeAndFlush(chosen == null ? CompressionHandshake.of()
+                    : CompressionHandshake.of(chosen));
+        } else if (!asked.isEmpty()) {
+            chosen = asked.get(0);
+        }
+        encoder.compressWith(chosen);
+    }
+}
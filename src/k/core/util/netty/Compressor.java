@@ -0,0 +1,40 @@
+package k.core.util.netty;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * One channel's state for a {@link Compression}. Only used on that channel's
+ * event loop.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+interface Compressor {
+    /**
+     * Compresses all of <tt>in</tt> into <tt>out</tt>.
+     * 
+     * @param in
+     *            - the bytes to compress
+     * @param out
+     *            - the buffer to write to
+     */
+    public void compress(ByteBuf in, ByteBuf out);
+
+    /**
+     * Decompresses all of <tt>in</tt> into <tt>out</tt>, which has room for
+     * exactly the expected number of bytes.
+     * 
+     * @param in
+     *            - the compressed bytes
+     * @param out
+     *            - the buffer to write to
+     * @throws io.netty.handler.codec.compression.DecompressionException
+     *             if <tt>in</tt> is not valid or doesn't fit in <tt>out</tt>
+     */
+    public void decompress(ByteBuf in, ByteBuf out);
+
+    /**
+     * Frees anything held outside the heap.
+     */
+    public void end();
+}
@@ -0,0 +1,39 @@
+package k.core.util.netty;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Calls a packet's <tt>DataStruct</tt> constructor, which is looked up once
+ * when the packet is registered.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+class ConstructorPacketFactory implements PacketFactory {
+    private final Constructor<? extends Packet> constructor;
+
+    ConstructorPacketFactory(Class<? extends Packet> type) {
+        try {
+            constructor = type.getDeclaredConstructor(DataStruct.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type.getName()
+                    + " requires a DataStruct constructor");
+        }
+        constructor.setAccessible(true);
+    }
+
+    @Override
+    public Packet create(DataStruct data) {
+        try {
+            return constructor.newInstance(data);
+        } catch (InstantiationException e) {
+            e.printStackTrace();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+}
@@ -9,12 +9,28 @@ import javax.xml.bind.DatatypeConverter;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 
+/**
+ * A list of values that can be sent in a {@link Packet}. How the values are
+ * turned into bytes is up to a {@link DataStructCodec}; {@link #toString()}
+ * and {@link #DataStruct(String)} are the {@link DataStructCodec#TEXT} format.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
 public class DataStruct {
     protected static final String SPLIT_PAIRS = ";", SPLIT_KEYVALUE = "|",
             SPLIT_CLASS = "`";
+    /**
+     * The type keys. {@link #KEY_NULL} is only used by
+     * {@link DataStructCodec#BINARY}.
+     */
     protected static final char KEY_STRING = 's', KEY_LONG = 'l',
             KEY_INT = 'i', KEY_CHAR = 'c', KEY_BYTE = 'b', KEY_FLOAT = 'f',
-            KEY_DOUBLE = 'd', KEY_BOOL = 'B', KEY_OTHER = 'o';
+            KEY_DOUBLE = 'd', KEY_BOOL = 'B', KEY_OTHER = 'o', KEY_NULL = 'n';
+    /**
+     * Gson instances are thread safe, so share one.
+     */
+    static final Gson GSON = new Gson();
     private List<Object> dataValues = new ArrayList<Object>();
 
     /**
@@ -73,9 +89,12 @@ public class DataStruct {
 
     private Object decodeOther(String val) {
         String[] classAndJson = val.split(SPLIT_CLASS);
+        return decodeOther(classAndJson[0], classAndJson[1]);
+    }
+
+    static Object decodeOther(String className, String json) {
         try {
-            Object o = new Gson().fromJson(classAndJson[1],
-                    Class.forName(classAndJson[0]));
+            Object o = GSON.fromJson(json, Class.forName(className));
             return o;
         } catch (JsonSyntaxException e) {
             e.printStackTrace();
@@ -103,22 +122,23 @@ public class DataStruct {
     }
 
     private String encodeData(List<Object> enc) {
-        String out = "";
+        StringBuilder out = new StringBuilder();
         for (Object o : enc) {
             try {
-                out += encode(o);
+                encode(o, out);
             } catch (NullPointerException e) {
                 System.err.println("npe on " + enc + " at " + o);
             }
-            out += SPLIT_PAIRS;
+            out.append(SPLIT_PAIRS);
         }
         if (out.length() < 2) {
-            return out;
+            return out.toString();
         }
         return out.substring(0, out.length() - 1);
     }
 
-    private String encode(Object o) throws NullPointerException {
+    private void encode(Object o, StringBuilder out)
+            throws NullPointerException {
         Class<?> oc = o.getClass();
         // Doing the toString() here allows for us to skip it in the primitive
         // if's
@@ -145,9 +165,9 @@ public class DataStruct {
         } else {
             key = KEY_OTHER;
             val = DatatypeConverter.printBase64Binary((o.getClass().getName()
-                    + SPLIT_CLASS + new Gson().toJson(o)).getBytes());
+                    + SPLIT_CLASS + GSON.toJson(o)).getBytes());
         }
-        return key + SPLIT_KEYVALUE + val;
+        out.append(key).append(SPLIT_KEYVALUE).append(val);
     }
 
     /**
@@ -0,0 +1,46 @@
+package k.core.util.netty;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Turns a {@link DataStruct} into bytes and back.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+public interface DataStructCodec {
+    /**
+     * The original format, the same text as {@link DataStruct#toString()}.
+     * Kept for talking to older code.
+     */
+    public static final DataStructCodec TEXT = new TextDataStructCodec();
+    /**
+     * The compact format. Several times smaller than {@link #TEXT} and much
+     * faster to decode.
+     */
+    public static final DataStructCodec BINARY = new BinaryDataStructCodec();
+
+    /**
+     * Writes <tt>ds</tt> to <tt>out</tt>.
+     * 
+     * @param ds
+     *            - the values to write
+     * @param out
+     *            - the buffer to write to
+     */
+    public void encode(DataStruct ds, ByteBuf out);
+
+    /**
+     * Reads a {@link DataStruct} from <tt>in</tt>. Text is read up to the end
+     * of the buffer, so each one needs to be in its own frame. Like
+     * {@link DataStruct#DataStruct(String)}, text with a broken pair or key
+     * still decodes, with a placeholder for that value.
+     * 
+     * @param in
+     *            - the buffer to read from
+     * @return the values read
+     * @throws io.netty.handler.codec.CorruptedFrameException
+     *             if the data is cut short or not valid
+     */
+    public DataStruct decode(ByteBuf in);
+}
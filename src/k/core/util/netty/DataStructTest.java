@@ -1,5 +1,8 @@
 package k.core.util.netty;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
 import k.core.util.core.Helper;
 
 public class DataStructTest {
@@ -16,6 +19,28 @@ public class DataStructTest {
         DataStruct dec = new DataStruct(all);
         DataStruct enc = new DataStruct(dec.toString());
         Helper.BetterArrays.print(enc.getAll());
+        // the same values through both codecs
+        for (DataStructCodec codec : new DataStructCodec[] {
+                DataStructCodec.TEXT, DataStructCodec.BINARY }) {
+            ByteBuf buf = Unpooled.buffer();
+            codec.encode(dec, buf);
+            int size = buf.readableBytes();
+            DataStruct decoded = codec.decode(buf);
+            System.err.println(codec.getClass().getSimpleName() + ": " + size
+                    + " bytes");
+            Helper.BetterArrays.print(decoded.getAll());
+        }
+        // cut short, which should be reported as a bad frame
+        ByteBuf buf = Unpooled.buffer();
+        DataStructCodec.BINARY.encode(new DataStruct(new Object[] { 1.1d }),
+                buf);
+        buf.writerIndex(buf.writerIndex() - 3);
+        try {
+            DataStructCodec.BINARY.decode(buf);
+            throw new AssertionError("decoded a cut short struct");
+        } catch (CorruptedFrameException e) {
+            System.err.println("cut short: " + e.getMessage());
+        }
     }
 
     @Override
@@ -0,0 +1,76 @@
+package k.core.util.netty;
+
+import static k.core.util.netty.BinaryDataStructCodec.readVarInt;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.util.List;
+
+/**
+ * Decompresses {@link PacketFormat#BINARY} frames compressed by
+ * {@link PacketBatchEncoder}, and passes other frames through. A compressed
+ * frame is {@link Packet#COMPRESSED_FRAME_ID}, the {@link Compression} id as a
+ * byte, the varint length of the original frame, and the compressed original
+ * frame. Always in the pipeline, so a peer can start compressing as soon as
+ * it likes.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+class FrameDecompressor extends MessageToMessageDecoder<ByteBuf> {
+    private final Compressor[] compressors = new Compressor[Compression
+            .values().length + 1];
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf msg,
+            List<Object> out) throws Exception {
+        if (msg.readableBytes() < 4
+                || msg.getInt(msg.readerIndex()) != Packet.COMPRESSED_FRAME_ID) {
+            out.add(msg.retain());
+            return;
+        }
+        msg.skipBytes(4);
+        Compression c = Compression.forId(msg.readUnsignedByte());
+        if (c == null) {
+            throw new CorruptedFrameException("unknown compression");
+        }
+        int length = readVarInt(msg);
+        if (length < 4 || length > PacketFormat.MAX_FRAME_LENGTH) {
+            throw new CorruptedFrameException("bad frame length " + length);
+        }
+        ByteBuf frame = ctx.alloc().heapBuffer(length, length);
+        try {
+            compressorFor(c).decompress(msg, frame);
+            if (frame.readableBytes() != length) {
+                throw new CorruptedFrameException("frame decompressed to "
+                        + frame.readableBytes() + " bytes, not " + length);
+            }
+            out.add(frame);
+            frame = null;
+        } finally {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+
+    private Compressor compressorFor(Compression c) {
+        Compressor comp = compressors[c.id];
+        if (comp == null) {
+            comp = compressors[c.id] = c.newCompressor();
+        }
+        return comp;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        for (Compressor comp : compressors) {
+            if (comp != null) {
+                comp.end();
+            }
+        }
+        super.handlerRemoved(ctx);
+    }
+}
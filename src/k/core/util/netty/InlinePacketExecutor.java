@@ -0,0 +1,23 @@
+package k.core.util.netty;
+
+import io.netty.channel.Channel;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The {@link PacketExecutor#INLINE} executor.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+class InlinePacketExecutor implements PacketExecutor {
+    @Override
+    public Executor executorFor(Channel channel) {
+        return channel.eventLoop();
+    }
+
+    @Override
+    public void shutdown() {
+        // the event loops belong to the server
+    }
+}
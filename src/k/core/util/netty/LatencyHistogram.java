@@ -0,0 +1,167 @@
+package k.core.util.netty;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in nanoseconds, for percentiles. Values are counted in
+ * buckets that double in size, each split into {@link #SUB_BUCKETS} equal
+ * parts, so any value is off by at most 1/{@link #SUB_BUCKETS} (about 6%)
+ * and the whole range of <tt>long</tt> takes under a thousand counters.
+ * <br>
+ * <br>
+ * Recording never locks, and is safe from any number of threads. Reads see
+ * recent values, but aren't a snapshot of one moment.
+ *
+ * @author Kenzie Togami
+ *
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    /**
+     * How many parts each doubling is split into.
+     */
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Counts one duration.
+     *
+     * @param nanos
+     *            - the duration, negative ones count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        total.addAndGet(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /*
+     * The middle of the values counted in a bucket.
+     */
+    static long valueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return low + (1L << shift) / 2;
+    }
+
+    /**
+     * Gets the number of durations counted.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        return n;
+    }
+
+    /**
+     * Gets the average duration.
+     *
+     * @return the mean in nanoseconds, 0 if nothing was counted
+     */
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * Gets the longest duration counted, exactly.
+     *
+     * @return the maximum in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets the duration that <tt>percent</tt>% of the counted ones are at or
+     * below.
+     *
+     * @param percent
+     *            - from 0 to 100
+     * @return the percentile in nanoseconds, 0 if nothing was counted
+     */
+    public long getPercentile(double percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("percent " + percent);
+        }
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += snapshot[i] = counts.get(i);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percent / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(valueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long getP50() {
+        return getPercentile(50);
+    }
+
+    public long getP90() {
+        return getPercentile(90);
+    }
+
+    public long getP99() {
+        return getPercentile(99);
+    }
+
+    public long getP999() {
+        return getPercentile(99.9);
+    }
+
+    /**
+     * Forgets everything counted so far. Durations recorded at the same time
+     * may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + (long) getMean()
+                + "ns, p50=" + getP50() + "ns, p99=" + getP99()
+                + "ns, max=" + getMax() + "ns";
+    }
+}
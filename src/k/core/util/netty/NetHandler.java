@@ -1,8 +1,7 @@
 package k.core.util.netty;
 
-import java.util.PriorityQueue;
-
-import k.core.util.timing.LowResFPS;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A class that provides abstraction over Netty and is the base for handling
@@ -12,38 +11,119 @@ import k.core.util.timing.LowResFPS;
  * 
  */
 public abstract class NetHandler implements PacketSender {
-    private static int timerId = LowResFPS.genIndex();
-    private PriorityQueue<ISendPacket> pq = new PriorityQueue<ISendPacket>();
-    private PriorityQueue<IReceivePacket> pqin = new PriorityQueue<IReceivePacket>();
-    protected boolean stopped = false;
-    private int sentPackets = 0;
+    /**
+     * How long a thread processes one handler's queues before moving on to
+     * other work, in nanoseconds. Set in microseconds by the
+     * <tt>packet.processBudgetMicros</tt> property.
+     */
+    static final long PROCESS_BUDGET_NANOS = TimeUnit.MICROSECONDS
+            .toNanos(Long.getLong("packet.processBudgetMicros", 100000));
+    private final PacketQueue<ISendPacket> pq;
+    private final PacketQueue<IReceivePacket> pqin;
+    protected volatile boolean stopped = false;
+    private final AtomicInteger sentPackets = new AtomicInteger();
+    private volatile BlobListener blobListener;
+    private final NetMetrics metrics = new NetMetrics(this);
 
     /**
-     * Sets up the basics.
+     * Sets up the basics, with unbounded queues.
      */
     public NetHandler() {
+        pq = new PacketQueue<ISendPacket>();
+        pqin = new PacketQueue<IReceivePacket>();
+    }
 
+    /**
+     * Sets up the basics, with bounded queues.
+     * 
+     * @param capacity
+     *            - the most packets each queue holds
+     * @param policy
+     *            - what to do with packets added to a full queue
+     */
+    protected NetHandler(int capacity, OverflowPolicy policy) {
+        pq = new PacketQueue<ISendPacket>(capacity, policy);
+        pqin = new PacketQueue<IReceivePacket>(capacity, policy);
     }
 
     /**
      * Adds a packet to the send queue. The given {@link Packet} will be casted.
+     * Safe to call from any thread.
      * 
      * @param p
      *            - an {@link ISendPacket}
+     * @throws IllegalStateException
+     *             if the queue is full and rejects packets
      */
     public void addPacketToSendQueue(Packet p) {
-        pq.add((ISendPacket) p);
+        enqueue(pq, (ISendPacket) p);
     }
 
     /**
      * Adds a packet to the receive queue. The given {@link Packet} will be
-     * casted.
+     * casted. Safe to call from any thread.
      * 
      * @param p
      *            - an {@link IReceivePacket}
+     * @throws IllegalStateException
+     *             if the queue is full and rejects packets
      */
     public void addPacketToRecvQueue(Packet p) {
-        pqin.add((IReceivePacket) p);
+        enqueue(pqin, (IReceivePacket) p);
+    }
+
+    private <P> void enqueue(PacketQueue<P> q, P p) {
+        if (q.getPolicy() == OverflowPolicy.BLOCK && isProcessingThread()) {
+            // waiting here would stop the queue from ever emptying
+            while (!q.offer(p)) {
+                if (stopped) {
+                    return;
+                }
+                processQueue(0);
+            }
+        } else if (q.getPolicy() != OverflowPolicy.BLOCK) {
+            q.add(p);
+        } else if (!q.offer(p)) {
+            // make sure something is emptying it before waiting
+            queueFull();
+            q.add(p);
+        }
+    }
+
+    /**
+     * Called before a thread waits for room in a full
+     * {@link OverflowPolicy#BLOCK} queue. Does nothing unless overridden.
+     */
+    protected void queueFull() {
+    }
+
+    /**
+     * Checks if the current thread is the one that processes the queues. A
+     * full {@link OverflowPolicy#BLOCK} queue is processed right away on that
+     * thread, instead of waiting for itself.
+     * 
+     * @return <tt>true</tt> if this thread processes the queues
+     */
+    protected boolean isProcessingThread() {
+        return false;
+    }
+
+    /**
+     * Gets the send queue, for its size and dropped count.
+     * 
+     * @return the send queue
+     */
+    public PacketQueue<ISendPacket> getSendQueue() {
+        return pq;
+    }
+
+    /**
+     * Gets the receive queue, for its size and dropped count.
+     * 
+     * @return the receive queue
+     */
+    public PacketQueue<IReceivePacket> getReceiveQueue() {
+        return pqin;
     }
 
     /**
@@ -53,12 +133,8 @@ public abstract class NetHandler implements PacketSender {
      *         packet, or false if there are no packets left
      */
     public boolean popOneSendQueueObject() {
-        synchronized (pq) {
-            if (pq.isEmpty()) {
-                return false;
-            }
-            return pq.poll().send(this);
-        }
+        ISendPacket sp = pq.poll();
+        return sp != null && sp.send(this);
     }
 
     /**
@@ -68,12 +144,8 @@ public abstract class NetHandler implements PacketSender {
      *         on the packet, or null if there are no packets left
      */
     public ISendPacket popOneReceiveQueueObject() {
-        synchronized (pqin) {
-            if (pqin.isEmpty()) {
-                return null;
-            }
-            return pqin.poll().receive(this);
-        }
+        IReceivePacket rp = pqin.poll();
+        return rp == null ? null : rp.receive(this);
     }
 
     /**
@@ -91,60 +163,126 @@ public abstract class NetHandler implements PacketSender {
      *            until {@link Long#MAX_VALUE}
      */
     public void processQueue(long timeout) {
+        processQueue(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Processes the queue until empty or the given timeout, which applies to
+     * each queue in turn. Replies that don't fit in a full send queue are
+     * sent straight away.
+     * 
+     * @param timeout
+     *            - a timeout. If timeout <= 0, it will be until
+     *            {@link Long#MAX_VALUE} nanoseconds
+     * @param unit
+     *            - the unit of <tt>timeout</tt>
+     */
+    public void processQueue(long timeout, TimeUnit unit) {
         if (stopped) {
             return;
         }
-        LowResFPS.init(timerId, LowResFPS.millis);
+        long budget = timeout <= 0 ? Long.MAX_VALUE : unit.toNanos(timeout);
+        long start = System.nanoTime();
         long count = 0;
-        if (timeout <= 0) {
-            timeout = Long.MAX_VALUE;
-        }
-        while (!pqin.isEmpty() && count < timeout) {
-            IReceivePacket before = pqin.peek();
-            if (before instanceof PacketFinished) {
+        IReceivePacket rp;
+        while (count < budget && (rp = pqin.poll()) != null) {
+            if (rp instanceof PacketFinished) {
                 // This packet means terminate, so shutdown and return;
                 shutdown();
                 return;
             }
-            ISendPacket sp = popOneReceiveQueueObject();
+            long received = System.nanoTime();
+            ISendPacket sp = rp.receive(this);
+            long now = System.nanoTime();
+            metrics.processed((Packet) rp, now - received);
             if (sp == null) {
-                System.err.println("Couldn't receive packet: " + before);
-            } else {
-                pq.add(sp);
+                metrics.failed();
+                System.err.println("Couldn't receive packet: " + rp);
+            } else if (!pq.offer(sp) && !send(sp)) {
+                return;
             }
-            count += LowResFPS.getDelta(timerId);
+            count = now - start;
         }
-        if (count >= timeout) {
-            System.err.println("Didn't get to process " + pqin.size()
-                    + " input packets! Timeout was " + count + "ms.");
+        if (count >= budget && !pqin.isEmpty()) {
+            // the rest is left for the next run
+            metrics.timedOut();
         }
         count = 0;
-        LowResFPS.init(timerId);
-        while (!pq.isEmpty() && count < timeout) {
-            ISendPacket before = pq.peek();
-            if (!popOneSendQueueObject()) {
-                System.err.println("Couldn't send packet: " + before);
-            } else {
-                sentPackets++;
-                if (before instanceof PacketFinished) {
-                    shutdown();
-                    return;
-                }
+        start = System.nanoTime();
+        ISendPacket sp;
+        while (count < budget && (sp = pq.poll()) != null) {
+            if (!send(sp)) {
+                return;
             }
-            count += LowResFPS.getDelta(timerId);
+            count = System.nanoTime() - start;
         }
-        if (count >= timeout) {
-            System.err.println("Didn't get to process " + pq.size()
-                    + " output packets! Timeout was " + count + "ms.");
+        if (count >= budget && !pq.isEmpty()) {
+            metrics.timedOut();
         }
     }
 
+    /*
+     * Sends one packet, false if it shut this handler down.
+     */
+    private boolean send(ISendPacket sp) {
+        if (!sp.send(this)) {
+            metrics.failed();
+            System.err.println("Couldn't send packet: " + sp);
+            return true;
+        }
+        sentPackets.incrementAndGet();
+        if (sp instanceof PacketFinished) {
+            shutdown();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if either queue has packets waiting.
+     * 
+     * @return <tt>true</tt> if there is anything left to process
+     */
+    protected boolean hasQueuedPackets() {
+        return !pq.isEmpty() || !pqin.isEmpty();
+    }
+
+    /**
+     * Sets the listener told about {@link Blob}s this handler receives. On a
+     * {@link NetHandlerServer}, it is used for every session without a
+     * listener of its own. Blobs are skipped if there is no listener.
+     * 
+     * @param listener
+     *            - the listener, or <tt>null</tt> for none
+     */
+    public void setBlobListener(BlobListener listener) {
+        blobListener = listener;
+    }
+
+    /**
+     * Gets the listener told about {@link Blob}s this handler receives.
+     * 
+     * @return the listener, or <tt>null</tt> if there is none
+     */
+    BlobListener getBlobListener() {
+        return blobListener;
+    }
+
     public boolean isShutdown() {
         return stopped;
     }
     
     public int packetsSent() {
-        return sentPackets;
+        return sentPackets.get();
+    }
+
+    /**
+     * Gets the counts and timings of the packets through this handler.
+     * 
+     * @return the metrics
+     */
+    public NetMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -1,40 +1,105 @@
 package k.core.util.netty;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.SocketAddress;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Handles packets on the client side.
+ * Handles packets on the client side. The client registers its
+ * {@link NetMetrics} over JMX as <tt>type=NetHandlerClient,id=&lt;n&gt;</tt>,
+ * numbered in the order clients are made.
  * 
  * @author Kenzie Togami
  * 
  */
 public class NetHandlerClient extends NetHandler {
+    private static final AtomicInteger nextId = new AtomicInteger();
+
     private Bootstrap b = null;
     private ChannelFuture futureNow = null;
     private Channel ch = null;
     private EventLoopGroup group = new NioEventLoopGroup();
     TelnetClient client = null;
+    PacketWriter writer = null;
+    final PacketFormat format;
 
+    /**
+     * Connects to a server that talks {@link PacketFormat#BINARY}.
+     * 
+     * @param from
+     *            - the local address
+     * @param to
+     *            - the server address
+     */
     public NetHandlerClient(SocketAddress from, SocketAddress to) {
+        this(from, to, PacketFormat.BINARY);
+    }
+
+    /**
+     * Connects to a server.
+     * 
+     * @param from
+     *            - the local address
+     * @param to
+     *            - the server address
+     * @param packetFormat
+     *            - the format the server uses
+     */
+    public NetHandlerClient(SocketAddress from, SocketAddress to,
+            PacketFormat packetFormat) {
+        format = packetFormat;
+        connect(from, to);
+    }
+
+    /**
+     * Connects to a server, with bounded queues.
+     * 
+     * @param from
+     *            - the local address
+     * @param to
+     *            - the server address
+     * @param packetFormat
+     *            - the format the server uses
+     * @param capacity
+     *            - the most packets each queue holds
+     * @param policy
+     *            - what to do with packets added to a full queue
+     */
+    public NetHandlerClient(SocketAddress from, SocketAddress to,
+            PacketFormat packetFormat, int capacity, OverflowPolicy policy) {
+        super(capacity, policy);
+        format = packetFormat;
+        connect(from, to);
+    }
+
+    private void connect(SocketAddress from, SocketAddress to) {
         try {
             bootstrap(from, to);
         } catch (InterruptedException e) {
             e.printStackTrace();
             shutdown();
+            return;
         }
+        getMetrics().register("type=NetHandlerClient,id="
+                + nextId.incrementAndGet());
     }
 
     private void bootstrap(SocketAddress from, SocketAddress to)
             throws InterruptedException {
         b = new Bootstrap().localAddress(from).remoteAddress(to).group(group)
                 .channel(NioSocketChannel.class)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                 .handler(new TelnetInitClient(this));
         futureNow = b.connect();
         // separate the calls so that other threads have a chance to cancel on
@@ -51,18 +116,136 @@ public class NetHandlerClient extends NetHandler {
         futureNow = null;
     }
 
+    /**
+     * Writes the packet to the server. Never blocks.
+     * 
+     * @return <tt>false</tt> if the connection is closed
+     * @see #write(Packet)
+     */
     @Override
     public boolean sendPacket(Packet p) {
-        boolean res = client.sendPacket(p);
-        client.writePackets();
-        return res;
+        if (!ch.isActive()) {
+            return false;
+        }
+        writer.write(p);
+        return true;
+    }
+
+    /**
+     * Writes the packet to the server. Never blocks, and writes are flushed
+     * together (see {@link PacketWriter}).
+     * 
+     * @param p
+     *            - the packet
+     * @return completes once the packet is written to the socket
+     */
+    public ChannelFuture write(Packet p) {
+        return writer.write(p);
+    }
+
+    /**
+     * Sends a file to the server as a {@link Blob} named after the file.
+     * Never blocks; the file is sent in the background, without being read
+     * into memory, and closed once done.
+     * 
+     * @param file
+     *            - the file
+     * @return completes once the whole file is written to the socket
+     * @throws IOException
+     *             if the file can't be opened
+     * @throws IllegalStateException
+     *             if the format isn't {@link PacketFormat#BINARY}
+     */
+    public ChannelFuture sendFile(File file) throws IOException {
+        checkBlobs();
+        return BlobSender.sendFile(ch, file);
+    }
+
+    /**
+     * Sends part of a file to the server as a {@link Blob}. Never blocks;
+     * the file is sent in the background, without being read into memory.
+     * The file is left open, and must not be closed until the returned
+     * future completes.
+     * 
+     * @param name
+     *            - the name of the blob
+     * @param file
+     *            - the file
+     * @param position
+     *            - where in the file to start
+     * @param count
+     *            - how many bytes to send
+     * @return completes once the whole blob is written to the socket
+     * @throws IllegalStateException
+     *             if the format isn't {@link PacketFormat#BINARY}
+     */
+    public ChannelFuture sendBlob(String name, FileChannel file,
+            long position, long count) {
+        checkBlobs();
+        return BlobSender.send(ch, name, file, position, count, false);
+    }
+
+    private void checkBlobs() {
+        if (format != PacketFormat.BINARY) {
+            throw new IllegalStateException(format + " can't send blobs");
+        }
+    }
+
+    /**
+     * Checks if the server is keeping up with what is sent to it.
+     * 
+     * @return <tt>false</tt> if the channel's write buffer is over its high
+     *         water mark
+     */
+    public boolean isWritable() {
+        return writer.isWritable();
+    }
+
+    /**
+     * Asks the server to compress the connection. Once the server answers,
+     * both sides compress large frames with the compression it picked, if
+     * any.
+     * 
+     * @param preferred
+     *            - the compressions to ask for, most wanted first
+     * @return completes once the request is written
+     * @throws IllegalStateException
+     *             if the format isn't {@link PacketFormat#BINARY}
+     */
+    public ChannelFuture requestCompression(Compression... preferred) {
+        if (format != PacketFormat.BINARY) {
+            throw new IllegalStateException(format + " can't be compressed");
+        }
+        return writer.write(CompressionHandshake.of(preferred));
+    }
+
+    /**
+     * Gets the compression the server picked.
+     * 
+     * @return the compression, or <tt>null</tt> if there is none (yet)
+     */
+    public Compression getCompression() {
+        PacketBatchEncoder encoder = ch.pipeline()
+                .get(PacketBatchEncoder.class);
+        return encoder == null ? null : encoder.getCompression();
+    }
+
+    @Override
+    protected boolean isProcessingThread() {
+        // received packets are processed on the event loop
+        return ch != null && ch.eventLoop().inEventLoop();
     }
 
     @Override
     public void shutdown() {
         sync();
-        ch.close().syncUninterruptibly();
+        ChannelFuture closed = writer == null ? ch.close() : writer.close();
+        if (!ch.eventLoop().inEventLoop()) {
+            // can't wait on the loop that does the closing
+            closed.syncUninterruptibly();
+        }
         group.shutdownGracefully();
+        getMetrics().unregister();
         stopped = true;
     }
 
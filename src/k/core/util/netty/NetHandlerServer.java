@@ -1,14 +1,33 @@
 package k.core.util.netty;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
- * Handles packets on the server side
+ * Handles packets on the server side. Every client gets a {@link Session},
+ * which handles the packets from that client on the client's event loop.
+ * <br>
+ * <br>
+ * Packets sent through the server itself, with {@link #sendPacket(Packet)}
+ * or its own queues, go to every client.
+ * <br>
+ * <br>
+ * The server and each session register their {@link NetMetrics} over JMX,
+ * as <tt>type=NetHandlerServer,port=&lt;port&gt;</tt> and
+ * <tt>type=Session,port=&lt;port&gt;,id=&lt;session id&gt;</tt>.
  * 
  * @author Kenzie Togami
  * 
@@ -19,26 +38,58 @@ public class NetHandlerServer extends NetHandler {
     private Channel ch = null;
     private EventLoopGroup boss = new NioEventLoopGroup(),
             worker = new NioEventLoopGroup();
-    TelnetServer server = null;
+    private final ConcurrentMap<Integer, Session> sessions = new ConcurrentHashMap<Integer, Session>();
+    private final Collection<Session> sessionView = Collections
+            .unmodifiableCollection(sessions.values());
+    final PacketFormat format;
+    volatile int sessionCapacity = Integer.MAX_VALUE;
+    volatile OverflowPolicy sessionPolicy = OverflowPolicy.REJECT;
+    volatile PacketExecutor executor = PacketExecutor.INLINE;
+    volatile Compression[] compressions = Compression.values();
+    private volatile int port;
 
+    /**
+     * Starts a server that talks {@link PacketFormat#BINARY}.
+     * 
+     * @param port
+     *            - the port to listen on
+     */
     public NetHandlerServer(int port) {
+        this(port, PacketFormat.BINARY);
+    }
+
+    /**
+     * Starts a server.
+     * 
+     * @param port
+     *            - the port to listen on
+     * @param packetFormat
+     *            - the format the clients use
+     */
+    public NetHandlerServer(int port, PacketFormat packetFormat) {
+        format = packetFormat;
         try {
             bootstrap(port);
         } catch (InterruptedException e) {
             e.printStackTrace();
             shutdown();
+            return;
         }
+        getMetrics().register("type=NetHandlerServer,port=" + this.port);
     }
 
     private void bootstrap(int port) throws InterruptedException {
         sb = new ServerBootstrap().localAddress(port).group(boss, worker)
                 .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.ALLOCATOR,
+                        PooledByteBufAllocator.DEFAULT)
                 .childHandler(new TelnetInitServer(this));
         futureNow = sb.bind();
         // separate the calls so that other threads have a chance to cancel on
         // futureNow.
         ch = futureNow.channel();
         sync();
+        this.port = ((InetSocketAddress) ch.localAddress()).getPort();
     }
 
     private void sync() {
@@ -49,19 +100,182 @@ public class NetHandlerServer extends NetHandler {
         futureNow = null;
     }
 
+    /**
+     * Bounds the queues of sessions that connect from now on. Sessions are
+     * unbounded unless this is called.
+     * 
+     * @param capacity
+     *            - the most packets each of a session's queues holds
+     * @param policy
+     *            - what to do with packets added to a full queue
+     */
+    public void setSessionQueueLimit(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity " + capacity
+                    + " <= 0");
+        }
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        sessionPolicy = policy;
+        sessionCapacity = capacity;
+    }
+
+    /**
+     * Sets the executor that processes the queues of the sessions. The
+     * default is {@link PacketExecutor#INLINE}. Connected sessions move to it
+     * once their current run is done, and the executor it replaces is shut
+     * down. The executor is shut down with the server.
+     * 
+     * @param packetExecutor
+     *            - the executor
+     */
+    public synchronized void setPacketExecutor(PacketExecutor packetExecutor) {
+        if (packetExecutor == null) {
+            throw new NullPointerException("packetExecutor");
+        }
+        PacketExecutor old = executor;
+        executor = packetExecutor;
+        if (old != packetExecutor) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * Sets the compressions clients may ask for. All of them are accepted
+     * unless this is called. Only {@link PacketFormat#BINARY} frames are
+     * compressed.
+     * 
+     * @param accepted
+     *            - the compressions to accept, none to never compress
+     */
+    public void setCompression(Compression... accepted) {
+        compressions = accepted.clone();
+    }
+
+    void register(Session s) {
+        sessions.put(s.getId(), s);
+        // the session's port is ours, even before the bind returns
+        int local = ((InetSocketAddress) s.getChannel().localAddress())
+                .getPort();
+        s.getMetrics().register("type=Session,port=" + local + ",id="
+                + s.getId());
+    }
+
+    void unregister(Session s) {
+        sessions.remove(s.getId());
+        s.getMetrics().unregister();
+    }
+
+    /**
+     * Gets the port the server is listening on.
+     * 
+     * @return the port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Gets the connected clients. The collection is a live view, and can be
+     * iterated while clients come and go.
+     * 
+     * @return the sessions
+     */
+    public Collection<Session> getSessions() {
+        return sessionView;
+    }
+
+    /**
+     * Gets a session by its id.
+     * 
+     * @param id
+     *            - the {@link Session#getId() session id}
+     * @return the session, or <tt>null</tt> if it isn't connected
+     */
+    public Session getSession(int id) {
+        return sessions.get(id);
+    }
+
+    /**
+     * Gets the number of connected clients.
+     * 
+     * @return the number of sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Sends a packet to every client.
+     * 
+     * @param p
+     *            - the packet
+     * @return the number of clients it was sent to
+     */
+    public int broadcast(Packet p) {
+        return multicast(p, sessionView);
+    }
+
+    /**
+     * Sends a packet to some of the clients. The packet is only encoded once,
+     * no matter how many clients it goes to.
+     * 
+     * @param p
+     *            - the packet
+     * @param to
+     *            - the clients to send to, closed ones are skipped
+     * @return the number of clients it was sent to
+     */
+    public int multicast(Packet p, Iterable<Session> to) {
+        ByteBuf encoded = null;
+        int sent = 0;
+        try {
+            for (Session s : to) {
+                Channel c = s.getChannel();
+                if (!c.isActive()) {
+                    continue;
+                }
+                if (encoded == null) {
+                    long start = System.nanoTime();
+                    encoded = format.encode(p, c.alloc());
+                    getMetrics().written(p, encoded.readableBytes(),
+                            System.nanoTime() - start);
+                }
+                s.getMetrics().written(p, encoded.readableBytes(), -1);
+                s.writeEncoded(encoded.duplicate().retain());
+                sent++;
+            }
+        } finally {
+            if (encoded != null) {
+                encoded.release();
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Sends a packet to every client.
+     * 
+     * @return <tt>true</tt> if there was at least one client
+     * @see #broadcast(Packet)
+     */
     @Override
     public boolean sendPacket(Packet p) {
-        boolean res = server.sendPacket(p);
-        server.writePackets();
-        return res;
+        return broadcast(p) > 0;
     }
 
     @Override
     public void shutdown() {
         sync();
+        for (Session s : sessions.values()) {
+            s.shutdown();
+        }
         ch.close().syncUninterruptibly();
         boss.shutdownGracefully();
         worker.shutdownGracefully();
+        executor.shutdown();
+        getMetrics().unregister();
         stopped = true;
     }
 
@@ -0,0 +1,347 @@
+package k.core.util.netty;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * What a {@link NetHandler} has been doing: packets and bytes in and out,
+ * for each packet type too, how long packets take to encode, decode and
+ * process, and what went wrong. Every handler, and so every {@link Session},
+ * has its own.
+ * <br>
+ * <br>
+ * Everything is counted without locking as packets go through, and can be
+ * read at any time, here or over JMX (see {@link NetMetricsMXBean}).
+ *
+ * @author Kenzie Togami
+ *
+ */
+public final class NetMetrics implements NetMetricsMXBean {
+    /**
+     * Whether handlers register their metrics with the platform MBean
+     * server, set by the <tt>packet.jmx</tt> property. Defaults to
+     * <tt>true</tt>.
+     */
+    static final boolean JMX = !"false".equals(System.getProperty(
+            "packet.jmx"));
+    /**
+     * The domain of the MBeans.
+     */
+    public static final String DOMAIN = "k.core.util.netty";
+
+    private static final AttributeKey<NetMetrics> KEY = AttributeKey
+            .valueOf(NetMetrics.class.getName());
+    private static final Comparator<PacketStats> BY_ID = new Comparator<PacketStats>() {
+        @Override
+        public int compare(PacketStats o1, PacketStats o2) {
+            return o1.getId() < o2.getId() ? -1 : o1.getId() == o2.getId() ? 0
+                    : 1;
+        }
+    };
+
+    private final NetHandler handler;
+    private final ConcurrentMap<Class<?>, PacketStats> byType = new ConcurrentHashMap<Class<?>, PacketStats>();
+    private final AtomicLong packetsIn = new AtomicLong(),
+            packetsOut = new AtomicLong(), bytesIn = new AtomicLong(),
+            bytesOut = new AtomicLong(), timeouts = new AtomicLong(),
+            failed = new AtomicLong();
+    private final LatencyHistogram encode = new LatencyHistogram(),
+            decode = new LatencyHistogram(), process = new LatencyHistogram();
+    private volatile ObjectName name;
+
+    NetMetrics(NetHandler nh) {
+        handler = nh;
+    }
+
+    /**
+     * Gets the metrics a channel's packets are counted in.
+     *
+     * @param ch
+     *            - the channel
+     * @return the metrics, or <tt>null</tt> if it has none
+     */
+    static NetMetrics of(Channel ch) {
+        return ch.attr(KEY).get();
+    }
+
+    /**
+     * Counts the packets on a channel in these metrics.
+     *
+     * @param ch
+     *            - the channel
+     */
+    void attach(Channel ch) {
+        ch.attr(KEY).set(this);
+    }
+
+    /**
+     * Gets the packets received, of all types.
+     *
+     * @return the count
+     */
+    @Override
+    public long getPacketsIn() {
+        return packetsIn.get();
+    }
+
+    /**
+     * Gets the packets written, of all types.
+     *
+     * @return the count
+     */
+    @Override
+    public long getPacketsOut() {
+        return packetsOut.get();
+    }
+
+    /**
+     * Gets the bytes read from the network, framing, compression and blobs
+     * included.
+     *
+     * @return the bytes
+     */
+    @Override
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    /**
+     * Gets the bytes written to the network, framing, compression and blobs
+     * included.
+     *
+     * @return the bytes
+     */
+    @Override
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    @Override
+    public int getSendQueueSize() {
+        return handler.getSendQueue().size();
+    }
+
+    @Override
+    public int getReceiveQueueSize() {
+        return handler.getReceiveQueue().size();
+    }
+
+    /**
+     * Gets the packets dropped by full {@link OverflowPolicy#DROP_LOWEST}
+     * queues.
+     *
+     * @return the count
+     */
+    @Override
+    public long getDropped() {
+        return handler.getSendQueue().getDropped()
+                + handler.getReceiveQueue().getDropped();
+    }
+
+    /**
+     * Gets the number of times processing ran out of time with packets still
+     * queued.
+     *
+     * @return the count
+     */
+    @Override
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * Gets the number of packets that couldn't be received or sent.
+     *
+     * @return the count
+     */
+    @Override
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Gets how long packets take to encode, including their
+     * {@link DataStruct}.
+     *
+     * @return the live histogram
+     */
+    @Override
+    public LatencyHistogram getEncodeLatency() {
+        return encode;
+    }
+
+    /**
+     * Gets how long packets take to decode, including making the packet.
+     *
+     * @return the live histogram
+     */
+    @Override
+    public LatencyHistogram getDecodeLatency() {
+        return decode;
+    }
+
+    /**
+     * Gets how long {@link IReceivePacket#receive(NetHandler)} takes.
+     *
+     * @return the live histogram
+     */
+    @Override
+    public LatencyHistogram getProcessLatency() {
+        return process;
+    }
+
+    /**
+     * Gets the counts for each packet type seen so far, by id.
+     *
+     * @return the stats, a new list each time
+     */
+    @Override
+    public List<PacketStats> getPacketStats() {
+        List<PacketStats> stats = new ArrayList<PacketStats>(byType.values());
+        Collections.sort(stats, BY_ID);
+        return stats;
+    }
+
+    /**
+     * Gets the counts for one packet type.
+     *
+     * @param type
+     *            - the packet class
+     * @return the stats, or <tt>null</tt> if none were seen yet
+     */
+    public PacketStats getPacketStats(Class<? extends Packet> type) {
+        return byType.get(type);
+    }
+
+    /**
+     * Starts counting from 0 again. Queue sizes and drops come from the
+     * queues, and aren't reset.
+     */
+    @Override
+    public void reset() {
+        for (PacketStats s : byType.values()) {
+            s.reset();
+        }
+        packetsIn.set(0);
+        packetsOut.set(0);
+        bytesIn.set(0);
+        bytesOut.set(0);
+        timeouts.set(0);
+        failed.set(0);
+        encode.reset();
+        decode.reset();
+        process.reset();
+    }
+
+    private PacketStats statsFor(Packet p) {
+        Class<?> type = p.getClass();
+        PacketStats s = byType.get(type);
+        if (s == null) {
+            PacketStats created = new PacketStats(Packet.idFor(p), type);
+            s = byType.putIfAbsent(type, created);
+            if (s == null) {
+                s = created;
+            }
+        }
+        return s;
+    }
+
+    void received(Packet p, int bytes, long decodeNanos) {
+        PacketStats s = statsFor(p);
+        s.packetsIn.incrementAndGet();
+        s.bytesIn.addAndGet(bytes);
+        packetsIn.incrementAndGet();
+        decode.record(decodeNanos);
+    }
+
+    void written(Packet p, int bytes, long encodeNanos) {
+        PacketStats s = statsFor(p);
+        s.packetsOut.incrementAndGet();
+        s.bytesOut.addAndGet(bytes);
+        packetsOut.incrementAndGet();
+        if (encodeNanos >= 0) {
+            encode.record(encodeNanos);
+        }
+    }
+
+    void processed(Packet p, long nanos) {
+        statsFor(p).processNanos.addAndGet(nanos);
+        process.record(nanos);
+    }
+
+    void read(long bytes) {
+        bytesIn.addAndGet(bytes);
+    }
+
+    void wrote(long bytes) {
+        bytesOut.addAndGet(bytes);
+    }
+
+    void timedOut() {
+        timeouts.incrementAndGet();
+    }
+
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * Registers these metrics as an MBean, unless turned off by
+     * {@link #JMX}. Failures are printed, and otherwise ignored.
+     *
+     * @param properties
+     *            - the key properties of the name, <tt>type=...</tt> and
+     *            so on
+     */
+    void register(String properties) {
+        if (!JMX) {
+            return;
+        }
+        try {
+            ObjectName on = new ObjectName(DOMAIN + ":" + properties);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+            name = on;
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Unregisters the MBean, if it was registered.
+     */
+    void unregister() {
+        ObjectName on = name;
+        if (on == null) {
+            return;
+        }
+        name = null;
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mbs.unregisterMBean(on);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "in=" + getPacketsIn() + "/" + getBytesIn() + "B, out="
+                + getPacketsOut() + "/" + getBytesOut() + "B, queued="
+                + getReceiveQueueSize() + "/" + getSendQueueSize()
+                + ", dropped=" + getDropped() + ", timeouts="
+                + getTimeouts() + ", failed=" + getFailed();
+    }
+}
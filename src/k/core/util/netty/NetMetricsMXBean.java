@@ -0,0 +1,41 @@
+package k.core.util.netty;
+
+import java.util.List;
+
+/**
+ * The JMX view of a {@link NetMetrics}. Handlers register theirs under
+ * <tt>k.core.util.netty:type=...</tt> unless the <tt>packet.jmx</tt>
+ * property is <tt>false</tt>.
+ *
+ * @author Kenzie Togami
+ *
+ */
+public interface NetMetricsMXBean {
+    public long getPacketsIn();
+
+    public long getPacketsOut();
+
+    public long getBytesIn();
+
+    public long getBytesOut();
+
+    public int getSendQueueSize();
+
+    public int getReceiveQueueSize();
+
+    public long getDropped();
+
+    public long getTimeouts();
+
+    public long getFailed();
+
+    public LatencyHistogram getEncodeLatency();
+
+    public LatencyHistogram getDecodeLatency();
+
+    public LatencyHistogram getProcessLatency();
+
+    public List<PacketStats> getPacketStats();
+
+    public void reset();
+}
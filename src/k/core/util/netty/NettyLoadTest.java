@@ -0,0 +1,476 @@
+package k.core.util.netty;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Puts load on a {@link NetHandlerServer} from many {@link NetHandlerClient}s
+ * over loopback, and reports throughput, round trip latency and GC as it
+ * goes. Every packet is echoed by the server.
+ * <br>
+ * <br>
+ * Packets are sent on a fixed schedule, whether or not the answers keep up,
+ * and latency is measured from when each packet was <i>meant</i> to be sent.
+ * A stall then shows up in the latency of every packet it held back, not
+ * just the one it happened to.
+ * <br>
+ * <br>
+ * Arguments are <tt>key=value</tt>, all optional:
+ * <ul>
+ * <li><tt>clients</tt> - the number of clients, 10</li>
+ * <li><tt>rate</tt> - packets per second from each client, 1000</li>
+ * <li><tt>seconds</tt> - how long to run, 10</li>
+ * <li><tt>mix</tt> - the packet types, <tt>weight:bytes</tt> each, comma
+ * separated, at most {@value #MAX_TYPES}. TEXT packets must fit in a line
+ * of 8KB. <tt>80:32,15:1024,5:16384</tt></li>
+ * <li><tt>format</tt> - the {@link PacketFormat}, BINARY</li>
+ * <li><tt>threads</tt> - worker threads for the server, 0 for a cached pool,
+ * or -1 to process on the event loops. -1</li>
+ * <li><tt>compression</tt> - a {@link Compression} to ask for, none</li>
+ * <li><tt>report</tt> - seconds between reports, 1</li>
+ * <li><tt>warmup</tt> - seconds left out of the summary at the end, 1</li>
+ * <li><tt>soak</tt> - <tt>true</tt> to look for leaks: collects garbage
+ * before each report, and compares the heap left at the start and end of
+ * the run. Also counts Netty's buffer leak reports. false</li>
+ * <li><tt>port</tt> - the server port, 25573</li>
+ * </ul>
+ *
+ * @author Kenzie Togami
+ *
+ */
+public class NettyLoadTest {
+    private static final int MAX_TYPES = 4;
+    private static final int FIRST_ID = 1000;
+
+    /*
+     * The packet types, which only differ in id. Sent by the clients and
+     * echoed by the server, they hold the client number, when they were meant
+     * to be sent, and a payload. Packets must extend Packet directly, so they
+     * share this.
+     */
+    private static ISendPacket echo(Packet p, NetHandler n) {
+        if (n instanceof Session) {
+            return (ISendPacket) p;
+        }
+        current.answered(p);
+        return ANSWERED;
+    }
+
+    public static class Load0 extends Packet implements ISendPacket,
+            IReceivePacket {
+        public Load0(DataStruct dataStruct) {
+            super(dataStruct);
+        }
+
+        @Override
+        public ISendPacket receive(NetHandler n) {
+            return echo(this, n);
+        }
+
+        @Override
+        public boolean send(NetHandler n) {
+            return n.sendPacket(this);
+        }
+    }
+
+    public static class Load1 extends Packet implements ISendPacket,
+            IReceivePacket {
+        public Load1(DataStruct dataStruct) {
+            super(dataStruct);
+        }
+
+        @Override
+        public ISendPacket receive(NetHandler n) {
+            return echo(this, n);
+        }
+
+        @Override
+        public boolean send(NetHandler n) {
+            return n.sendPacket(this);
+        }
+    }
+
+    public static class Load2 extends Packet implements ISendPacket,
+            IReceivePacket {
+        public Load2(DataStruct dataStruct) {
+            super(dataStruct);
+        }
+
+        @Override
+        public ISendPacket receive(NetHandler n) {
+            return echo(this, n);
+        }
+
+        @Override
+        public boolean send(NetHandler n) {
+            return n.sendPacket(this);
+        }
+    }
+
+    public static class Load3 extends Packet implements ISendPacket,
+            IReceivePacket {
+        public Load3(DataStruct dataStruct) {
+            super(dataStruct);
+        }
+
+        @Override
+        public ISendPacket receive(NetHandler n) {
+            return echo(this, n);
+        }
+
+        @Override
+        public boolean send(NetHandler n) {
+            return n.sendPacket(this);
+        }
+    }
+
+    private static final List<Class<? extends Packet>> TYPES = new ArrayList<Class<? extends Packet>>();
+    static {
+        TYPES.add(Load0.class);
+        TYPES.add(Load1.class);
+        TYPES.add(Load2.class);
+        TYPES.add(Load3.class);
+    }
+
+    /**
+     * The client's answer to an echo, which isn't sent.
+     */
+    public static class Answered extends Packet implements ISendPacket {
+        public Answered(DataStruct dataStruct) {
+            super(dataStruct);
+        }
+
+        @Override
+        public boolean send(NetHandler n) {
+            return true;
+        }
+    }
+
+    private static final ISendPacket ANSWERED;
+    static {
+        Packet.registerPacket(Answered.class, FIRST_ID + MAX_TYPES);
+        ANSWERED = (ISendPacket) Packet.newPacket(FIRST_ID + MAX_TYPES,
+                new DataStruct(new Object[0]));
+    }
+
+    private static volatile NettyLoadTest current;
+
+    private final Map<String, String> options = new HashMap<String, String>();
+    private int[] weights;
+    private String[] payloads;
+    private final LatencyHistogram interval = new LatencyHistogram(),
+            total = new LatencyHistogram();
+    private final LatencyHistogram[] byType = new LatencyHistogram[MAX_TYPES];
+    private final AtomicLong sent = new AtomicLong(),
+            received = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final List<Long> heapAfterGc = new ArrayList<Long>();
+    private NetHandlerServer nhs;
+    private NetHandlerClient[] clients;
+
+    private void answered(Packet p) {
+        long latency = System.nanoTime() - (Long) p.data.get(1);
+        interval.record(latency);
+        total.record(latency);
+        byType[Packet.idFor(p) - FIRST_ID].record(latency);
+        received.incrementAndGet();
+    }
+
+    private String option(String key, String def) {
+        String value = options.get(key);
+        return value == null ? def : value;
+    }
+
+    private int intOption(String key, int def) {
+        return Integer.parseInt(option(key, String.valueOf(def)));
+    }
+
+    public void init(String[] args) throws Exception {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("not key=value: " + arg);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int clientCount = intOption("clients", 10);
+        int rate = intOption("rate", 1000);
+        int seconds = intOption("seconds", 10);
+        int report = intOption("report", 1);
+        int warmup = intOption("warmup", 1);
+        int port = intOption("port", 25573);
+        int threads = intOption("threads", -1);
+        boolean soak = Boolean.parseBoolean(option("soak", "false"));
+        PacketFormat format = PacketFormat.valueOf(option("format", "BINARY"));
+        String[] mix = option("mix", "80:32,15:1024,5:16384").split(",");
+        if (mix.length > MAX_TYPES) {
+            throw new IllegalArgumentException("at most " + MAX_TYPES
+                    + " packet types");
+        }
+        weights = new int[mix.length];
+        payloads = new String[mix.length];
+        for (int i = 0; i < mix.length; i++) {
+            String[] parts = mix[i].split(":");
+            weights[i] = Integer.parseInt(parts[0]) + (i > 0 ? weights[i - 1]
+                    : 0);
+            char[] payload = new char[Integer.parseInt(parts[1])];
+            Arrays.fill(payload, 'x');
+            payloads[i] = new String(payload);
+            byType[i] = new LatencyHistogram();
+            Packet.registerPacket(TYPES.get(i), FIRST_ID + i);
+        }
+        if (soak) {
+            countLeaks();
+        }
+        current = this;
+
+        nhs = new NetHandlerServer(port, format);
+        if (threads >= 0) {
+            nhs.setPacketExecutor(threads > 0 ? new PoolPacketExecutor(
+                    threads) : new PoolPacketExecutor());
+        }
+        clients = new NetHandlerClient[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            clients[i] = new NetHandlerClient(new InetSocketAddress(0),
+                    new InetSocketAddress("localhost", port), format);
+            if (options.containsKey("compression")) {
+                clients[i].requestCompression(Compression.valueOf(options
+                        .get("compression")));
+            }
+        }
+        System.err.println(clientCount + " clients, " + rate
+                + "/s each, mix " + option("mix", "80:32,15:1024,5:16384")
+                + ", " + format + ", " + seconds + "s" + (soak ? ", soak" : ""));
+        try {
+            run((long) clientCount * rate, seconds, report, warmup, soak);
+        } finally {
+            for (NetHandlerClient c : clients) {
+                c.shutdown();
+            }
+            nhs.shutdown();
+            current = null;
+        }
+    }
+
+    /*
+     * Sends on schedule from this thread, and reports along the way.
+     */
+    private void run(long totalRate, int seconds, int report, int warmup,
+            boolean soak) throws InterruptedException {
+        Random random = new Random(42);
+        int totalWeight = weights[weights.length - 1];
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long nextReport = start + TimeUnit.SECONDS.toNanos(report);
+        // 0 once warmed up
+        long warm = warmup > 0 ? start + TimeUnit.SECONDS.toNanos(warmup)
+                : 0;
+        GcSnapshot gc = new GcSnapshot();
+        long lastSent = 0, lastReceived = 0, lastReportAt = start;
+        long k = 0;
+        long next = start;
+        for (;;) {
+            long now = System.nanoTime();
+            // behind schedule: send everything that is due, still stamped
+            // with when it was due
+            while (next <= now && next < end) {
+                int pick = random.nextInt(totalWeight);
+                int type = 0;
+                while (weights[type] <= pick) {
+                    type++;
+                }
+                Packet p = Packet.newPacket(FIRST_ID + type, new DataStruct(
+                        new Object[] { (int) (k % clients.length), next,
+                                payloads[type] }));
+                clients[(int) (k % clients.length)].write(p);
+                sent.incrementAndGet();
+                k++;
+                next = start + (long) (k * 1e9 / totalRate);
+            }
+            if (now >= nextReport || now >= end) {
+                if (soak) {
+                    System.gc();
+                }
+                long s = sent.get(), r = received.get();
+                double secs = (now - lastReportAt) / 1e9;
+                GcSnapshot nowGc = new GcSnapshot();
+                System.err.println(String.format(
+                        "%5.0fs sent %7.0f/s recv %7.0f/s  p50 %s p99 %s"
+                                + " p99.9 %s max %s  gc %d (%dms) heap %dMB"
+                                + " queued %d",
+                        (now - start) / 1e9, (s - lastSent) / secs,
+                        (r - lastReceived) / secs, time(interval.getP50()),
+                        time(interval.getP99()), time(interval.getP999()),
+                        time(interval.getMax()), nowGc.count - gc.count,
+                        nowGc.millis - gc.millis, nowGc.heapUsed >> 20,
+                        queued()));
+                interval.reset();
+                if (soak) {
+                    heapAfterGc.add(nowGc.heapUsed);
+                }
+                if (warm != 0 && now >= warm) {
+                    total.reset();
+                    for (int i = 0; i < weights.length; i++) {
+                        byType[i].reset();
+                    }
+                    warm = 0;
+                }
+                gc = nowGc;
+                lastSent = s;
+                lastReceived = r;
+                lastReportAt = now;
+                nextReport += TimeUnit.SECONDS.toNanos(report);
+                if (now >= end) {
+                    break;
+                }
+            }
+            long wait = Math.min(next, nextReport) - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        // give the last answers a moment
+        long drain = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received.get() < sent.get() && System.nanoTime() < drain) {
+            Thread.sleep(10);
+        }
+        summary(seconds, soak);
+    }
+
+    private int queued() {
+        int q = 0;
+        for (Session s : nhs.getSessions()) {
+            q += s.getReceiveQueue().size() + s.getSendQueue().size();
+        }
+        return q;
+    }
+
+    private void summary(int seconds, boolean soak) {
+        System.err.println(String.format(
+                "sent %d, answered %d, lost %d, %.0f/s", sent.get(),
+                received.get(), sent.get() - received.get(), received.get()
+                        / (double) seconds));
+        System.err.println("after warming up:");
+        System.err.println("all:    " + percentiles(total));
+        for (int i = 0; i < weights.length; i++) {
+            System.err.println(String.format("%-7s %s",
+                    payloads[i].length() + "B:", percentiles(byType[i])));
+        }
+        long timeouts = 0, dropped = 0;
+        for (Session s : nhs.getSessions()) {
+            timeouts += s.getMetrics().getTimeouts();
+            dropped += s.getMetrics().getDropped();
+        }
+        System.err.println("server timeouts " + timeouts + ", dropped "
+                + dropped);
+        if (soak) {
+            soakSummary();
+        }
+    }
+
+    private void soakSummary() {
+        int n = heapAfterGc.size();
+        if (n >= 4) {
+            // skip the first report, which includes warming up
+            long early = Math.min(heapAfterGc.get(1), heapAfterGc.get(2));
+            long late = Math.min(heapAfterGc.get(n - 1),
+                    heapAfterGc.get(n - 2));
+            System.err.println(String.format(
+                    "heap after gc: %dKB early, %dKB late (%+.1f%%)",
+                    early >> 10, late >> 10, (late - early) * 100.0 / early));
+            if (late > early * 1.2) {
+                System.err.println("possible leak: the heap grew by over 20%");
+            }
+        } else {
+            System.err.println("too few reports to compare the heap");
+        }
+        System.err.println("netty buffer leak reports: " + leaks.get());
+    }
+
+    private static String percentiles(LatencyHistogram h) {
+        return String.format("count %d mean %s p50 %s p90 %s p99 %s p99.9 %s"
+                + " max %s", h.getCount(), time((long) h.getMean()),
+                time(h.getP50()), time(h.getP90()), time(h.getP99()),
+                time(h.getP999()), time(h.getMax()));
+    }
+
+    private static String time(long nanos) {
+        if (nanos < 10000) {
+            return nanos + "ns";
+        }
+        if (nanos < 10000000) {
+            return nanos / 1000 + "us";
+        }
+        return nanos / 1000000 + "ms";
+    }
+
+    /*
+     * Netty logs a leaked buffer once it is garbage collected.
+     */
+    private void countLeaks() {
+        Logger.getLogger("io.netty.util.ResourceLeakDetector").addHandler(
+                new Handler() {
+                    @Override
+                    public void publish(LogRecord record) {
+                        if (record.getMessage() != null
+                                && record.getMessage().startsWith("LEAK")) {
+                            leaks.incrementAndGet();
+                        }
+                    }
+
+                    @Override
+                    public void flush() {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+    }
+
+    /**
+     * GC counts and times so far, and the heap in use, for the difference
+     * between reports.
+     */
+    private static final class GcSnapshot {
+        long count, millis, heapUsed;
+
+        GcSnapshot() {
+            for (GarbageCollectorMXBean gc : ManagementFactory
+                    .getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+                millis += Math.max(0, gc.getCollectionTime());
+            }
+            for (MemoryPoolMXBean pool : ManagementFactory
+                    .getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    MemoryUsage u = pool.getUsage();
+                    heapUsed += u.getUsed();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) throws Exception {
+        new NettyLoadTest().init(args);
+    }
+}
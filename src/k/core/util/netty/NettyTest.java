@@ -11,11 +11,22 @@ public class NettyTest {
 
     public void init(String[] args) {
 
+        // pass TEXT to test the old format
+        PacketFormat format = args.length > 0 ? PacketFormat.valueOf(args[0])
+                : PacketFormat.BINARY;
         // choose server port = 25566
-        nhs = new NetHandlerServer(25566);
+        nhs = new NetHandlerServer(25566, format);
+        // pass a thread count, or 0 for a cached pool, to process packets off
+        // the event loops
+        if (args.length > 1) {
+            int threads = Integer.parseInt(args[1]);
+            nhs.setPacketExecutor(threads > 0 ? new PoolPacketExecutor(
+                    threads) : new PoolPacketExecutor());
+        }
         try {
             nhc = new NetHandlerClient(new InetSocketAddress(0),
-                    new InetSocketAddress(InetAddress.getLocalHost(), 25566));
+                    new InetSocketAddress(InetAddress.getLocalHost(), 25566),
+                    format);
         } catch (UnknownHostException e1) {
             e1.printStackTrace();
             nhs.shutdown();
@@ -38,15 +49,32 @@ public class NettyTest {
             }
         };
         new Thread(r, "Termination Thread").start();
+        int serverSent = 0;
+        Session session = null;
         while (!nhc.isShutdown() && !nhs.isShutdown()) {
             nhc.processQueue();
             nhs.processQueue();
+            // the sessions answer the client, not the server itself
+            for (Session s : nhs.getSessions()) {
+                serverSent = s.packetsSent();
+                session = s;
+            }
             try {
                 Thread.sleep(100);
             } catch (Exception e) {
             }
         }
-        System.err.println(nhc.packetsSent() + ":" + nhs.packetsSent());
+        System.err.println(nhc.packetsSent() + ":" + serverSent);
+        // the session only stops itself when the termination packet arrives
+        for (int i = 0; i < 50 && session != null && !session.stopped; i++) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+            }
+        }
+        System.err.println("session got the termination packet: "
+                + (session != null && session.stopped));
+        nhs.shutdown();
     }
 
     /**
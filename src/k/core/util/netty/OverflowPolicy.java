@@ -0,0 +1,25 @@
+package k.core.util.netty;
+
+/**
+ * What a bounded {@link PacketQueue} does with a packet added while it is
+ * full.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait until a packet is taken off the queue. Don't use this for a queue
+     * that is filled on the same thread that empties it.
+     */
+    BLOCK,
+    /**
+     * Drop the lowest priority packet, which is the new packet if nothing
+     * queued has a lower priority than it.
+     */
+    DROP_LOWEST,
+    /**
+     * Throw an {@link IllegalStateException}.
+     */
+    REJECT;
+}
@@ -1,10 +1,9 @@
 package k.core.util.netty;
 
-import java.lang.instrument.IllegalClassFormatException;
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import k.core.util.classes.StackTraceInfo;
 import k.core.util.reflect.Reflect;
 
 /**
@@ -17,13 +16,71 @@ import k.core.util.reflect.Reflect;
 public abstract class Packet implements Comparable<Packet> {
 
     public static final int TERMINATION_PACKET_ID = Integer.MIN_VALUE;
-    private static HashMap<Class<? extends Packet>, Integer> packetToId = new HashMap<Class<? extends Packet>, Integer>();
-    private static HashMap<Integer, Class<? extends Packet>> idToPacket = new HashMap<Integer, Class<? extends Packet>>();
+    /**
+     * Marks a {@link PacketFormat#BINARY} frame holding many packets. Can't be
+     * registered.
+     */
+    public static final int BATCH_FRAME_ID = Integer.MAX_VALUE;
+    /**
+     * Marks a compressed {@link PacketFormat#BINARY} frame. Can't be
+     * registered.
+     */
+    public static final int COMPRESSED_FRAME_ID = Integer.MAX_VALUE - 1;
+    /**
+     * Marks a {@link PacketFormat#BINARY} frame holding part of a
+     * {@link Blob}. Can't be registered.
+     */
+    public static final int BLOB_FRAME_ID = Integer.MAX_VALUE - 2;
+    /**
+     * The id of the packet that negotiates {@link Compression}.
+     */
+    public static final int HANDSHAKE_PACKET_ID = Integer.MIN_VALUE + 1;
+    private static ConcurrentMap<Class<? extends Packet>, Integer> packetToId = new ConcurrentHashMap<Class<? extends Packet>, Integer>();
+    private static ConcurrentMap<Integer, Class<? extends Packet>> idToPacket = new ConcurrentHashMap<Integer, Class<? extends Packet>>();
+    private static volatile PacketTable factories = PacketTable.EMPTY;
 
+    /**
+     * Registers a packet type, which is made by its <tt>DataStruct</tt>
+     * constructor.
+     * 
+     * @param type
+     *            - the packet class
+     * @param id
+     *            - the id to send it with
+     * @throws IllegalArgumentException
+     *             if the type or id is already registered, or the type has no
+     *             <tt>DataStruct</tt> constructor
+     */
     public static final void registerPacket(Class<? extends Packet> type, int id) {
         if (type == null) {
             throw new NullPointerException();
         }
+        registerPacket(type, id, new ConstructorPacketFactory(type));
+    }
+
+    /**
+     * Registers a packet type with a factory to make it, so that decoding a
+     * packet doesn't need reflection.
+     * 
+     * @param type
+     *            - the packet class
+     * @param id
+     *            - the id to send it with
+     * @param factory
+     *            - makes packets of <tt>type</tt>
+     * @throws IllegalArgumentException
+     *             if the type or id is already registered
+     */
+    public static final synchronized void registerPacket(
+            Class<? extends Packet> type, int id, PacketFactory factory) {
+        if (type == null || factory == null) {
+            throw new NullPointerException();
+        }
+        if (id == BATCH_FRAME_ID || id == COMPRESSED_FRAME_ID
+                || id == BLOB_FRAME_ID) {
+            throw new IllegalArgumentException("id " + id
+                    + " is reserved for framing");
+        }
         if (packetToId.get(type) != null) {
             throw new IllegalArgumentException(type.getName()
                     + " already registered under id " + packetToId.get(type));
@@ -32,14 +89,27 @@ public abstract class Packet implements Comparable<Packet> {
             throw new IllegalArgumentException("id " + id
                     + " already linked to " + idToPacket.get(id).getName());
         }
+        factories = factories.with(id, factory);
         packetToId.put(type, id);
         idToPacket.put(id, type);
     }
 
     static {
-        registerPacket(PacketFinished.class, TERMINATION_PACKET_ID);
+        registerPacket(PacketFinished.class, TERMINATION_PACKET_ID,
+                new PacketFactory() {
+                    @Override
+                    public Packet create(DataStruct data) {
+                        return new PacketFinished(data);
+                    }
+                });
+        registerPacket(CompressionHandshake.class, HANDSHAKE_PACKET_ID,
+                new PacketFactory() {
+                    @Override
+                    public Packet create(DataStruct data) {
+                        return new CompressionHandshake(data);
+                    }
+                });
     }
-    private final String PACKET_CLASS_NAME = getClass().getName();
 
     /**
      * Uses an empty constructor for a packet.
@@ -53,7 +123,8 @@ public abstract class Packet implements Comparable<Packet> {
     }
 
     /**
-     * Uses a constructor that takes a {@link DataStruct} with the given data.
+     * Uses the packet's {@link PacketFactory} with the given data. This is how
+     * received packets are made.
      * 
      * @param id
      *            - the id of the packet
@@ -62,32 +133,32 @@ public abstract class Packet implements Comparable<Packet> {
      * @return
      */
     public static Packet newPacket(int id, DataStruct data) {
-        return newPacket(id, new Object[] { data });
+        PacketFactory f = factories.get(id);
+        if (f == null) {
+            throw new IllegalStateException("Packet not registered.");
+        }
+        return f.create(data);
     }
 
     /**
-     * Uses an empty constructor for a packet.
+     * Uses a constructor that takes the given objects. A single
+     * {@link DataStruct} goes to the packet's {@link PacketFactory}.
      * 
      * @param id
      *            - the id of the packet
-     * @param constrClasses
-     *            - find a constructor using these classes
      * @param constrObjects
      *            - use these objects during construction
      * @return
      */
     public static Packet newPacket(int id, Object[] constrObjects) {
+        if (constrObjects.length == 1
+                && constrObjects[0] instanceof DataStruct) {
+            return newPacket(id, (DataStruct) constrObjects[0]);
+        }
         Class<? extends Packet> pClass = idToPacket.get(id);
         if (pClass == null) {
             throw new IllegalStateException("Packet not registered.");
         } else {
-            try {
-                pClass.getDeclaredConstructor(new Class[] { DataStruct.class });
-            } catch (Exception e) {
-                throw new RuntimeException(
-                        new IllegalClassFormatException(pClass.getName()
-                                + " requires a DataStruct constructor"));
-            }
             try {
                 return Reflect.construct(pClass, constrObjects);
             } catch (InstantiationException e) {
@@ -116,10 +187,13 @@ public abstract class Packet implements Comparable<Packet> {
     /**
      * Do not attempt construction of packets. Use {@link Packet#newPacket(int)}
      * , {@link Packet#newPacket(int, DataStruct)}, or
-     * {@link Packet#newPacket(int, Class[], Object[])}
+     * {@link Packet#newPacket(int, Object[])}. Packet classes must extend
+     * {@link Packet} directly.
      */
     protected Packet(DataStruct ds) {
-        if (!StackTraceInfo.getInvokingClassName().equals(PACKET_CLASS_NAME)) {
+        // the same as checking the caller is the class itself, without
+        // walking the stack
+        if (getClass().getSuperclass() != Packet.class) {
             throw new IllegalAccessError(
                     "cannot create Packet class via constructor");
         }
@@ -153,8 +227,22 @@ public abstract class Packet implements Comparable<Packet> {
      * @see #compareTo(Object)
      */
     protected int delCompareTo(Packet o) {
-        int ourId = packetToId.get(getClass()), theirId = packetToId.get(o
-                .getClass());
+        return compareIds(packetToId.get(getClass()),
+                packetToId.get(o.getClass()));
+    }
+
+    /**
+     * Compares two packet ids the way {@link #compareTo(Packet)} does. Also
+     * orders the levels of a {@link PacketQueue}.
+     * 
+     * @param ourId
+     *            - the first id
+     * @param theirId
+     *            - the second id
+     * @return less than 0 if <tt>ourId</tt> goes first, 0 if they are the
+     *         same, more than 0 if <tt>theirId</tt> goes first
+     */
+    static int compareIds(int ourId, int theirId) {
         if (ourId == theirId) {
             return 0;
         } else if (ourId < theirId) {
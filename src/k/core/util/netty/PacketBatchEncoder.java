@@ -0,0 +1,260 @@
+package k.core.util.netty;
+
+import static k.core.util.netty.BinaryDataStructCodec.writeVarInt;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.ChannelPromiseNotifier;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+
+/**
+ * Writes the {@link Packet}s between two flushes as one
+ * {@link PacketFormat#BINARY} batch frame, instead of a frame each. A batch
+ * frame is the length, {@link Packet#BATCH_FRAME_ID}, a varint packet count,
+ * the zig-zag varint packet ids, the varint data lengths, and then the data of
+ * each packet back to back.
+ * <br>
+ * <br>
+ * A batch is also written once it holds {@link #BATCH_PACKETS} packets or
+ * {@link #BATCH_BYTES} bytes. A batch of one is written as a normal frame,
+ * and already encoded buffers go through as they are, after the batch so far.
+ * <br>
+ * <br>
+ * Once a {@link Compression} is negotiated, frames of at least
+ * {@link Compression#MIN_BYTES} are compressed (see
+ * {@link FrameDecompressor}).
+ *
+ * @author Kenzie Togami
+ *
+ */
+class PacketBatchEncoder extends ChannelOutboundHandlerAdapter {
+    /**
+     * The most packets in a batch, set by the <tt>packet.batchPackets</tt>
+     * property.
+     */
+    static final int BATCH_PACKETS = Integer.getInteger("packet.batchPackets",
+            1024);
+    /**
+     * The most data in a batch before it is written, set by the
+     * <tt>packet.batchBytes</tt> property.
+     */
+    static final int BATCH_BYTES = Integer.getInteger("packet.batchBytes",
+            64 * 1024);
+
+    private ByteBuf data;
+    private int count = 0;
+    private int[] ids = new int[16];
+    private int[] lengths = new int[16];
+    private ChannelPromise[] promises = new ChannelPromise[16];
+    private volatile Compression compression;
+    private Compressor compressor;
+    private final NetMetrics metrics;
+
+    /**
+     * @param metrics
+     *            - counts the packets written, or <tt>null</tt>
+     */
+    PacketBatchEncoder(NetMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg,
+            ChannelPromise promise) throws Exception {
+        if (!(msg instanceof Packet)) {
+            writeBatch(ctx);
+            ctx.write(msg, promise);
+            return;
+        }
+        Packet p = (Packet) msg;
+        if (data == null) {
+            data = ctx.alloc().buffer();
+            // room for the length and id of a batch of one
+            data.writeLong(0);
+        }
+        int start = data.writerIndex();
+        long startNanos = System.nanoTime();
+        int id;
+        try {
+            id = Packet.idFor(p);
+            DataStructCodec.BINARY.encode(p.data, data);
+        } catch (Throwable t) {
+            // drop the half written packet, the rest of the batch is fine
+            data.writerIndex(start);
+            promise.setFailure(t);
+            return;
+        }
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+            promises = Arrays.copyOf(promises, count * 2);
+        }
+        ids[count] = id;
+        lengths[count] = data.writerIndex() - start;
+        promises[count] = promise;
+        if (metrics != null) {
+            // counted as a frame of its own, whether batched or not
+            metrics.written(p, lengths[count] + 8, System.nanoTime()
+                    - startNanos);
+        }
+        count++;
+        if (count >= BATCH_PACKETS || data.readableBytes() >= BATCH_BYTES) {
+            writeBatch(ctx);
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        writeBatch(ctx);
+        ctx.flush();
+    }
+
+    private void writeBatch(ChannelHandlerContext ctx) {
+        if (count == 0) {
+            return;
+        }
+        ByteBuf batch = data;
+        ByteBuf header = null;
+        int length;
+        ChannelPromise done;
+        if (count == 1) {
+            length = batch.readableBytes() - 4;
+            batch.setInt(0, length);
+            batch.setInt(4, ids[0]);
+            done = promises[0];
+        } else {
+            batch.skipBytes(8);
+            header = ctx.alloc().buffer(13 + count * 10);
+            header.writeInt(0);
+            header.writeInt(Packet.BATCH_FRAME_ID);
+            writeVarInt(header, count);
+            for (int i = 0; i < count; i++) {
+                writeVarInt(header, (ids[i] << 1) ^ (ids[i] >> 31));
+            }
+            for (int i = 0; i < count; i++) {
+                writeVarInt(header, lengths[i]);
+            }
+            length = header.readableBytes() - 4 + batch.readableBytes();
+            header.setInt(0, length);
+            done = ctx.newPromise();
+            done.addListener(new ChannelPromiseNotifier(Arrays.copyOf(
+                    promises, count)));
+        }
+        clear();
+        if (compressor != null && length >= Compression.MIN_BYTES) {
+            ByteBuf packed = compress(ctx, header, batch, length);
+            if (packed != null) {
+                if (header != null) {
+                    header.release();
+                }
+                batch.release();
+                ctx.write(packed, done);
+                return;
+            }
+        }
+        if (header != null) {
+            ctx.write(header);
+        }
+        ctx.write(batch, done);
+    }
+
+    /*
+     * Compresses everything after the length field, or returns null if that
+     * doesn't make it any smaller.
+     */
+    private ByteBuf compress(ChannelHandlerContext ctx, ByteBuf header,
+            ByteBuf batch, int length) {
+        ByteBuf in;
+        if (header == null) {
+            in = batch.slice(batch.readerIndex() + 4, length);
+        } else {
+            // retained, since releasing the composite releases them
+            in = Unpooled.wrappedBuffer(
+                    header.slice(4, header.readableBytes() - 4).retain(),
+                    batch.slice().retain());
+        }
+        ByteBuf out = ctx.alloc().heapBuffer(length / 2 + 16);
+        out.writeInt(0);
+        out.writeInt(Packet.COMPRESSED_FRAME_ID);
+        out.writeByte(compression.id);
+        writeVarInt(out, length);
+        try {
+            compressor.compress(in, out);
+        } catch (RuntimeException e) {
+            // still send it, just not compressed
+            e.printStackTrace();
+            out.release();
+            return null;
+        } finally {
+            if (header != null) {
+                in.release();
+            }
+        }
+        if (out.readableBytes() - 4 >= length) {
+            out.release();
+            return null;
+        }
+        out.setInt(0, out.readableBytes() - 4);
+        return out;
+    }
+
+    /**
+     * Starts or stops compressing frames. Only call on the event loop.
+     * 
+     * @param c
+     *            - the compression, or <tt>null</tt> for none
+     */
+    void compressWith(Compression c) {
+        if (compressor != null) {
+            compressor.end();
+        }
+        compressor = c == null ? null : c.newCompressor();
+        compression = c;
+    }
+
+    /**
+     * Gets the compression in use. Safe to call from any thread.
+     * 
+     * @return the compression, or <tt>null</tt> if frames aren't compressed
+     */
+    Compression getCompression() {
+        return compression;
+    }
+
+    private void clear() {
+        data = null;
+        Arrays.fill(promises, 0, count, null);
+        count = 0;
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise)
+            throws Exception {
+        // what was written before the close still goes out
+        writeBatch(ctx);
+        ctx.flush();
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        fail(new ClosedChannelException());
+        compressWith(null);
+    }
+
+    private void fail(Throwable cause) {
+        if (data == null) {
+            return;
+        }
+        ChannelPromise[] failed = Arrays.copyOf(promises, count);
+        data.release();
+        clear();
+        for (ChannelPromise p : failed) {
+            p.tryFailure(cause);
+        }
+    }
+}
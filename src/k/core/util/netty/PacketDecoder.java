@@ -0,0 +1,91 @@
+package k.core.util.netty;
+
+import static k.core.util.netty.BinaryDataStructCodec.readVarInt;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.util.List;
+
+/**
+ * Reads the {@link Packet}s from a frame written by {@link PacketEncoder} or
+ * {@link PacketBatchEncoder}. Goes
+ * after a {@link io.netty.handler.codec.LengthFieldBasedFrameDecoder
+ * LengthFieldBasedFrameDecoder} that strips the length.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+@Sharable
+class PacketDecoder extends MessageToMessageDecoder<ByteBuf> {
+    private final NetMetrics metrics;
+
+    /**
+     * @param metrics
+     *            - counts the packets decoded, or <tt>null</tt>
+     */
+    PacketDecoder(NetMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf msg,
+            List<Object> out) throws Exception {
+        int id = msg.readInt();
+        if (id == Packet.BATCH_FRAME_ID) {
+            decodeBatch(msg, out);
+        } else {
+            out.add(decode(id, msg));
+        }
+    }
+
+    /*
+     * Splits a frame written by PacketBatchEncoder into its packets.
+     */
+    private void decodeBatch(ByteBuf msg, List<Object> out) {
+        int count = readVarInt(msg);
+        // every packet takes at least two bytes of header
+        if (count < 0 || count > msg.readableBytes() / 2) {
+            throw new CorruptedFrameException("bad packet count " + count);
+        }
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            int zz = readVarInt(msg);
+            ids[i] = (zz >>> 1) ^ -(zz & 1);
+        }
+        int[] lengths = new int[count];
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            lengths[i] = readVarInt(msg);
+            total += lengths[i];
+            if (lengths[i] < 0) {
+                throw new CorruptedFrameException("bad packet length "
+                        + lengths[i]);
+            }
+        }
+        if (total != msg.readableBytes()) {
+            throw new CorruptedFrameException("packet lengths add up to "
+                    + total + ", not " + msg.readableBytes());
+        }
+        for (int i = 0; i < count; i++) {
+            out.add(decode(ids[i], msg.readSlice(lengths[i])));
+        }
+    }
+
+    private Packet decode(int id, ByteBuf data) {
+        int length = data.readableBytes();
+        long start = System.nanoTime();
+        Packet p = Packet.newPacket(id, DataStructCodec.BINARY.decode(data));
+        if (p == null) {
+            throw new DecoderException("Couldn't create packet " + id);
+        }
+        if (metrics != null) {
+            // counted as a frame of its own, whether batched or not
+            metrics.received(p, length + 8, System.nanoTime() - start);
+        }
+        return p;
+    }
+}
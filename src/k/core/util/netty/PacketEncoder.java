@@ -0,0 +1,42 @@
+package k.core.util.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+/**
+ * Writes a {@link Packet} as one {@link PacketFormat#BINARY} frame: the
+ * length of the rest of the frame, the packet id, then the packet's
+ * {@link DataStructCodec#BINARY} data. The length is filled in after the data
+ * is written, so the packet is never copied.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+@Sharable
+class PacketEncoder extends MessageToByteEncoder<Packet> {
+    static final PacketEncoder INSTANCE = new PacketEncoder();
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Packet msg, ByteBuf out)
+            throws Exception {
+        write(msg, out);
+    }
+
+    /**
+     * Writes one frame.
+     * 
+     * @param msg
+     *            - the packet
+     * @param out
+     *            - the buffer to write to
+     */
+    static void write(Packet msg, ByteBuf out) {
+        int start = out.writerIndex();
+        out.writeInt(0);
+        out.writeInt(Packet.idFor(msg));
+        DataStructCodec.BINARY.encode(msg.data, out);
+        out.setInt(start, out.writerIndex() - start - 4);
+    }
+}
@@ -0,0 +1,38 @@
+package k.core.util.netty;
+
+import io.netty.channel.Channel;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Decides which threads process a {@link Session}'s queues. A session's
+ * packets are always processed one at a time and in order, but different
+ * sessions can be processed at the same time.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+public interface PacketExecutor {
+    /**
+     * Processes packets on the session's event loop. Nothing is handed
+     * between threads, but a slow {@link IReceivePacket#receive(NetHandler)}
+     * holds up every channel on that loop.
+     */
+    public static final PacketExecutor INLINE = new InlinePacketExecutor();
+
+    /**
+     * Gets the executor that processes the queues of the session on
+     * <tt>channel</tt>.
+     * 
+     * @param channel
+     *            - the session's channel
+     * @return the executor
+     */
+    public Executor executorFor(Channel channel);
+
+    /**
+     * Stops any threads this executor started. Called when the server it was
+     * given to shuts down.
+     */
+    public void shutdown();
+}
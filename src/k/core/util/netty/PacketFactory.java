@@ -0,0 +1,21 @@
+package k.core.util.netty;
+
+/**
+ * Creates one type of packet. Registered with
+ * {@link Packet#registerPacket(Class, int, PacketFactory)}, it lets packets be
+ * made without any reflection.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+public interface PacketFactory {
+    /**
+     * Creates a packet.
+     * 
+     * @param data
+     *            - the packet's data
+     * @return the packet, which must be of the type this factory was
+     *         registered for
+     */
+    public Packet create(DataStruct data);
+}
@@ -0,0 +1,99 @@
+package k.core.util.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.DelimiterBasedFrameDecoder;
+import io.netty.handler.codec.Delimiters;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.string.StringDecoder;
+import io.netty.handler.codec.string.StringEncoder;
+
+/**
+ * How {@link Packet}s are put on the wire. Both ends of a connection have to
+ * use the same format.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+public enum PacketFormat {
+    /**
+     * Length prefixed frames holding the packet id and its
+     * {@link DataStructCodec#BINARY} data. Packets written between flushes
+     * share one frame, see {@link PacketBatchEncoder}, and frames can be
+     * {@link Compression compressed}. Frames can be up to
+     * {@link #MAX_FRAME_LENGTH} bytes.
+     */
+    BINARY {
+        @Override
+        void addCodec(ChannelPipeline pipeline, NetMetrics metrics) {
+            pipeline.addLast("framer", new LengthFieldBasedFrameDecoder(
+                    MAX_FRAME_LENGTH, 0, 4, 0, 4));
+            pipeline.addLast("decompressor", new FrameDecompressor());
+            pipeline.addLast("decoder", new PacketDecoder(metrics));
+            pipeline.addLast("encoder", new PacketBatchEncoder(metrics));
+        }
+
+        @Override
+        ByteBuf encode(Packet p, ByteBufAllocator alloc) {
+            ByteBuf out = alloc.buffer();
+            PacketEncoder.write(p, out);
+            return out;
+        }
+    },
+    /**
+     * The original format, one {@link Packet#toData(Packet)} string per line.
+     * Lines are limited to 8192 characters.
+     */
+    TEXT {
+        @Override
+        void addCodec(ChannelPipeline pipeline, NetMetrics metrics) {
+            pipeline.addLast("framer", new DelimiterBasedFrameDecoder(8192,
+                    Delimiters.lineDelimiter()));
+            // the string encoders and decoders are sharable
+            pipeline.addLast("decoder", STRING_DECODER);
+            pipeline.addLast("encoder", STRING_ENCODER);
+            pipeline.addLast("packetDecoder", new TextPacketDecoder(metrics));
+            pipeline.addLast("packetEncoder", new TextPacketEncoder(metrics));
+        }
+
+        @Override
+        ByteBuf encode(Packet p, ByteBufAllocator alloc) {
+            byte[] line = (Packet.toData(p) + "\r\n").getBytes();
+            return alloc.buffer(line.length).writeBytes(line);
+        }
+    };
+
+    /**
+     * The largest {@link #BINARY} frame accepted, set by the
+     * <tt>packet.maxFrameLength</tt> property. Defaults to 16 MiB.
+     */
+    public static final int MAX_FRAME_LENGTH = Integer.getInteger(
+            "packet.maxFrameLength", 16 << 20);
+
+    private static final StringDecoder STRING_DECODER = new StringDecoder();
+    private static final StringEncoder STRING_ENCODER = new StringEncoder();
+
+    /**
+     * Adds the handlers that turn bytes into {@link Packet}s and back. The
+     * handler added after them only sees <tt>Packet</tt>s.
+     * 
+     * @param pipeline
+     *            - the channel's pipeline
+     * @param metrics
+     *            - where to count the packets, or <tt>null</tt>
+     */
+    abstract void addCodec(ChannelPipeline pipeline, NetMetrics metrics);
+
+    /**
+     * Encodes a packet the same way the pipeline would, so that it can be
+     * written to many channels but only encoded once.
+     * 
+     * @param p
+     *            - the packet
+     * @param alloc
+     *            - the allocator for the buffer
+     * @return the encoded packet
+     */
+    abstract ByteBuf encode(Packet p, ByteBufAllocator alloc);
+}
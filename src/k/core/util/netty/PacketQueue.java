@@ -0,0 +1,338 @@
+package k.core.util.netty;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrent priority queue of packets. Each packet id gets its own
+ * lock-free FIFO queue, a <i>level</i>, and the levels are ordered the same
+ * way {@link Packet#compareTo(Packet)} orders ids. Packets with the same id
+ * come out in the order they went in.
+ * <br>
+ * <br>
+ * Any number of threads may add packets without locking. Packets should be
+ * taken off by one thread at a time; more still works, but the order across
+ * levels is then only roughly kept.
+ * <br>
+ * <br>
+ * The queue may be bounded, in which case the {@link OverflowPolicy} decides
+ * what happens to a packet added while it is full. Only blocking adds take a
+ * lock, and only while the queue is full.
+ *
+ * @author Kenzie Togami
+ *
+ * @param <P>
+ *            - the packet type. Everything added must be a {@link Packet}.
+ */
+public final class PacketQueue<P> {
+    private static final class Level<P> {
+        private final int id;
+        private final ConcurrentLinkedQueue<P> queue = new ConcurrentLinkedQueue<P>();
+
+        private Level(int id) {
+            this.id = id;
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static final Level[] NO_LEVELS = new Level[0];
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final ConcurrentMap<Class<?>, Level<P>> levelByClass = new ConcurrentHashMap<Class<?>, Level<P>>();
+    /**
+     * Highest priority first. Copied on write, levels are only added once
+     * per packet type.
+     */
+    @SuppressWarnings("unchecked")
+    private volatile Level<P>[] levels = NO_LEVELS;
+    private final Object notFull = new Object();
+    private volatile int waiting = 0;
+
+    /**
+     * Creates an unbounded queue.
+     */
+    public PacketQueue() {
+        this(Integer.MAX_VALUE, OverflowPolicy.REJECT);
+    }
+
+    /**
+     * Creates a bounded queue.
+     *
+     * @param capacity
+     *            - the most packets the queue holds
+     * @param policy
+     *            - what to do with packets added while it is full
+     */
+    public PacketQueue(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity " + capacity
+                    + " <= 0");
+        }
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Adds a packet, following the {@link OverflowPolicy} if the queue is
+     * full.
+     *
+     * @param p
+     *            - the packet
+     * @return <tt>false</tt> if the packet was dropped, or the thread was
+     *         interrupted while blocked
+     * @throws IllegalStateException
+     *             if the queue is full and the policy is
+     *             {@link OverflowPolicy#REJECT}
+     */
+    public boolean add(P p) {
+        Level<P> level = levelFor(p);
+        if (reserve() || policy == OverflowPolicy.DROP_LOWEST
+                && makeRoom(level)) {
+            level.queue.offer(p);
+            return true;
+        }
+        switch (policy) {
+        case BLOCK:
+            if (!awaitRoom()) {
+                return false;
+            }
+            level.queue.offer(p);
+            return true;
+        case REJECT:
+            throw new IllegalStateException("queue full (" + capacity + ")");
+        default:
+            // dropped by makeRoom
+            return false;
+        }
+    }
+
+    /**
+     * Adds a packet if there is room. Never blocks or throws;
+     * {@link OverflowPolicy#DROP_LOWEST} still drops a lower packet to make
+     * room.
+     *
+     * @param p
+     *            - the packet
+     * @return <tt>false</tt> if the packet wasn't added
+     */
+    public boolean offer(P p) {
+        Level<P> level = levelFor(p);
+        if (reserve() || policy == OverflowPolicy.DROP_LOWEST
+                && makeRoom(level)) {
+            level.queue.offer(p);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes the highest priority packet off the queue.
+     *
+     * @return the packet, or <tt>null</tt> if the queue is empty
+     */
+    public P poll() {
+        if (count.get() == 0) {
+            return null;
+        }
+        for (Level<P> level : levels) {
+            P p = level.queue.poll();
+            if (p != null) {
+                released();
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks at the highest priority packet without taking it off the queue.
+     *
+     * @return the packet, or <tt>null</tt> if the queue is empty
+     */
+    public P peek() {
+        if (count.get() == 0) {
+            return null;
+        }
+        for (Level<P> level : levels) {
+            P p = level.queue.peek();
+            if (p != null) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of packets in the queue. Packets still being added by
+     * other threads may already be counted.
+     *
+     * @return the size
+     */
+    public int size() {
+        return count.get();
+    }
+
+    public boolean isEmpty() {
+        return count.get() == 0;
+    }
+
+    /**
+     * Checks if the queue holds as many packets as it can.
+     *
+     * @return <tt>true</tt> if it is full
+     */
+    public boolean isFull() {
+        return count.get() >= capacity;
+    }
+
+    /**
+     * Gets the most packets this queue holds.
+     *
+     * @return the capacity, {@link Integer#MAX_VALUE} if unbounded
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gets the number of packets dropped by
+     * {@link OverflowPolicy#DROP_LOWEST}.
+     *
+     * @return the dropped count
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private Level<P> levelFor(P p) {
+        Class<?> type = p.getClass();
+        Level<P> level = levelByClass.get(type);
+        return level != null ? level : newLevel(type, (Packet) p);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized Level<P> newLevel(Class<?> type, Packet p) {
+        Level<P> level = levelByClass.get(type);
+        if (level != null) {
+            return level;
+        }
+        int id;
+        try {
+            id = Packet.idFor(p);
+        } catch (NullPointerException e) {
+            throw new IllegalArgumentException(type.getName()
+                    + " is not registered");
+        }
+        Level<P>[] old = levels;
+        for (Level<P> l : old) {
+            // two classes can't share an id, but be safe
+            if (l.id == id) {
+                levelByClass.put(type, l);
+                return l;
+            }
+        }
+        int at = 0;
+        while (at < old.length && Packet.compareIds(old[at].id, id) <= 0) {
+            at++;
+        }
+        Level<P>[] next = Arrays.copyOf(old, old.length + 1);
+        System.arraycopy(old, at, next, at + 1, old.length - at);
+        level = next[at] = new Level<P>(id);
+        levels = next;
+        levelByClass.put(type, level);
+        return level;
+    }
+
+    private boolean reserve() {
+        for (;;) {
+            int c = count.get();
+            if (c >= capacity) {
+                return false;
+            }
+            if (count.compareAndSet(c, c + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void released() {
+        count.decrementAndGet();
+        if (waiting > 0) {
+            synchronized (notFull) {
+                notFull.notifyAll();
+            }
+        }
+    }
+
+    /*
+     * Drops packets lower than the level until there is room, or drops the
+     * new packet if there are none. True if a slot was reserved.
+     */
+    private boolean makeRoom(Level<P> level) {
+        for (;;) {
+            Level<P> victim = lowestBelow(level);
+            if (victim == null) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            // someone else may have taken it first, then just look again
+            if (victim.queue.poll() != null) {
+                dropped.incrementAndGet();
+                released();
+            }
+            if (reserve()) {
+                return true;
+            }
+        }
+    }
+
+    private Level<P> lowestBelow(Level<P> level) {
+        Level<P>[] ls = levels;
+        for (int i = ls.length - 1; i >= 0; i--) {
+            Level<P> l = ls[i];
+            if (Packet.compareIds(l.id, level.id) <= 0) {
+                return null;
+            }
+            if (!l.queue.isEmpty()) {
+                return l;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * The waiting count goes up under the lock before checking for room, so a
+     * poll either makes room before the check or sees the waiter and
+     * notifies after we wait.
+     */
+    private boolean awaitRoom() {
+        synchronized (notFull) {
+            waiting++;
+            try {
+                while (!reserve()) {
+                    notFull.wait();
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiting--;
+            }
+        }
+    }
+}
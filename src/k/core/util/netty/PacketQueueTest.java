@@ -0,0 +1,79 @@
+package k.core.util.netty;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PacketQueueTest {
+    private static final int PRODUCERS = 4, PER_PRODUCER = 100000;
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Packet.registerPacket(TestPacket.class, 1);
+        Packet end = Packet.newPacket(Packet.TERMINATION_PACKET_ID);
+        // the termination packet always goes last
+        PacketQueue<Packet> q = new PacketQueue<Packet>();
+        q.add(end);
+        q.add(new TestPacket("first"));
+        q.add(new TestPacket("second"));
+        System.err.println(q.poll() + " " + q.poll() + " " + q.poll());
+
+        PacketQueue<Packet> drop = new PacketQueue<Packet>(2,
+                OverflowPolicy.DROP_LOWEST);
+        drop.add(end);
+        drop.add(new TestPacket("kept"));
+        System.err.println("drops termination: "
+                + drop.add(new TestPacket("also kept")) + ", dropped "
+                + drop.getDropped());
+        System.err.println("drops new: " + drop.add(new TestPacket("lost"))
+                + ", dropped " + drop.getDropped() + ", size " + drop.size());
+
+        PacketQueue<Packet> reject = new PacketQueue<Packet>(1,
+                OverflowPolicy.REJECT);
+        reject.add(end);
+        try {
+            reject.add(end);
+            System.err.println("REJECT didn't reject!");
+        } catch (IllegalStateException expected) {
+            System.err.println("rejected: " + expected.getMessage());
+        }
+
+        // many producers into a small blocking queue
+        final PacketQueue<Packet> block = new PacketQueue<Packet>(64,
+                OverflowPolicy.BLOCK);
+        final Packet p = new TestPacket("p");
+        final AtomicInteger maxSize = new AtomicInteger();
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int i = 0; i < producers.length; i++) {
+            producers[i] = new Thread("Producer " + i) {
+                @Override
+                public void run() {
+                    for (int j = 0; j < PER_PRODUCER; j++) {
+                        block.add(p);
+                        int size = block.size();
+                        if (size > maxSize.get()) {
+                            maxSize.set(size);
+                        }
+                    }
+                }
+            };
+            producers[i].start();
+        }
+        long start = System.nanoTime();
+        int taken = 0;
+        while (taken < PRODUCERS * PER_PRODUCER) {
+            if (block.poll() != null) {
+                taken++;
+            } else {
+                Thread.yield();
+            }
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+        System.err.println("took " + taken + " of "
+                + PRODUCERS * PER_PRODUCER + " in "
+                + (System.nanoTime() - start) / 1000000 + "ms, max size "
+                + maxSize.get() + ", left " + block.size());
+    }
+}
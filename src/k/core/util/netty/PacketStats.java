@@ -0,0 +1,103 @@
+package k.core.util.netty;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the packets of one type that went through a {@link NetHandler}.
+ * The counts are live, and keep going up as packets come and go.
+ *
+ * @author Kenzie Togami
+ *
+ */
+public final class PacketStats {
+    private final int id;
+    private final String type;
+    final AtomicLong packetsIn = new AtomicLong(), packetsOut = new AtomicLong(),
+            bytesIn = new AtomicLong(), bytesOut = new AtomicLong(),
+            processNanos = new AtomicLong();
+
+    PacketStats(int id, Class<?> type) {
+        this.id = id;
+        this.type = type.getName();
+    }
+
+    /**
+     * Gets the packet id.
+     *
+     * @return the id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the name of the packet class.
+     *
+     * @return the class name
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Gets the number of packets received.
+     *
+     * @return the count
+     */
+    public long getPacketsIn() {
+        return packetsIn.get();
+    }
+
+    /**
+     * Gets the number of packets written.
+     *
+     * @return the count
+     */
+    public long getPacketsOut() {
+        return packetsOut.get();
+    }
+
+    /**
+     * Gets the size of the packets received, not counting framing.
+     *
+     * @return the bytes
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    /**
+     * Gets the size of the packets written, not counting framing.
+     *
+     * @return the bytes
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * Gets the total time spent in {@link IReceivePacket#receive(NetHandler)}
+     * for packets of this type.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getProcessNanos() {
+        return processNanos.get();
+    }
+
+    void reset() {
+        packetsIn.set(0);
+        packetsOut.set(0);
+        bytesIn.set(0);
+        bytesOut.set(0);
+        processNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return type + "#" + id + "[in=" + getPacketsIn() + "/"
+                + getBytesIn() + "B, out=" + getPacketsOut() + "/"
+                + getBytesOut() + "B, process=" + getProcessNanos() / 1000
+                + "us]";
+    }
+}
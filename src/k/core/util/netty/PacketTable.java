@@ -0,0 +1,92 @@
+package k.core.util.netty;
+
+/**
+ * Maps packet ids to their {@link PacketFactory}. Open addressed, with the ids
+ * and factories in two flat arrays, so a lookup is a multiply and usually one
+ * probe. Tables never change once made; adding makes a new table, which is
+ * fine because packets are only registered a few times.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+final class PacketTable {
+    static final PacketTable EMPTY = new PacketTable(8);
+
+    private final int[] ids;
+    private final PacketFactory[] factories;
+    private final int mask;
+    private final int size;
+
+    private PacketTable(int capacity) {
+        ids = new int[capacity];
+        factories = new PacketFactory[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private PacketTable(PacketTable from, int capacity, int id,
+            PacketFactory factory) {
+        ids = new int[capacity];
+        factories = new PacketFactory[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < from.factories.length; i++) {
+            if (from.factories[i] != null) {
+                put(from.ids[i], from.factories[i]);
+            }
+        }
+        put(id, factory);
+        size = from.size + 1;
+    }
+
+    private static int slot(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void put(int id, PacketFactory factory) {
+        int i = slot(id) & mask;
+        while (factories[i] != null) {
+            i = (i + 1) & mask;
+        }
+        ids[i] = id;
+        factories[i] = factory;
+    }
+
+    /**
+     * Gets the factory for an id.
+     * 
+     * @param id
+     *            - the packet id
+     * @return the factory, or <tt>null</tt> if the id isn't registered
+     */
+    PacketFactory get(int id) {
+        int i = slot(id) & mask;
+        PacketFactory f;
+        while ((f = factories[i]) != null) {
+            if (ids[i] == id) {
+                return f;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Makes a new table with one more id in it. The id must not already be in
+     * this table.
+     * 
+     * @param id
+     *            - the packet id
+     * @param factory
+     *            - the factory for the id
+     * @return the new table
+     */
+    PacketTable with(int id, PacketFactory factory) {
+        int capacity = factories.length;
+        // keep it at most half full so probes stay short
+        while ((size + 1) * 2 > capacity) {
+            capacity <<= 1;
+        }
+        return new PacketTable(this, capacity, id, factory);
+    }
+}
@@ -0,0 +1,164 @@
+package k.core.util.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes packets to a channel without blocking and without a flush (and so a
+ * syscall) for each one. Packets are written as they come, then flushed
+ * together once the event loop is done with its current work, or once
+ * {@link #FLUSH_PACKETS} are waiting.
+ *
+ * @author Kenzie Togami
+ *
+ */
+final class PacketWriter {
+    /**
+     * The most packets written before a flush is forced, set by the
+     * <tt>packet.flushPackets</tt> property.
+     */
+    static final int FLUSH_PACKETS = Integer.getInteger("packet.flushPackets",
+            64);
+    /**
+     * How long to hold back a flush, in microseconds, set by the
+     * <tt>packet.flushDelayMicros</tt> property. 0 flushes as soon as the
+     * event loop runs out of other work.
+     */
+    static final long FLUSH_DELAY_MICROS = Long.getLong(
+            "packet.flushDelayMicros", 0);
+
+    /**
+     * The longest {@link #close()} waits for the last packets to be sent.
+     */
+    static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private final Channel channel;
+    private final EventLoop loop;
+    /*
+     * Only used on the event loop.
+     */
+    private int pending = 0;
+    private boolean flushScheduled = false;
+    private ChannelFuture lastWrite;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            flush();
+        }
+    };
+
+    PacketWriter(Channel ch) {
+        channel = ch;
+        loop = ch.eventLoop();
+    }
+
+    /**
+     * Writes a message. Safe to call from any thread.
+     *
+     * @param msg
+     *            - a {@link Packet}, or an already encoded buffer
+     * @return completes when the message is written to the socket. Failures
+     *         are also passed down the pipeline.
+     */
+    ChannelFuture write(final Object msg) {
+        final ChannelPromise promise = channel.newPromise();
+        promise.addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        if (loop.inEventLoop()) {
+            write0(msg, promise);
+        } else {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write0(msg, promise);
+                }
+            });
+        }
+        return promise;
+    }
+
+    private void write0(Object msg, ChannelPromise promise) {
+        channel.write(msg, promise);
+        lastWrite = promise;
+        if (++pending >= FLUSH_PACKETS) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            if (FLUSH_DELAY_MICROS > 0) {
+                loop.schedule(flushTask, FLUSH_DELAY_MICROS,
+                        TimeUnit.MICROSECONDS);
+            } else {
+                loop.execute(flushTask);
+            }
+        }
+    }
+
+    /**
+     * Flushes anything written so far. Only call on the event loop.
+     */
+    void flush() {
+        if (pending > 0) {
+            pending = 0;
+            channel.flush();
+        }
+    }
+
+    /**
+     * Flushes what has been written, then closes the channel once it is
+     * sent, so the last packets (like {@link PacketFinished}) aren't dropped.
+     * If they aren't sent within {@link #CLOSE_TIMEOUT_MILLIS}, the channel is
+     * closed anyway. Safe to call from any thread.
+     * 
+     * @return the channel's close future
+     */
+    ChannelFuture close() {
+        if (loop.inEventLoop()) {
+            close0();
+        } else {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    close0();
+                }
+            });
+        }
+        return channel.closeFuture();
+    }
+
+    private void close0() {
+        flush();
+        if (lastWrite == null || lastWrite.isDone()) {
+            channel.close();
+            return;
+        }
+        // writes complete in order, so everything is sent after the last one
+        lastWrite.addListener(ChannelFutureListener.CLOSE);
+        final ScheduledFuture<?> timeout = loop.schedule(new Runnable() {
+            @Override
+            public void run() {
+                channel.close();
+            }
+        }, CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        channel.closeFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                timeout.cancel(false);
+            }
+        });
+    }
+
+    /**
+     * Checks the channel's write buffer against its high water mark.
+     *
+     * @return <tt>false</tt> if the peer isn't keeping up
+     */
+    boolean isWritable() {
+        return channel.isWritable();
+    }
+}
@@ -0,0 +1,78 @@
+package k.core.util.netty;
+
+import io.netty.channel.Channel;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes packets on worker threads, keeping slow packets off the event
+ * loops. Each session still runs on one thread at a time, so its packets stay
+ * in order.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+public class PoolPacketExecutor implements PacketExecutor {
+    private static final AtomicInteger nextPool = new AtomicInteger();
+
+    private final ExecutorService pool;
+
+    /**
+     * Uses a new thread for each session being processed, reusing idle ones.
+     * Suits handlers that spend their time waiting rather than computing.
+     */
+    public PoolPacketExecutor() {
+        this(Executors.newCachedThreadPool(new WorkerFactory()));
+    }
+
+    /**
+     * Uses a fixed number of threads. Suits handlers that spend their time
+     * computing.
+     * 
+     * @param threads
+     *            - the number of threads
+     */
+    public PoolPacketExecutor(int threads) {
+        this(Executors.newFixedThreadPool(threads, new WorkerFactory()));
+    }
+
+    /**
+     * Uses the given executor service, which is shut down with this.
+     * 
+     * @param executor
+     *            - the executor service
+     */
+    public PoolPacketExecutor(ExecutorService executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        pool = executor;
+    }
+
+    @Override
+    public Executor executorFor(Channel channel) {
+        return pool;
+    }
+
+    @Override
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static final class WorkerFactory implements ThreadFactory {
+        private final int poolId = nextPool.incrementAndGet();
+        private final AtomicInteger nextThread = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Packet Worker " + poolId + "-"
+                    + nextThread.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
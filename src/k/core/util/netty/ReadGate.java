@@ -0,0 +1,103 @@
+package k.core.util.netty;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides whether a channel reads, for everything that wants it to stop. A
+ * channel stopped by a slow {@link Blob} reader and by a peer that isn't
+ * keeping up with our writes only reads again once both are over, instead
+ * of whichever finishes first turning reading back on.
+ *
+ * @author Kenzie Togami
+ *
+ */
+final class ReadGate {
+    /**
+     * The reason used while the channel isn't writable.
+     */
+    static final Object UNWRITABLE = new Object() {
+        @Override
+        public String toString() {
+            return "unwritable";
+        }
+    };
+
+    private static final AttributeKey<ReadGate> KEY = AttributeKey
+            .valueOf(ReadGate.class.getName());
+
+    /**
+     * Gets the gate of a channel, making it if there isn't one yet. Safe to
+     * call from any thread.
+     *
+     * @param ch
+     *            - the channel
+     * @return the gate
+     */
+    static ReadGate of(Channel ch) {
+        Attribute<ReadGate> attr = ch.attr(KEY);
+        ReadGate gate = attr.get();
+        if (gate == null) {
+            gate = new ReadGate(ch);
+            ReadGate old = attr.setIfAbsent(gate);
+            if (old != null) {
+                gate = old;
+            }
+        }
+        return gate;
+    }
+
+    private final Channel channel;
+    private final Set<Object> reasons = new HashSet<Object>();
+
+    private ReadGate(Channel ch) {
+        channel = ch;
+    }
+
+    /**
+     * Stops the channel reading until every reason is gone. Safe to call
+     * from any thread, and more than once for the same reason.
+     *
+     * @param reason
+     *            - what it is stopped for
+     */
+    synchronized void suspend(Object reason) {
+        if (reasons.add(reason) && reasons.size() == 1) {
+            channel.config().setAutoRead(false);
+        }
+    }
+
+    /**
+     * Drops a reason to stop, and starts reading again if it was the last.
+     * Safe to call from any thread, and for reasons that aren't there.
+     *
+     * @param reason
+     *            - what it was stopped for
+     */
+    synchronized void resume(Object reason) {
+        if (reasons.remove(reason) && reasons.isEmpty()) {
+            channel.config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * Suspends or resumes for {@link #UNWRITABLE}, from the channel's
+     * writability.
+     */
+    void writabilityChanged() {
+        if (channel.isWritable()) {
+            resume(UNWRITABLE);
+        } else {
+            suspend(UNWRITABLE);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ReadGate" + reasons;
+    }
+}
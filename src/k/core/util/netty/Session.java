@@ -0,0 +1,347 @@
+package k.core.util.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One client connected to a {@link NetHandlerServer}. Each session has its
+ * own send and receive queues, so a packet received from a client is answered
+ * to that client.
+ * <br>
+ * <br>
+ * The queues are processed by the server's {@link PacketExecutor}, on the
+ * channel's event loop unless it is given another one. Packets can be added
+ * from any thread, which then has the queues processed, one thread at a time
+ * and for at most <tt>packet.processBudgetMicros</tt> before other sessions
+ * get a turn. If the server {@link NetHandlerServer#setSessionQueueLimit
+ * bounds the queues} with {@link OverflowPolicy#BLOCK}, a full queue is
+ * emptied right away when added to by the thread processing it. With a worker
+ * pool, the event loop waits for a worker to make room, and the worker goes
+ * on processing a full queue even while the client isn't keeping up, so the
+ * two never wait for each other.
+ * <br>
+ * <br>
+ * Writes never block, and are flushed together (see {@link PacketWriter}).
+ * When the client stops keeping up and the channel's write buffer passes its
+ * high water mark, the session stops processing its queues and reading from
+ * the client until the buffer drains.
+ *
+ * @author Kenzie Togami
+ *
+ */
+public class Session extends NetHandler {
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private final int id = nextId.incrementAndGet();
+    private final NetHandlerServer server;
+    private final Channel channel;
+    private final EventLoop loop;
+    private final PacketWriter writer;
+    /**
+     * Set from when a run is scheduled until it is done, so only one thread
+     * processes the queues at a time.
+     */
+    private final AtomicBoolean processScheduled = new AtomicBoolean();
+    private volatile Thread processor;
+    private final Runnable process = new Runnable() {
+        @Override
+        public void run() {
+            processor = Thread.currentThread();
+            try {
+                // if not, writabilityChanged will schedule another run
+                if (canProcess()) {
+                    Session.super.processQueue(PROCESS_BUDGET_NANOS,
+                            TimeUnit.NANOSECONDS);
+                }
+            } finally {
+                processor = null;
+                processScheduled.set(false);
+            }
+            // packets added during the run, or ran out of time and let other
+            // sessions go first
+            if (hasQueuedPackets() && !stopped && canProcess()) {
+                scheduleProcess();
+            }
+        }
+    };
+
+    /*
+     * Holds off while the client isn't keeping up. Once the channel is
+     * closed there is nothing to hold off for, and what was received (like
+     * the termination packet) is still processed. A full queue may have the
+     * event loop waiting on it, and then the loop can't tell us the client
+     * caught up, so that is processed too.
+     */
+    private boolean canProcess() {
+        return writer.isWritable() || !channel.isActive()
+                || getReceiveQueue().isFull() || getSendQueue().isFull();
+    }
+
+    Session(NetHandlerServer nhs, Channel ch) {
+        super(nhs.sessionCapacity, nhs.sessionPolicy);
+        server = nhs;
+        channel = ch;
+        loop = ch.eventLoop();
+        writer = new PacketWriter(ch);
+    }
+
+    /*
+     * The server's executor can change, so this is looked up for each run.
+     */
+    private Executor executor() {
+        return server.executor.executorFor(channel);
+    }
+
+    /**
+     * Gets the id of this session. Ids are unique for the life of the JVM.
+     *
+     * @return the id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the server this session is connected to.
+     *
+     * @return the server
+     */
+    public NetHandlerServer getServer() {
+        return server;
+    }
+
+    /**
+     * Gets the channel for this session.
+     *
+     * @return the channel
+     */
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Gets the client's address.
+     *
+     * @return the remote address
+     */
+    public SocketAddress getRemoteAddress() {
+        return channel.remoteAddress();
+    }
+
+    @Override
+    public void addPacketToSendQueue(Packet p) {
+        super.addPacketToSendQueue(p);
+        scheduleProcess();
+    }
+
+    @Override
+    public void addPacketToRecvQueue(Packet p) {
+        super.addPacketToRecvQueue(p);
+        scheduleProcess();
+    }
+
+    /**
+     * Gets the session's own {@link BlobListener}, or else the server's.
+     */
+    @Override
+    BlobListener getBlobListener() {
+        BlobListener l = super.getBlobListener();
+        return l != null ? l : server.getBlobListener();
+    }
+
+    @Override
+    protected boolean isProcessingThread() {
+        return processor == Thread.currentThread() || executor() == loop
+                && loop.inEventLoop();
+    }
+
+    @Override
+    protected void queueFull() {
+        scheduleProcess();
+    }
+
+    /**
+     * Processes the queues on the session's {@link PacketExecutor}. Called
+     * from any other thread, this only schedules the processing and returns.
+     */
+    @Override
+    public void processQueue(long timeout, TimeUnit unit) {
+        if (isProcessingThread()) {
+            super.processQueue(timeout, unit);
+        } else {
+            scheduleProcess();
+        }
+    }
+
+    /*
+     * Runs the queues once on the executor, no matter how many packets are
+     * added before then. Safe to call from any thread.
+     */
+    void scheduleProcess() {
+        if (!processScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        Executor executor = executor();
+        while (true) {
+            try {
+                executor.execute(process);
+                return;
+            } catch (RejectedExecutionException e) {
+                Executor now = executor();
+                if (now == executor) {
+                    // shutting down
+                    processScheduled.set(false);
+                    return;
+                }
+                // replaced while we were scheduling
+                executor = now;
+            }
+        }
+    }
+
+    /**
+     * Writes the packet to the client. Never blocks.
+     *
+     * @return <tt>false</tt> if the session is closed
+     * @see #write(Packet)
+     */
+    @Override
+    public boolean sendPacket(Packet p) {
+        if (!channel.isActive()) {
+            return false;
+        }
+        writer.write(p);
+        return true;
+    }
+
+    /**
+     * Writes the packet to the client. Never blocks, and can be called from
+     * any thread.
+     *
+     * @param p
+     *            - the packet
+     * @return completes once the packet is written to the socket
+     */
+    public ChannelFuture write(Packet p) {
+        return writer.write(p);
+    }
+
+    /**
+     * Writes an already encoded packet.
+     */
+    ChannelFuture writeEncoded(Object encoded) {
+        return writer.write(encoded);
+    }
+
+    /**
+     * Sends a file to the client as a {@link Blob} named after the file.
+     * Never blocks; the file is sent in the background, without being read
+     * into memory, and closed once done.
+     * 
+     * @param file
+     *            - the file
+     * @return completes once the whole file is written to the socket
+     * @throws IOException
+     *             if the file can't be opened
+     * @throws IllegalStateException
+     *             if the format isn't {@link PacketFormat#BINARY}
+     */
+    public ChannelFuture sendFile(File file) throws IOException {
+        checkBlobs();
+        return BlobSender.sendFile(channel, file);
+    }
+
+    /**
+     * Sends part of a file to the client as a {@link Blob}. Never blocks;
+     * the file is sent in the background, without being read into memory.
+     * The file is left open, and must not be closed until the returned
+     * future completes.
+     * 
+     * @param name
+     *            - the name of the blob
+     * @param file
+     *            - the file
+     * @param position
+     *            - where in the file to start
+     * @param count
+     *            - how many bytes to send
+     * @return completes once the whole blob is written to the socket
+     * @throws IllegalStateException
+     *             if the format isn't {@link PacketFormat#BINARY}
+     */
+    public ChannelFuture sendBlob(String name, FileChannel file,
+            long position, long count) {
+        checkBlobs();
+        return BlobSender.send(channel, name, file, position, count, false);
+    }
+
+    private void checkBlobs() {
+        if (server.format != PacketFormat.BINARY) {
+            throw new IllegalStateException(server.format
+                    + " can't send blobs");
+        }
+    }
+
+    /**
+     * Checks if the client is keeping up with what is sent to it.
+     *
+     * @return <tt>false</tt> if the channel's write buffer is over its high
+     *         water mark
+     */
+    public boolean isWritable() {
+        return writer.isWritable();
+    }
+
+    /**
+     * Stops reading from the client while it isn't keeping up with our
+     * writes, and picks the queues back up once it is.
+     */
+    void writabilityChanged() {
+        ReadGate.of(channel).writabilityChanged();
+        if (channel.isWritable()) {
+            scheduleProcess();
+        }
+    }
+
+    /**
+     * Gets the compression the client asked for and the server accepted.
+     * 
+     * @return the compression, or <tt>null</tt> if there is none
+     */
+    public Compression getCompression() {
+        PacketBatchEncoder encoder = channel.pipeline().get(
+                PacketBatchEncoder.class);
+        return encoder == null ? null : encoder.getCompression();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return stopped || !channel.isActive();
+    }
+
+    /**
+     * Closes the connection, after sending what was written. The session is
+     * removed from the server once the channel is closed.
+     */
+    @Override
+    public void shutdown() {
+        stopped = true;
+        writer.close();
+    }
+
+    @Override
+    public String toString() {
+        return "Session#" + id + "[" + channel.remoteAddress() + "]";
+    }
+}
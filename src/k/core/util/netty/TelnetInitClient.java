@@ -3,15 +3,8 @@ package k.core.util.netty;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
-import io.netty.handler.codec.Delimiters;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
 
 class TelnetInitClient extends ChannelInitializer<SocketChannel> {
-    private static final StringDecoder DECODER = new StringDecoder();
-    private static final StringEncoder ENCODER = new StringEncoder();
-
     private NetHandlerClient nhc = null;
 
     public TelnetInitClient(NetHandlerClient client) {
@@ -22,12 +15,15 @@ class TelnetInitClient extends ChannelInitializer<SocketChannel> {
     public void initChannel(SocketChannel ch) throws Exception {
         ChannelPipeline pipeline = ch.pipeline();
 
-        // Add the text line codec combination first,
-        pipeline.addLast("framer", new DelimiterBasedFrameDecoder(8192,
-                Delimiters.lineDelimiter()));
-        pipeline.addLast("decoder", DECODER);
-        pipeline.addLast("encoder", ENCODER);
+        // Add the packet codec first,
+        pipeline.addLast("bytes", new ByteCounter(nhc.getMetrics()));
+        nhc.format.addCodec(pipeline, nhc.getMetrics());
+        if (nhc.format == PacketFormat.BINARY) {
+            pipeline.addAfter("decompressor", "blobs", new BlobDecoder(nhc));
+            pipeline.addLast("negotiator", new CompressionNegotiator(null));
+        }
 
+        nhc.writer = new PacketWriter(ch);
         nhc.client = new TelnetClient();
         nhc.client.client = nhc;
         // and then business logic.
@@ -3,55 +3,50 @@ package k.core.util.netty;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 
-import java.util.LinkedList;
-
-class TelnetServer extends SimpleChannelInboundHandler<String> implements
-        PacketSender {
-    private LinkedList<Packet> send = new LinkedList<Packet>();
-    NetHandlerServer server = null;
-    private ChannelHandlerContext mostRecent = null;
+/**
+ * Connects one channel to its {@link Session}.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+class TelnetServer extends SimpleChannelInboundHandler<Packet> {
+    private final Session session;
+
+    TelnetServer(Session s) {
+        session = s;
+    }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
-        mostRecent = ctx;
+        session.getServer().register(session);
         System.err.println("accepted connection on server!");
     }
 
     @Override
-    public void channelRead0(ChannelHandlerContext ctx, String request)
-            throws Exception {
-        mostRecent = ctx;
-        server.addPacketToRecvQueue(Packet.fromData(request));
-        server.processQueue(100);
-        writePackets();
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        session.getServer().unregister(session);
+        // it may have been waiting to be writable, and that's over now
+        session.scheduleProcess();
     }
 
-    public void writePackets() {
-        while (!send.isEmpty()) {
-            mostRecent.writeAndFlush(Packet.toData(send.poll()) + "\r\n")
-                    .syncUninterruptibly();
-        }
+    @Override
+    public void channelRead0(ChannelHandlerContext ctx, Packet request)
+            throws Exception {
+        session.addPacketToRecvQueue(request);
     }
 
     @Override
-    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
-        mostRecent = ctx;
-        ctx.flush();
+    public void channelWritabilityChanged(ChannelHandlerContext ctx)
+            throws Exception {
+        session.writabilityChanged();
+        super.channelWritabilityChanged(ctx);
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
             throws Exception {
-        mostRecent = ctx;
-        System.err.println("EXCEPTION: ");
+        System.err.println("EXCEPTION on " + session + ": ");
         cause.printStackTrace();
         ctx.close();
     }
-
-    @Override
-    public boolean sendPacket(Packet p) {
-        send.addLast(p);
-        writePackets();
-        return true;
-    }
-}
\ No newline at end of file
+}
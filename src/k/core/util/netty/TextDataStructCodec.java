@@ -0,0 +1,31 @@
+package k.core.util.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.CharsetUtil;
+
+/**
+ * The {@link DataStructCodec#TEXT} codec.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+class TextDataStructCodec implements DataStructCodec {
+    @Override
+    public void encode(DataStruct ds, ByteBuf out) {
+        // the text is all ASCII, since strings are base 64 encoded
+        out.writeBytes(ds.toString().getBytes(CharsetUtil.US_ASCII));
+    }
+
+    @Override
+    public DataStruct decode(ByteBuf in) {
+        String data = in.toString(CharsetUtil.US_ASCII);
+        in.skipBytes(in.readableBytes());
+        try {
+            return new DataStruct(data);
+        } catch (IllegalArgumentException e) {
+            // a number or base 64 that doesn't parse
+            throw new CorruptedFrameException(e);
+        }
+    }
+}
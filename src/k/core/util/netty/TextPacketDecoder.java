@@ -0,0 +1,38 @@
+package k.core.util.netty;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.util.List;
+
+/**
+ * Turns a {@link PacketFormat#TEXT} line back into a {@link Packet}.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+@Sharable
+class TextPacketDecoder extends MessageToMessageDecoder<String> {
+    private final NetMetrics metrics;
+
+    /**
+     * @param metrics
+     *            - counts the packets decoded, or <tt>null</tt>
+     */
+    TextPacketDecoder(NetMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, String msg,
+            List<Object> out) throws Exception {
+        long start = System.nanoTime();
+        Packet p = Packet.fromData(msg);
+        if (metrics != null && p != null) {
+            // the framer took the line end off
+            metrics.received(p, msg.length() + 2, System.nanoTime() - start);
+        }
+        out.add(p);
+    }
+}
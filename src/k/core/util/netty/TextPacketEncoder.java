@@ -0,0 +1,37 @@
+package k.core.util.netty;
+
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+
+/**
+ * Turns a {@link Packet} into a {@link PacketFormat#TEXT} line.
+ * 
+ * @author Kenzie Togami
+ * 
+ */
+@Sharable
+class TextPacketEncoder extends MessageToMessageEncoder<Packet> {
+    private final NetMetrics metrics;
+
+    /**
+     * @param metrics
+     *            - counts the packets encoded, or <tt>null</tt>
+     */
+    TextPacketEncoder(NetMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Packet msg,
+            List<Object> out) throws Exception {
+        long start = System.nanoTime();
+        String line = Packet.toData(msg) + "\r\n";
+        if (metrics != null) {
+            metrics.written(msg, line.length(), System.nanoTime() - start);
+        }
+        out.add(line);
+    }
+}